@@ -0,0 +1,100 @@
+/**
+ * Copyright 2025 The Google AI Edge Authors.
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ai.edge.localagents.rag.memory;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * An exact-scan vector store that scans embeddings as 1-bit sign sketches: a 768-dimension
+ * embedding takes 96 bytes, 1/32 of its full-precision size.
+ *
+ * <p>Queries rank every record by the Hamming distance between its sketch and the query's, counted
+ * with {@link Long#bitCount} over 64 dimensions at a time, then re-score the closest {@code
+ * rerankMultiplier * topK} candidates with the exact cosine similarity against the full-precision
+ * vectors. Returned records carry their full-precision embeddings.
+ *
+ * <p>The memory savings depend on where the full-precision vectors live. When they are kept in a
+ * file, the resident embeddings take 1/32 of the memory of {@link DefaultVectorStore}. The
+ * constructors without a file path keep them on the heap next to the sketches, which takes more
+ * memory than {@link DefaultVectorStore} and only speeds up the scan. To prefilter the records of
+ * a {@link DefaultVectorStore} with sign sketches instead, create it with {@link
+ * DefaultVectorStore#withSignSketches}.
+ */
+public final class BinaryQuantizedVectorStore<T> extends RerankingVectorStore<T> {
+  public static final int DEFAULT_RERANK_MULTIPLIER = 10;
+
+  private final int sketchWords;
+  private long[] sketches;
+
+  /**
+   * Creates a store that keeps full-precision vectors on the heap.
+   *
+   * @param dimensions The number of dimensions of the embeddings.
+   */
+  public BinaryQuantizedVectorStore(int dimensions) {
+    this(dimensions, DEFAULT_RERANK_MULTIPLIER);
+  }
+
+  /**
+   * Creates a store that keeps full-precision vectors on the heap.
+   *
+   * @param dimensions The number of dimensions of the embeddings.
+   * @param rerankMultiplier How many candidates per requested result are re-scored exactly.
+   */
+  public BinaryQuantizedVectorStore(int dimensions, int rerankMultiplier) {
+    this(dimensions, rerankMultiplier, FloatRowStorage.inMemory(dimensions));
+  }
+
+  /**
+   * Creates a store that keeps full-precision vectors in a file. Only the sketches, record data
+   * and metadata stay on the heap.
+   *
+   * @param dimensions The number of dimensions of the embeddings.
+   * @param rerankMultiplier How many candidates per requested result are re-scored exactly.
+   * @param vectorFilePath The file holding the full-precision vectors. It is overwritten.
+   */
+  public BinaryQuantizedVectorStore(int dimensions, int rerankMultiplier, Path vectorFilePath) {
+    this(dimensions, rerankMultiplier, FloatRowStorage.inFile(vectorFilePath, dimensions));
+  }
+
+  private BinaryQuantizedVectorStore(
+      int dimensions, int rerankMultiplier, FloatRowStorage vectors) {
+    super(dimensions, rerankMultiplier, vectors);
+    if (dimensions < 1) {
+      throw new IllegalArgumentException("dimensions must be positive");
+    }
+    this.sketchWords = SignSketches.numWords(dimensions);
+    this.sketches = new long[INITIAL_CAPACITY * sketchWords];
+  }
+
+  @Override
+  void growIndex(int capacity) {
+    sketches = Arrays.copyOf(sketches, capacity * sketchWords);
+  }
+
+  @Override
+  void addToIndex(int id, float[] normalized) {
+    SignSketches.sketch(normalized, sketches, id * sketchWords);
+  }
+
+  @Override
+  CoarseScorer prepareQuery(float[] normalizedQuery) {
+    long[] querySketch = new long[sketchWords];
+    SignSketches.sketch(normalizedQuery, querySketch, 0);
+    // The closest sketches have the highest negated distance.
+    return id ->
+        -SignSketches.hammingDistance(querySketch, 0, sketches, id * sketchWords, sketchWords);
+  }
+}
@@ -0,0 +1,489 @@
+/**
+ * Copyright 2025 The Google AI Edge Authors.
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ai.edge.localagents.rag.memory;
+
+import static com.google.common.util.concurrent.Futures.immediateFuture;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.ai.edge.localagents.rag.retrieval.BaseRetriever;
+import com.google.ai.edge.localagents.rag.retrieval.MetadataFilter;
+import com.google.ai.edge.localagents.rag.retrieval.RetrievalEntity;
+import com.google.ai.edge.localagents.rag.retrieval.RetrievalRequest;
+import com.google.ai.edge.localagents.rag.retrieval.RetrievalResponse;
+import com.google.ai.edge.localagents.rag.shared.EmbeddingVector;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ListenableFuture;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * A lexical retriever that ranks texts by their Okapi BM25 score against the query terms.
+ *
+ * <p>Text is split into lower-cased runs of letters and digits. Each term maps to a posting list of
+ * the texts containing it, stored as variable-length integers: the gap to the previous text
+ * followed by the term's frequency in the text. A query decodes only the posting lists of its own
+ * terms, which makes it cheap for keyword-heavy queries such as codes and product names.
+ *
+ * <p>Only the texts and their metadata are kept, so results carry no embeddings. Texts indexed
+ * under an id can be replaced with {@link #upsert} and removed with {@link #delete}; removed texts
+ * are skipped by queries and dropped by {@link #writeTo}. The index lives on the heap and can be
+ * saved with {@link #writeTo} and loaded back with {@link #readFrom}. Lookups may run concurrently
+ * with each other; writes are exclusive.
+ */
+public final class Bm25Index implements BaseRetriever<String> {
+  // Term frequency saturation and document length normalization, at their customary values.
+  private static final float K1 = 1.2f;
+  private static final float B = 0.75f;
+  private static final int MAGIC = 0x424D3235; // "BM25"
+  private static final int VERSION = 1;
+  private static final long NO_ID = -1;
+  private static final byte TYPE_STRING = 0;
+  private static final byte TYPE_INTEGER = 1;
+  private static final byte TYPE_LONG = 2;
+  private static final byte TYPE_FLOAT = 3;
+  private static final byte TYPE_DOUBLE = 4;
+  private static final byte TYPE_BOOLEAN = 5;
+
+  private final Map<String, PostingList> postings = new HashMap<>();
+  private final List<String> texts = new ArrayList<>();
+  private final List<ImmutableMap<String, Object>> metadata = new ArrayList<>();
+  // Id of each text indexed under one, or NO_ID.
+  private long[] ids = new long[16];
+  private int[] lengths = new int[16];
+  // Position of each text indexed under an id, by id.
+  private final Map<Long, Integer> positions = new HashMap<>();
+  private final BitSet deleted = new BitSet();
+  private int numDeleted = 0;
+  private long totalLength = 0;
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+  /** Indexes a text that cannot be replaced or deleted later. */
+  public void insert(String text, ImmutableMap<String, Object> metadata) {
+    lock.writeLock().lock();
+    try {
+      add(NO_ID, text, metadata);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Indexes a text under the given id, replacing the text previously indexed under it, if any.
+   *
+   * @param id The id of the text, usually the id of its record in a vector store.
+   * @param text The text to index.
+   * @param metadata The metadata of the text, which search filters are evaluated against.
+   */
+  public void upsert(long id, String text, ImmutableMap<String, Object> metadata) {
+    if (id < 0) {
+      throw new IllegalArgumentException("Ids must not be negative");
+    }
+    lock.writeLock().lock();
+    try {
+      Integer position = positions.get(id);
+      if (position != null) {
+        remove(position);
+      }
+      positions.put(id, add(id, text, metadata));
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /** Removes the text indexed under the given id, if any. */
+  public void delete(long id) {
+    lock.writeLock().lock();
+    try {
+      Integer position = positions.remove(id);
+      if (position != null) {
+        remove(position);
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /** Returns the number of indexed texts. */
+  public int size() {
+    lock.readLock().lock();
+    try {
+      return texts.size() - numDeleted;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Retrieves the top K texts with the highest BM25 score for the query, ignoring texts that share
+   * no term with it.
+   *
+   * @param query The query text.
+   * @param topK The number of top texts to retrieve.
+   * @param filter The filter that the metadata of the retrieved texts must match, if any.
+   * @return The top K texts and their metadata as records without embeddings, best first.
+   */
+  public ImmutableList<VectorStoreRecord<String>> search(
+      String query, int topK, @Nullable MetadataFilter filter) {
+    if (topK <= 0) {
+      return ImmutableList.of();
+    }
+    Set<String> terms = new LinkedHashSet<>(tokenize(query));
+    lock.readLock().lock();
+    try {
+      int numTexts = texts.size() - numDeleted;
+      if (numTexts == 0) {
+        return ImmutableList.of();
+      }
+      float averageLength = Math.max((float) totalLength / numTexts, 1);
+      List<PostingCursor> cursors = new ArrayList<>();
+      for (String term : terms) {
+        PostingList postingList = postings.get(term);
+        if (postingList != null && postingList.numLive > 0) {
+          cursors.add(new PostingCursor(postingList, numTexts));
+        }
+      }
+      // Merges the posting lists text by text, so that no per-text accumulator is needed.
+      ScoreHeap nearest = new ScoreHeap(topK);
+      while (true) {
+        int position = Integer.MAX_VALUE;
+        for (PostingCursor cursor : cursors) {
+          position = Math.min(position, cursor.position);
+        }
+        if (position == Integer.MAX_VALUE) {
+          break;
+        }
+        float norm = K1 * (1 - B + B * lengths[position] / averageLength);
+        float score = 0;
+        for (PostingCursor cursor : cursors) {
+          if (cursor.position == position) {
+            score += cursor.idf * cursor.frequency * (K1 + 1) / (cursor.frequency + norm);
+            cursor.next();
+          }
+        }
+        if (!deleted.get(position)
+            && (filter == null || filter.matches(metadata.get(position)))) {
+          nearest.offer(position, score, topK);
+        }
+      }
+      ImmutableList.Builder<VectorStoreRecord<String>> results = ImmutableList.builder();
+      for (int position : nearest.drainDescending()) {
+        results.add(
+            VectorStoreRecord.create(
+                texts.get(position), EmbeddingVector.empty(), metadata.get(position)));
+      }
+      return results.build();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Retrieves the top K texts for the request's query, honoring its metadata filter. The minimum
+   * similarity score does not apply to BM25 scores and is ignored.
+   */
+  @Override
+  public ListenableFuture<RetrievalResponse<String>> retrieveResults(
+      RetrievalRequest<String> request) {
+    ImmutableList.Builder<RetrievalEntity<String>> entities = ImmutableList.builder();
+    for (VectorStoreRecord<String> record :
+        search(
+            request.getQuery(),
+            request.getConfig().getTopK(),
+            request.getConfig().getMetadataFilter().orElse(null))) {
+      entities.add(
+          RetrievalEntity.<String>builder()
+              .setData(record.getData())
+              .setEmbeddingVector(record.getEmbeddingVector())
+              .setMetadata(record.getMetadata())
+              .build());
+    }
+    return immediateFuture(RetrievalResponse.create(entities.build()));
+  }
+
+  /**
+   * Writes the indexed texts, their ids and metadata in a versioned binary format readable by
+   * {@link #readFrom}. Metadata values keep their type, so numeric filters still apply after
+   * loading.
+   *
+   * @throws IllegalArgumentException if a metadata value is not a {@code String}, {@code
+   *     Integer}, {@code Long}, {@code Float}, {@code Double} or {@code Boolean}.
+   */
+  public void writeTo(OutputStream outputStream) throws IOException {
+    DataOutputStream output = new DataOutputStream(outputStream);
+    lock.readLock().lock();
+    try {
+      output.writeInt(MAGIC);
+      output.writeInt(VERSION);
+      output.writeInt(texts.size() - numDeleted);
+      for (int position = 0; position < texts.size(); position++) {
+        if (deleted.get(position)) {
+          continue;
+        }
+        output.writeLong(ids[position]);
+        writeString(output, texts.get(position));
+        output.writeInt(metadata.get(position).size());
+        for (Map.Entry<String, Object> entry : metadata.get(position).entrySet()) {
+          writeString(output, entry.getKey());
+          writeValue(output, entry.getValue());
+        }
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+    output.flush();
+  }
+
+  /** Reads an index written by {@link #writeTo}, re-tokenizing its texts. */
+  public static Bm25Index readFrom(InputStream inputStream) throws IOException {
+    DataInputStream input = new DataInputStream(inputStream);
+    if (input.readInt() != MAGIC) {
+      throw new IOException("Not a BM25 index");
+    }
+    int version = input.readInt();
+    if (version != VERSION) {
+      throw new IOException("Unsupported BM25 index version " + version);
+    }
+    int numTexts = input.readInt();
+    if (numTexts < 0) {
+      throw new IOException("Corrupted BM25 index header");
+    }
+    Bm25Index index = new Bm25Index();
+    for (int i = 0; i < numTexts; i++) {
+      long id = input.readLong();
+      String text = readString(input);
+      int numPairs = input.readInt();
+      if (numPairs < 0) {
+        throw new IOException("Corrupted BM25 index metadata count " + numPairs);
+      }
+      ImmutableMap.Builder<String, Object> metadata = ImmutableMap.builder();
+      for (int j = 0; j < numPairs; j++) {
+        metadata.put(readString(input), readValue(input));
+      }
+      if (id == NO_ID) {
+        index.insert(text, metadata.buildOrThrow());
+      } else {
+        index.upsert(id, text, metadata.buildOrThrow());
+      }
+    }
+    return index;
+  }
+
+  /** Appends a text and returns its position. Must be called while holding the write lock. */
+  private int add(long id, String text, ImmutableMap<String, Object> textMetadata) {
+    Map<String, Integer> frequencies = termFrequencies(text);
+    int position = texts.size();
+    texts.add(text);
+    metadata.add(textMetadata);
+    if (position == lengths.length) {
+      lengths = Arrays.copyOf(lengths, position * 2);
+      ids = Arrays.copyOf(ids, position * 2);
+    }
+    int length = 0;
+    for (Map.Entry<String, Integer> entry : frequencies.entrySet()) {
+      postings
+          .computeIfAbsent(entry.getKey(), term -> new PostingList())
+          .add(position, entry.getValue());
+      length += entry.getValue();
+    }
+    lengths[position] = length;
+    ids[position] = id;
+    totalLength += length;
+    return position;
+  }
+
+  /**
+   * Marks the text at {@code position} as deleted. Its postings stay in place and are skipped by
+   * queries, but no longer count towards term and length statistics. Must be called while holding
+   * the write lock.
+   */
+  private void remove(int position) {
+    deleted.set(position);
+    numDeleted++;
+    totalLength -= lengths[position];
+    for (String term : termFrequencies(texts.get(position)).keySet()) {
+      postings.get(term).numLive--;
+    }
+  }
+
+  // Unlike DataOutput.writeUTF, not limited to 64 KB.
+  private static void writeString(DataOutputStream output, String string) throws IOException {
+    byte[] bytes = string.getBytes(UTF_8);
+    output.writeInt(bytes.length);
+    output.write(bytes);
+  }
+
+  private static String readString(DataInputStream input) throws IOException {
+    int length = input.readInt();
+    if (length < 0) {
+      throw new IOException("Corrupted BM25 index string length " + length);
+    }
+    byte[] bytes = new byte[length];
+    input.readFully(bytes);
+    return new String(bytes, UTF_8);
+  }
+
+  private static void writeValue(DataOutputStream output, Object value) throws IOException {
+    if (value instanceof String) {
+      output.writeByte(TYPE_STRING);
+      writeString(output, (String) value);
+    } else if (value instanceof Integer) {
+      output.writeByte(TYPE_INTEGER);
+      output.writeInt((Integer) value);
+    } else if (value instanceof Long) {
+      output.writeByte(TYPE_LONG);
+      output.writeLong((Long) value);
+    } else if (value instanceof Float) {
+      output.writeByte(TYPE_FLOAT);
+      output.writeFloat((Float) value);
+    } else if (value instanceof Double) {
+      output.writeByte(TYPE_DOUBLE);
+      output.writeDouble((Double) value);
+    } else if (value instanceof Boolean) {
+      output.writeByte(TYPE_BOOLEAN);
+      output.writeBoolean((Boolean) value);
+    } else {
+      throw new IllegalArgumentException(
+          "Unsupported metadata value type " + value.getClass().getName());
+    }
+  }
+
+  private static Object readValue(DataInputStream input) throws IOException {
+    byte type = input.readByte();
+    switch (type) {
+      case TYPE_STRING:
+        return readString(input);
+      case TYPE_INTEGER:
+        return input.readInt();
+      case TYPE_LONG:
+        return input.readLong();
+      case TYPE_FLOAT:
+        return input.readFloat();
+      case TYPE_DOUBLE:
+        return input.readDouble();
+      case TYPE_BOOLEAN:
+        return input.readBoolean();
+      default:
+        throw new IOException("Unknown metadata value type " + type);
+    }
+  }
+
+  private static Map<String, Integer> termFrequencies(String text) {
+    Map<String, Integer> frequencies = new HashMap<>();
+    for (String term : tokenize(text)) {
+      frequencies.merge(term, 1, Integer::sum);
+    }
+    return frequencies;
+  }
+
+  /** Splits text into lower-cased runs of letters and digits. */
+  static List<String> tokenize(String text) {
+    List<String> terms = new ArrayList<>();
+    int start = -1;
+    for (int i = 0; i <= text.length(); i++) {
+      boolean inTerm = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+      if (inTerm && start < 0) {
+        start = i;
+      } else if (!inTerm && start >= 0) {
+        terms.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+        start = -1;
+      }
+    }
+    return terms;
+  }
+
+  /** The texts containing a term, in increasing order, with the term's frequency in each. */
+  private static final class PostingList {
+    byte[] bytes = new byte[8];
+    int length = 0;
+    // Number of texts in the list that are not deleted.
+    int numLive = 0;
+    int lastPosition = -1;
+
+    void add(int position, int frequency) {
+      writeVarint(position - lastPosition);
+      writeVarint(frequency);
+      lastPosition = position;
+      numLive++;
+    }
+
+    private void writeVarint(int value) {
+      if (length + 5 > bytes.length) {
+        bytes = Arrays.copyOf(bytes, bytes.length * 2);
+      }
+      while ((value & ~0x7f) != 0) {
+        bytes[length++] = (byte) ((value & 0x7f) | 0x80);
+        value >>>= 7;
+      }
+      bytes[length++] = (byte) value;
+    }
+  }
+
+  /**
+   * Decodes a posting list one text at a time. {@link #position} is {@link Integer#MAX_VALUE} once
+   * the list is exhausted.
+   */
+  private static final class PostingCursor {
+    private final byte[] bytes;
+    private final int length;
+    private int offset = 0;
+    final float idf;
+    int position = -1;
+    int frequency;
+
+    PostingCursor(PostingList postingList, int numTexts) {
+      this.bytes = postingList.bytes;
+      this.length = postingList.length;
+      this.idf =
+          (float)
+              Math.log(1 + (numTexts - postingList.numLive + 0.5) / (postingList.numLive + 0.5));
+      next();
+    }
+
+    void next() {
+      if (offset == length) {
+        position = Integer.MAX_VALUE;
+        return;
+      }
+      position += readVarint();
+      frequency = readVarint();
+    }
+
+    private int readVarint() {
+      int value = 0;
+      for (int shift = 0; ; shift += 7) {
+        byte b = bytes[offset++];
+        value |= (b & 0x7f) << shift;
+        if (b >= 0) {
+          return value;
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,40 @@
+/**
+ * Copyright 2025 The Google AI Edge Authors.
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ai.edge.localagents.rag.memory;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/** Converts the data of {@link VectorStoreRecord}s to and from bytes, to persist a vector store. */
+public interface DataCodec<T> {
+  /** Encodes the data of a record. */
+  byte[] encode(T data);
+
+  /** Decodes data encoded by {@link #encode}. */
+  T decode(byte[] bytes);
+
+  /** Returns a codec storing strings as UTF-8. */
+  static DataCodec<String> utf8() {
+    return new DataCodec<String>() {
+      @Override
+      public byte[] encode(String data) {
+        return data.getBytes(UTF_8);
+      }
+
+      @Override
+      public String decode(byte[] bytes) {
+        return new String(bytes, UTF_8);
+      }
+    };
+  }
+}
@@ -19,10 +19,12 @@ import static com.google.common.util.concurrent.Futures.immediateFuture;
 import com.google.ai.edge.localagents.rag.models.EmbedData;
 import com.google.ai.edge.localagents.rag.models.Embedder;
 import com.google.ai.edge.localagents.rag.models.EmbeddingRequest;
+import com.google.ai.edge.localagents.rag.retrieval.RetrievalConfig;
 import com.google.ai.edge.localagents.rag.retrieval.RetrievalEntity;
 import com.google.ai.edge.localagents.rag.retrieval.RetrievalRequest;
 import com.google.ai.edge.localagents.rag.retrieval.RetrievalResponse;
 import com.google.ai.edge.localagents.rag.retrieval.SemanticDataEntry;
+import com.google.ai.edge.localagents.rag.shared.EmbeddingVector;
 import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
@@ -30,6 +32,7 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import java.util.List;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.function.Consumer;
 
 /**
  * The default semantic text memory. It uses a vector store and embedding model for semantic
@@ -68,6 +71,14 @@ public final class DefaultSemanticTextMemory implements SemanticMemory<String> {
   @Override
   public ListenableFuture<RetrievalResponse<String>> retrieveResults(
       RetrievalRequest<String> request) {
+    return Futures.transform(
+        embeddingModel.getEmbeddingVector(toQueryEmbeddingRequest(request)),
+        (embeddings) -> getNearestEntities(request, embeddings),
+        workerExecutor);
+  }
+
+  /** Returns the request embedding the query of a retrieval request for its task. */
+  static EmbeddingRequest<String> toQueryEmbeddingRequest(RetrievalRequest<String> request) {
     EmbedData.Builder<String> embedDataBuilder =
         EmbedData.<String>builder().setData(request.getQuery()).setIsQuery(true);
     switch (request.getConfig().getTask()) {
@@ -85,29 +96,21 @@ public final class DefaultSemanticTextMemory implements SemanticMemory<String> {
         embedDataBuilder.setTask(EmbedData.TaskType.CODE_RETRIEVAL);
         break;
     }
-    EmbeddingRequest<String> embeddingRequest =
-        EmbeddingRequest.<String>create(ImmutableList.of(embedDataBuilder.build()));
-    return Futures.transform(
-        embeddingModel.getEmbeddings(embeddingRequest),
-        (embeddings) -> {
-          List<VectorStoreRecord<String>> records =
-              vectorStore.getNearestRecords(
-                  embeddings,
-                  request.getConfig().getTopK(),
-                  request.getConfig().getMinSimilarityScore());
-          ImmutableList<RetrievalEntity<String>> entities =
-              records.stream()
-                  .map(
-                      record ->
-                          RetrievalEntity.<String>builder()
-                              .setData(record.getData())
-                              .setEmbeddings(record.getEmbeddings())
-                              .setMetadata(record.getMetadata())
-                              .build())
-                  .collect(toImmutableList());
-          return RetrievalResponse.<String>create(entities);
-        },
-        workerExecutor);
+    return EmbeddingRequest.<String>create(ImmutableList.of(embedDataBuilder.build()));
+  }
+
+  /**
+   * Retrieves the top K elements from the memory that are most semantically similar to the given
+   * query, using the given query embeddings instead of calling the embedding model.
+   *
+   * @param request The retrieval request.
+   * @param queryEmbeddings The embeddings of the query.
+   * @return A future that resolves to the retrieval response.
+   */
+  @Override
+  public ListenableFuture<RetrievalResponse<String>> retrieveResults(
+      RetrievalRequest<String> request, EmbeddingVector queryEmbeddings) {
+    return Futures.submit(() -> getNearestEntities(request, queryEmbeddings), workerExecutor);
   }
 
   /**
@@ -132,26 +135,21 @@ public final class DefaultSemanticTextMemory implements SemanticMemory<String> {
    */
   @Override
   public ListenableFuture<Boolean> recordMemoryEntry(SemanticDataEntry<String> dataEntry) {
-    EmbedData<String> embedText =
-        EmbedData.<String>builder()
-            .setData(dataEntry.getCustomEmbeddingData().orElse(dataEntry.getData()))
-            .setTask(EmbedData.TaskType.RETRIEVAL_DOCUMENT)
-            .build();
-    EmbeddingRequest<String> embeddingRequest =
-        EmbeddingRequest.<String>create(ImmutableList.of(embedText));
-    return Futures.transform(
-        embeddingModel.getEmbeddings(embeddingRequest),
-        (embeddings) -> {
-          VectorStoreRecord<String> record =
-              VectorStoreRecord.<String>builder()
-                  .setData(dataEntry.getData())
-                  .setEmbeddings(embeddings)
-                  .setMetadata(dataEntry.getMetadata())
-                  .build();
-          vectorStore.insert(record);
-          return true;
-        },
-        workerExecutor);
+    return recordEntry(embeddingModel, dataEntry, vectorStore::insert, workerExecutor);
+  }
+
+  /**
+   * Stores the memory entry and its precomputed embeddings in the vector store.
+   *
+   * @param dataEntry The memory entry to record.
+   * @param embeddings The embeddings of the memory entry.
+   * @return A future that resolves to a boolean indicating whether the memory entry is successfully
+   *     stored in the vector store.
+   */
+  @Override
+  public ListenableFuture<Boolean> recordMemoryEntry(
+      SemanticDataEntry<String> dataEntry, EmbeddingVector embeddings) {
+    return recordEntry(dataEntry, embeddings, vectorStore::insert, workerExecutor);
   }
 
   /**
@@ -177,22 +175,64 @@ public final class DefaultSemanticTextMemory implements SemanticMemory<String> {
   @Override
   public ListenableFuture<Boolean> recordBatchedMemoryEntries(
       ImmutableList<SemanticDataEntry<String>> dataEntries) {
+    return recordBatchedEntries(
+        embeddingModel, dataEntries, vectorStore::insertBatch, workerExecutor);
+  }
+
+  /**
+   * Embeds a memory entry as a document, then passes its record to {@code insertRecord} on {@code
+   * executor}.
+   */
+  static ListenableFuture<Boolean> recordEntry(
+      Embedder<String> embeddingModel,
+      SemanticDataEntry<String> dataEntry,
+      Consumer<VectorStoreRecord<String>> insertRecord,
+      Executor executor) {
+    EmbeddingRequest<String> embeddingRequest =
+        EmbeddingRequest.<String>create(ImmutableList.of(toDocumentEmbedData(dataEntry)));
+    return Futures.transform(
+        embeddingModel.getEmbeddingVector(embeddingRequest),
+        (embeddings) -> {
+          insertRecord.accept(toRecord(dataEntry, embeddings));
+          return true;
+        },
+        executor);
+  }
+
+  /** Passes the record of a memory entry and its precomputed embeddings to {@code insertRecord}. */
+  static ListenableFuture<Boolean> recordEntry(
+      SemanticDataEntry<String> dataEntry,
+      EmbeddingVector embeddings,
+      Consumer<VectorStoreRecord<String>> insertRecord,
+      Executor executor) {
+    return Futures.submit(
+        () -> {
+          insertRecord.accept(toRecord(dataEntry, embeddings));
+          return true;
+        },
+        executor);
+  }
+
+  /**
+   * Embeds memory entries as documents in a single batch, then passes their records to {@code
+   * insertRecords} on {@code executor}.
+   */
+  static ListenableFuture<Boolean> recordBatchedEntries(
+      Embedder<String> embeddingModel,
+      ImmutableList<SemanticDataEntry<String>> dataEntries,
+      Consumer<ImmutableList<VectorStoreRecord<String>>> insertRecords,
+      Executor executor) {
     if (dataEntries.isEmpty()) {
       return immediateFuture(false);
     }
     var entries =
         dataEntries.stream()
-            .map(
-                dataEntry ->
-                    EmbedData.<String>builder()
-                        .setData(dataEntry.getCustomEmbeddingData().orElse(dataEntry.getData()))
-                        .setTask(EmbedData.TaskType.RETRIEVAL_DOCUMENT)
-                        .build())
+            .map(DefaultSemanticTextMemory::toDocumentEmbedData)
             .collect(toImmutableList());
     var request = EmbeddingRequest.create(entries);
 
     return Futures.transform(
-        embeddingModel.getBatchEmbeddings(request),
+        embeddingModel.getBatchEmbeddingVectors(request),
         (embeddingsList) -> {
           if (embeddingsList.size() != dataEntries.size()) {
             throw new AssertionError(
@@ -201,17 +241,60 @@ public final class DefaultSemanticTextMemory implements SemanticMemory<String> {
                     embeddingsList.size(), dataEntries.size()));
           }
 
+          ImmutableList.Builder<VectorStoreRecord<String>> records = ImmutableList.builder();
           for (int i = 0; i < embeddingsList.size(); i++) {
-            VectorStoreRecord<String> record =
-                VectorStoreRecord.<String>builder()
-                    .setData(dataEntries.get(i).getData())
-                    .setEmbeddings(embeddingsList.get(i))
-                    .setMetadata(dataEntries.get(i).getMetadata())
-                    .build();
-            vectorStore.insert(record);
+            records.add(toRecord(dataEntries.get(i), embeddingsList.get(i)));
           }
+          insertRecords.accept(records.build());
           return true;
         },
-        workerExecutor);
+        executor);
+  }
+
+  /** Returns the data embedding a memory entry for retrieval. */
+  static EmbedData<String> toDocumentEmbedData(SemanticDataEntry<String> dataEntry) {
+    return EmbedData.<String>builder()
+        .setData(dataEntry.getCustomEmbeddingData().orElse(dataEntry.getData()))
+        .setTask(EmbedData.TaskType.RETRIEVAL_DOCUMENT)
+        .build();
+  }
+
+  static VectorStoreRecord<String> toRecord(
+      SemanticDataEntry<String> dataEntry, EmbeddingVector embeddings) {
+    return VectorStoreRecord.<String>builder()
+        .setData(dataEntry.getData())
+        .setEmbeddingVector(embeddings)
+        .setMetadata(dataEntry.getMetadata())
+        .build();
+  }
+
+  private RetrievalResponse<String> getNearestEntities(
+      RetrievalRequest<String> request, EmbeddingVector queryEmbeddings) {
+    ImmutableList<RetrievalEntity<String>> entities =
+        getNearestRecords(vectorStore, request.getConfig(), queryEmbeddings).stream()
+            .map(DefaultSemanticTextMemory::toRetrievalEntity)
+            .collect(toImmutableList());
+    return RetrievalResponse.<String>create(entities);
+  }
+
+  /** Returns the nearest records to the query, applying the configuration's metadata filter. */
+  static List<VectorStoreRecord<String>> getNearestRecords(
+      VectorStore<String> vectorStore, RetrievalConfig config, EmbeddingVector queryEmbeddings) {
+    return config.getMetadataFilter().isPresent()
+        ? vectorStore.getNearestRecords(
+            queryEmbeddings,
+            config.getTopK(),
+            config.getMinSimilarityScore(),
+            config.getMetadataFilter().get())
+        : vectorStore.getNearestRecords(
+            queryEmbeddings, config.getTopK(), config.getMinSimilarityScore());
+  }
+
+  static RetrievalEntity<String> toRetrievalEntity(VectorStoreRecord<String> record) {
+    return RetrievalEntity.<String>builder()
+        .setData(record.getData())
+        .setEmbeddingVector(record.getEmbeddingVector())
+        .setMetadata(record.getMetadata())
+        .build();
   }
 }
@@ -13,55 +13,456 @@
  */
 package com.google.ai.edge.localagents.rag.memory;
 
-import static com.google.common.collect.ImmutableList.toImmutableList;
-
+import com.google.ai.edge.localagents.rag.retrieval.MetadataFilter;
+import com.google.ai.edge.localagents.rag.shared.EmbeddingVector;
 import com.google.ai.edge.localagents.rag.shared.VectorOperations;
 import com.google.common.collect.ImmutableList;
+import com.google.common.math.IntMath;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.jspecify.annotations.Nullable;
 
-/** A simple non-persistent memory store using a hash map. */
-public final class DefaultVectorStore<T> implements VectorStore<T> {
-  private final Map<Integer, VectorStoreRecord<T>> store = new HashMap<>();
+/**
+ * A simple in-memory store, which can be saved to and loaded from a snapshot file.
+ *
+ * <p>Records are appended to fixed-size segments. Writes are serialized with each other and
+ * publish an immutable snapshot of the store through a volatile field, so queries never block:
+ * each query scans the snapshot that was current when it started and does not see records written
+ * while it runs.
+ *
+ * <p>Deleting a record publishes a copy of its segment with the record's tombstone bit set, which
+ * queries check before scoring; the segment's records are shared with the original. Once
+ * tombstones make up a quarter of the store, a compaction is scheduled on the pool to copy the live
+ * records into new segments; queries running on older snapshots are unaffected.
+ *
+ * <p>Each snapshot carries a bitmap index of the slots having each metadata value. Filtered queries
+ * evaluate their {@link MetadataFilter} against it first and then only score the matching slots,
+ * skipping whole segments without a match.
+ *
+ * <p>Queries keep the top K records in a bounded heap. Stores larger than a few segments are
+ * scanned in parallel on a {@link ForkJoinPool}, each worker keeping its own heap; the heaps are
+ * merged at the end.
+ *
+ * <p>A store created with {@link #withSignSketches} also keeps a sign sketch of each record, one
+ * bit per dimension. Unfiltered queries then rank the live records by the Hamming distance between
+ * their sketches and the query's, and only re-score the closest {@code rerankMultiplier * topK}
+ * with the exact cosine similarity, trading some recall for a scan that reads 1/32 of the data.
+ */
+public final class DefaultVectorStore<T> extends ScoredVectorStore<T> {
+  private static final int SEGMENT_SIZE = 1024;
+  // Below this number of records per worker, forking costs more than it saves.
+  private static final int MIN_RECORDS_PER_TASK = 4 * SEGMENT_SIZE;
+  // Number of records scored against every query of a batch before moving on, small enough for the
+  // block to stay in cache.
+  private static final int SCAN_BLOCK_SIZE = 64;
+  private static final int MIN_TOMBSTONES_FOR_COMPACTION = SEGMENT_SIZE;
+
+  private final ForkJoinPool pool;
+  private final int parallelism;
+  // The dimensions of the records and the length of their sign sketches, or 0 without sketches.
+  private final int sketchDimensions;
+  private final int sketchWords;
+  private final int sketchRerankMultiplier;
+  private final AtomicBoolean compactionScheduled = new AtomicBoolean();
+  // Slot of each live record by id. Guarded by this.
+  private final Map<Long, Integer> slots = new HashMap<>();
+  // Guarded by this.
+  private long nextId = 0;
+  private volatile Snapshot<T> snapshot =
+      new Snapshot<>(new Segment[0], 0, 0, new MetadataIndex());
+
+  /** Creates a store that scans in parallel on the common {@link ForkJoinPool}. */
+  public DefaultVectorStore() {
+    this(ForkJoinPool.commonPool(), ForkJoinPool.getCommonPoolParallelism());
+  }
+
+  /**
+   * Creates a store that scans on the common {@link ForkJoinPool}.
+   *
+   * @param parallelism The maximum number of workers per query. 1 scans sequentially on the
+   *     calling thread.
+   */
+  public DefaultVectorStore(int parallelism) {
+    this(ForkJoinPool.commonPool(), parallelism);
+  }
 
-  private AtomicInteger nextId = new AtomicInteger(0);
+  /**
+   * Creates a store that scans and compacts on the given pool.
+   *
+   * @param pool The pool running parallel scans and compactions.
+   * @param parallelism The maximum number of workers per query. 1 scans sequentially on the
+   *     calling thread.
+   */
+  public DefaultVectorStore(ForkJoinPool pool, int parallelism) {
+    this(pool, parallelism, 0, 1);
+  }
 
-  public DefaultVectorStore() {}
+  private DefaultVectorStore(
+      ForkJoinPool pool, int parallelism, int sketchDimensions, int sketchRerankMultiplier) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("Parallelism must be positive");
+    }
+    if (sketchRerankMultiplier < 1) {
+      throw new IllegalArgumentException("rerankMultiplier must be positive");
+    }
+    this.pool = pool;
+    this.parallelism = parallelism;
+    this.sketchDimensions = sketchDimensions;
+    this.sketchWords = SignSketches.numWords(sketchDimensions);
+    this.sketchRerankMultiplier = sketchRerankMultiplier;
+  }
+
+  /**
+   * Creates a store that scans on the common {@link ForkJoinPool} and prefilters unfiltered queries
+   * with the sign sketches of the records. Filtered queries still score every matching record.
+   *
+   * @param dimensions The number of dimensions of the embeddings, which all records must have.
+   * @param rerankMultiplier How many candidates per requested result are re-scored exactly.
+   */
+  public static <T> DefaultVectorStore<T> withSignSketches(int dimensions, int rerankMultiplier) {
+    if (dimensions < 1) {
+      throw new IllegalArgumentException("dimensions must be positive");
+    }
+    return new DefaultVectorStore<>(
+        ForkJoinPool.commonPool(),
+        ForkJoinPool.getCommonPoolParallelism(),
+        dimensions,
+        rerankMultiplier);
+  }
 
   @Override
   public void insert(VectorStoreRecord<T> record) {
-    Integer id = nextId.getAndIncrement();
-    store.put(id, record);
+    insertAndGetId(record);
+  }
+
+  @Override
+  public synchronized long insertAndGetId(VectorStoreRecord<T> record) {
+    long id = nextId;
+    append(id, record, inverseNormOf(record), sketchOf(record), -1);
+    return id;
+  }
+
+  @Override
+  public synchronized void upsert(long id, VectorStoreRecord<T> record) {
+    float inverseNorm = inverseNormOf(record);
+    long @Nullable [] sketch = sketchOf(record);
+    Integer slot = slots.get(id);
+    if (slot == null) {
+      append(id, record, inverseNorm, sketch, -1);
+      return;
+    }
+    append(id, record, inverseNorm, sketch, slot);
+    maybeScheduleCompaction();
+  }
+
+  @Override
+  public synchronized void delete(long id) {
+    Integer slot = slots.remove(id);
+    if (slot == null) {
+      return;
+    }
+    Snapshot<T> current = snapshot;
+    snapshot =
+        new Snapshot<>(
+            withTombstone(current.segments, slot),
+            current.size,
+            current.numDeleted + 1,
+            current.index);
+    maybeScheduleCompaction();
+  }
+
+  /**
+   * Copies the live records into new segments, reclaiming the space of deleted records. Runs
+   * automatically in the background once enough records are deleted. Queries are not blocked;
+   * writes wait for it to finish.
+   */
+  public synchronized void compact() {
+    compactionScheduled.set(false);
+    Snapshot<T> current = snapshot;
+    if (current.numDeleted == 0) {
+      return;
+    }
+    int liveSize = current.size - current.numDeleted;
+    Segment[] segments = new Segment[(liveSize + SEGMENT_SIZE - 1) / SEGMENT_SIZE];
+    MetadataIndex index = new MetadataIndex();
+    int newSlot = 0;
+    for (int slot = 0; slot < current.size; slot++) {
+      Segment segment = current.segment(slot);
+      int offset = slot % SEGMENT_SIZE;
+      if (segment.isDeleted(offset)) {
+        continue;
+      }
+      if (newSlot % SEGMENT_SIZE == 0) {
+        segments[newSlot / SEGMENT_SIZE] = new Segment(sketchWords);
+      }
+      Segment newSegment = segments[newSlot / SEGMENT_SIZE];
+      newSegment.set(
+          newSlot % SEGMENT_SIZE,
+          segment.ids[offset],
+          segment.records[offset],
+          segment.inverseNorms[offset]);
+      if (newSegment.sketches != null) {
+        System.arraycopy(
+            segment.sketches,
+            offset * sketchWords,
+            newSegment.sketches,
+            (newSlot % SEGMENT_SIZE) * sketchWords,
+            sketchWords);
+      }
+      index.add(newSlot, segment.records[offset].getMetadata());
+      slots.put(segment.ids[offset], newSlot);
+      newSlot++;
+    }
+    snapshot = new Snapshot<>(segments, liveSize, 0, index);
+  }
+
+  /**
+   * Writes the live records of the store to {@code path} in a binary format that {@link
+   * #loadSnapshot} reads back without re-embedding. Queries and writes are not blocked while the
+   * file is written; writes made meanwhile are not part of the snapshot.
+   *
+   * @param codec Encodes the data of the records.
+   */
+  public void saveSnapshot(Path path, DataCodec<T> codec) throws IOException {
+    Snapshot<T> current;
+    long currentNextId;
+    synchronized (this) {
+      current = snapshot;
+      currentNextId = nextId;
+    }
+    int liveSize = current.size - current.numDeleted;
+    long[] ids = new long[liveSize];
+    float[] inverseNorms = new float[liveSize];
+    List<VectorStoreRecord<T>> records = new ArrayList<>(liveSize);
+    for (int slot = 0; slot < current.size; slot++) {
+      Segment segment = current.segment(slot);
+      int offset = slot % SEGMENT_SIZE;
+      if (segment.isDeleted(offset)) {
+        continue;
+      }
+      ids[records.size()] = segment.ids[offset];
+      inverseNorms[records.size()] = segment.inverseNorms[offset];
+      records.add(current.get(slot));
+    }
+    VectorStoreSnapshot.write(path, currentNextId, ids, inverseNorms, records, codec);
+  }
+
+  /**
+   * Creates a store that scans in parallel on the common {@link ForkJoinPool} from a file written
+   * by {@link #saveSnapshot}. Record ids are preserved.
+   *
+   * @param codec Decodes the data of the records.
+   */
+  public static <T> DefaultVectorStore<T> loadSnapshot(Path path, DataCodec<T> codec)
+      throws IOException {
+    VectorStoreSnapshot<T> file = VectorStoreSnapshot.read(path, codec);
+    int size = file.records.size();
+    Segment[] segments = new Segment[(size + SEGMENT_SIZE - 1) / SEGMENT_SIZE];
+    MetadataIndex index = new MetadataIndex();
+    DefaultVectorStore<T> store = new DefaultVectorStore<>();
+    synchronized (store) {
+      // Fills the segments directly and publishes them once, like a compaction.
+      for (int slot = 0; slot < size; slot++) {
+        if (slot % SEGMENT_SIZE == 0) {
+          segments[slot / SEGMENT_SIZE] = new Segment(0);
+        }
+        VectorStoreRecord<T> record = file.records.get(slot);
+        segments[slot / SEGMENT_SIZE].set(
+            slot % SEGMENT_SIZE, file.ids[slot], record, file.inverseNorms[slot]);
+        index.add(slot, record.getMetadata());
+        store.slots.put(file.ids[slot], slot);
+      }
+      store.nextId = file.nextId;
+      store.snapshot = new Snapshot<>(segments, size, 0, index);
+    }
+    return store;
+  }
+
+  /**
+   * Appends a record under the given id and publishes it. If {@code replacedSlot} is not negative,
+   * the same snapshot tombstones that slot, so queries see either the replaced record or the new
+   * one. Must be called while holding the lock.
+   */
+  private void append(
+      long id,
+      VectorStoreRecord<T> record,
+      float inverseNorm,
+      long @Nullable [] sketch,
+      int replacedSlot) {
+    Snapshot<T> current = snapshot;
+    int slot = current.size;
+    Segment[] segments = current.segments;
+    int numDeleted = current.numDeleted;
+    if (replacedSlot >= 0) {
+      segments = withTombstone(segments, replacedSlot);
+      numDeleted++;
+    }
+    if (slot == segments.length * SEGMENT_SIZE) {
+      // Only the segment directory is copied; existing segments are shared with older snapshots.
+      segments = Arrays.copyOf(segments, segments.length + 1);
+      segments[segments.length - 1] = new Segment(sketchWords);
+    }
+    // Slots past the published size are never read, so these writes cannot race with queries.
+    Segment segment = segments[slot / SEGMENT_SIZE];
+    segment.set(slot % SEGMENT_SIZE, id, record, inverseNorm);
+    if (sketch != null) {
+      System.arraycopy(
+          sketch, 0, segment.sketches, (slot % SEGMENT_SIZE) * sketchWords, sketchWords);
+    }
+    current.index.add(slot, record.getMetadata());
+    slots.put(id, slot);
+    nextId = Math.max(nextId, id + 1);
+    snapshot = new Snapshot<>(segments, slot + 1, numDeleted, current.index);
+  }
+
+  /**
+   * Returns a copy of the segment directory in which the segment holding {@code slot} is replaced
+   * by a copy with the slot's tombstone set. Published snapshots keep the original segment, so
+   * queries running on them are unaffected.
+   */
+  private static Segment[] withTombstone(Segment[] segments, int slot) {
+    Segment[] copy = Arrays.copyOf(segments, segments.length);
+    copy[slot / SEGMENT_SIZE] = segments[slot / SEGMENT_SIZE].withDeleted(slot % SEGMENT_SIZE);
+    return copy;
+  }
+
+  private void maybeScheduleCompaction() {
+    Snapshot<T> current = snapshot;
+    if (current.numDeleted >= MIN_TOMBSTONES_FOR_COMPACTION
+        && current.numDeleted * 4 >= current.size
+        && compactionScheduled.compareAndSet(false, true)) {
+      pool.execute(this::compact);
+    }
+  }
+
+  private static float inverseNormOf(VectorStoreRecord<?> record) {
+    float norm = VectorOperations.norm(record.getEmbeddingVector());
+    if (norm == 0) {
+      throw new IllegalArgumentException("Vectors cannot have zero norm");
+    }
+    return 1 / norm;
+  }
+
+  /** Returns the sign sketch of a record, or null if the store keeps none. */
+  private long @Nullable [] sketchOf(VectorStoreRecord<?> record) {
+    if (sketchWords == 0) {
+      return null;
+    }
+    EmbeddingVector embeddings = record.getEmbeddingVector();
+    if (embeddings.size() != sketchDimensions) {
+      throw new IllegalArgumentException("Vectors lengths must be equal");
+    }
+    long[] sketch = new long[sketchWords];
+    SignSketches.sketch(embeddings.toArray(), sketch, 0);
+    return sketch;
   }
 
   @Override
   public ImmutableList<VectorStoreRecord<T>> getNearestRecords(
       List<Float> queryEmbeddings, int topK, float minSimilarityScore) {
-    List<Tuple<VectorStoreRecord<T>, Float>> nearestRecords = new ArrayList<>();
-    store
-        .values()
-        .forEach(
-            recored -> {
-              float similarityScore =
-                  VectorOperations.cosineSimilarity(queryEmbeddings, recored.getEmbeddings());
-              if (similarityScore >= minSimilarityScore) {
-                nearestRecords.add(
-                    new Tuple<VectorStoreRecord<T>, Float>(recored, similarityScore));
-              }
-            });
-    // descending order
-    return nearestRecords.stream()
-        .sorted(
-            Comparator.comparing(
-                Tuple::getSecond, (score1, score2) -> Float.compare(score2, score1)))
-        .limit(topK)
-        .map(Tuple::getFirst)
-        .collect(toImmutableList());
+    return getNearestRecords(EmbeddingVector.copyOf(queryEmbeddings), topK, minSimilarityScore);
+  }
+
+  @Override
+  public ImmutableList<VectorStoreRecord<T>> getNearestRecords(
+      EmbeddingVector queryEmbeddings, int topK, float minSimilarityScore) {
+    return getNearestScoredRecords(queryEmbeddings, topK, minSimilarityScore).records;
+  }
+
+  @Override
+  ScoredRecords<T> getNearestScoredRecords(
+      EmbeddingVector queryEmbeddings, int topK, float minSimilarityScore) {
+    if (topK <= 0) {
+      return ScoredRecords.empty();
+    }
+    float[][] queries = {VectorOperations.normalize(queryEmbeddings)};
+    Snapshot<T> current = snapshot;
+    if (sketchWords > 0) {
+      return toRecords(current, searchBySketch(current, queries[0], topK, minSimilarityScore));
+    }
+    return toRecords(current, search(current, queries, topK, minSimilarityScore, null)[0]);
+  }
+
+  /**
+   * Retrieves the top K records whose metadata matches {@code filter}. The filter is evaluated
+   * against the metadata index, so only the matching records are scored.
+   */
+  @Override
+  public ImmutableList<VectorStoreRecord<T>> getNearestRecords(
+      EmbeddingVector queryEmbeddings, int topK, float minSimilarityScore, MetadataFilter filter) {
+    return getNearestScoredRecords(queryEmbeddings, topK, minSimilarityScore, filter).records;
+  }
+
+  @Override
+  ScoredRecords<T> getNearestScoredRecords(
+      EmbeddingVector queryEmbeddings, int topK, float minSimilarityScore, MetadataFilter filter) {
+    if (topK <= 0) {
+      return ScoredRecords.empty();
+    }
+    float[][] queries = {VectorOperations.normalize(queryEmbeddings)};
+    Snapshot<T> current = snapshot;
+    int[][] candidates = current.index.evaluate(filter, current.segments.length);
+    return toRecords(current, search(current, queries, topK, minSimilarityScore, candidates)[0]);
+  }
+
+  /**
+   * Retrieves the top K records for each of several queries in a single pass over the store. Each
+   * block of records is scored against every query before moving on to the next block. A store with
+   * sign sketches prefilters each query on its own instead.
+   */
+  @Override
+  public ImmutableList<List<VectorStoreRecord<T>>> getNearestRecordsBatch(
+      List<EmbeddingVector> queryEmbeddings, int topK, float minSimilarityScore) {
+    ImmutableList.Builder<List<VectorStoreRecord<T>>> results = ImmutableList.builder();
+    for (ScoredRecords<T> nearest :
+        getNearestScoredRecordsBatch(queryEmbeddings, topK, minSimilarityScore)) {
+      results.add(nearest.records);
+    }
+    return results.build();
+  }
+
+  @Override
+  ImmutableList<ScoredRecords<T>> getNearestScoredRecordsBatch(
+      List<EmbeddingVector> queryEmbeddings, int topK, float minSimilarityScore) {
+    ImmutableList.Builder<ScoredRecords<T>> results = ImmutableList.builder();
+    if (topK <= 0) {
+      for (int i = 0; i < queryEmbeddings.size(); i++) {
+        results.add(ScoredRecords.empty());
+      }
+      return results.build();
+    }
+    float[][] queries = new float[queryEmbeddings.size()][];
+    for (int i = 0; i < queries.length; i++) {
+      queries[i] = VectorOperations.normalize(queryEmbeddings.get(i));
+    }
+    Snapshot<T> current = snapshot;
+    if (sketchWords > 0) {
+      for (float[] query : queries) {
+        results.add(toRecords(current, searchBySketch(current, query, topK, minSimilarityScore)));
+      }
+      return results.build();
+    }
+    for (ScoreHeap nearest : search(current, queries, topK, minSimilarityScore, null)) {
+      results.add(toRecords(current, nearest));
+    }
+    return results.build();
+  }
+
+  /** Returns the number of records in the store, excluding deleted ones. */
+  public int size() {
+    Snapshot<T> current = snapshot;
+    return current.size - current.numDeleted;
   }
 
   /**
@@ -70,25 +471,464 @@ public final class DefaultVectorStore<T> implements VectorStore<T> {
    * <p>TODO(b/373396829): Add VisibleForTesting annotation that is compatible with the 3P build.
    */
   @Nullable
-  public VectorStoreRecord<T> get(Integer id) {
-    return store.get(id);
+  public synchronized VectorStoreRecord<T> get(Integer id) {
+    Integer slot = id == null ? null : slots.get((long) id);
+    return slot == null ? null : snapshot.get(slot);
   }
 
-  static class Tuple<T1, T2> {
-    final T1 first;
-    final T2 second;
+  /**
+   * The records, ids, inverse embedding norms, sign sketches and tombstones of up to {@link
+   * #SEGMENT_SIZE} consecutive slots. The inverse norms let cosine similarities with a normalized
+   * query take a single dot product.
+   */
+  private static final class Segment {
+    final VectorStoreRecord<?>[] records;
+    final long[] ids;
+    final float[] inverseNorms;
+    // The sketches of the slots, one after another, or null if the store keeps none.
+    final long @Nullable [] sketches;
+    // One bit per slot. Never modified once the segment is published; deletes copy it instead.
+    final int[] tombstones;
+
+    Segment(int sketchWords) {
+      this(
+          new VectorStoreRecord<?>[SEGMENT_SIZE],
+          new long[SEGMENT_SIZE],
+          new float[SEGMENT_SIZE],
+          sketchWords == 0 ? null : new long[SEGMENT_SIZE * sketchWords],
+          new int[SEGMENT_SIZE / Integer.SIZE]);
+    }
+
+    private Segment(
+        VectorStoreRecord<?>[] records,
+        long[] ids,
+        float[] inverseNorms,
+        long @Nullable [] sketches,
+        int[] tombstones) {
+      this.records = records;
+      this.ids = ids;
+      this.inverseNorms = inverseNorms;
+      this.sketches = sketches;
+      this.tombstones = tombstones;
+    }
+
+    void set(int offset, long id, VectorStoreRecord<?> record, float inverseNorm) {
+      ids[offset] = id;
+      records[offset] = record;
+      inverseNorms[offset] = inverseNorm;
+    }
+
+    /** Returns a segment sharing this one's records, with the tombstone at {@code offset} set. */
+    Segment withDeleted(int offset) {
+      int[] newTombstones = Arrays.copyOf(tombstones, tombstones.length);
+      newTombstones[offset >>> 5] |= 1 << offset;
+      return new Segment(records, ids, inverseNorms, sketches, newTombstones);
+    }
+
+    boolean isDeleted(int offset) {
+      return (tombstones[offset >>> 5] & (1 << offset)) != 0;
+    }
+  }
+
+  /**
+   * The slots of the records having each metadata value, keyed by metadata key and by the string
+   * representation of the value, in one bitmap per value. Values that are numbers, or parse as
+   * numbers, are also kept in a sorted view per key, so that a range is the union of the bitmaps of
+   * a sub-map. Like segments, bitmaps are only written by the writer and only for slots past the
+   * published size, so queries read them without locking.
+   */
+  private static final class MetadataIndex {
+    private final Map<String, Map<String, ValueSlots>> bitmaps = new ConcurrentHashMap<>();
+    private final Map<String, NavigableMap<Double, SlotBitmap>> numericBitmaps =
+        new ConcurrentHashMap<>();
+
+    void add(int slot, Map<String, Object> metadata) {
+      for (Map.Entry<String, Object> entry : metadata.entrySet()) {
+        String key = entry.getKey();
+        Object value = entry.getValue();
+        ValueSlots valueSlots =
+            bitmaps
+                .computeIfAbsent(key, k -> new ConcurrentHashMap<>())
+                .computeIfAbsent(value.toString(), v -> new ValueSlots(numericBitmap(key, value)));
+        valueSlots.slots.set(slot);
+        if (valueSlots.numericSlots != null) {
+          valueSlots.numericSlots.set(slot);
+        }
+      }
+    }
+
+    /**
+     * Returns the bitmap of the numeric value of a metadata value in the sorted view of its key, or
+     * null if it is not a number. Only called once per distinct value, so strings are parsed once.
+     */
+    private @Nullable SlotBitmap numericBitmap(String key, Object value) {
+      double number;
+      if (value instanceof Number) {
+        number = ((Number) value).doubleValue();
+      } else {
+        try {
+          number = Double.parseDouble(value.toString());
+        } catch (NumberFormatException e) {
+          return null;
+        }
+      }
+      if (Double.isNaN(number)) {
+        // NaN is in no range.
+        return null;
+      }
+      return numericBitmaps
+          .computeIfAbsent(key, k -> new ConcurrentSkipListMap<>())
+          .computeIfAbsent(withoutNegativeZero(number), n -> new SlotBitmap());
+    }
+
+    /**
+     * Returns the slots matching {@code filter} as one array of tombstone-like words per segment,
+     * null for segments without a match. Slots past the snapshot's size may be set and must be
+     * ignored.
+     */
+    int[][] evaluate(MetadataFilter filter, int numSegments) {
+      int[][] slots = new int[numSegments][];
+      switch (filter.getKind()) {
+        case KEY_VALUES:
+          Map<String, ValueSlots> valueBitmaps = bitmaps.get(filter.keyValues().getKey());
+          if (valueBitmaps != null) {
+            for (String value : filter.keyValues().getValues()) {
+              ValueSlots valueSlots = valueBitmaps.get(value);
+              if (valueSlots != null) {
+                union(slots, valueSlots.slots.words);
+              }
+            }
+          }
+          return slots;
+        case KEY_RANGE:
+          NavigableMap<Double, SlotBitmap> numbers =
+              numericBitmaps.get(filter.keyRange().getKey());
+          double min = withoutNegativeZero(filter.keyRange().getMin());
+          double max = withoutNegativeZero(filter.keyRange().getMax());
+          if (numbers != null) {
+            for (SlotBitmap bitmap : numbers.subMap(min, true, max, true).values()) {
+              union(slots, bitmap.words);
+            }
+          }
+          return slots;
+        case ALL_OF:
+          slots = evaluate(filter.allOf().get(0), numSegments);
+          for (int i = 1; i < filter.allOf().size(); i++) {
+            intersect(slots, evaluate(filter.allOf().get(i), numSegments));
+          }
+          return slots;
+        case ANY_OF:
+          for (MetadataFilter operand : filter.anyOf()) {
+            union(slots, evaluate(operand, numSegments));
+          }
+          return slots;
+      }
+      throw new AssertionError("Unknown filter kind: " + filter.getKind());
+    }
+
+    private static void union(int[][] slots, int[][] other) {
+      for (int i = 0; i < Math.min(slots.length, other.length); i++) {
+        if (other[i] == null) {
+          continue;
+        }
+        if (slots[i] == null) {
+          slots[i] = other[i].clone();
+          continue;
+        }
+        for (int word = 0; word < slots[i].length; word++) {
+          slots[i][word] |= other[i][word];
+        }
+      }
+    }
 
-    Tuple(T1 first, T2 second) {
-      this.first = first;
-      this.second = second;
+    /** Maps -0.0 to 0.0, which the sorted view orders differently but ranges treat as equal. */
+    private static double withoutNegativeZero(double number) {
+      return number == 0 ? 0 : number;
     }
 
-    T1 getFirst() {
-      return first;
+    private static void intersect(int[][] slots, int[][] other) {
+      for (int i = 0; i < slots.length; i++) {
+        if (slots[i] == null) {
+          continue;
+        }
+        if (i >= other.length || other[i] == null) {
+          slots[i] = null;
+          continue;
+        }
+        for (int word = 0; word < slots[i].length; word++) {
+          slots[i][word] &= other[i][word];
+        }
+      }
+    }
+  }
+
+  /** The slots having one metadata value, and those having the same number if it is one. */
+  private static final class ValueSlots {
+    final SlotBitmap slots = new SlotBitmap();
+    final @Nullable SlotBitmap numericSlots;
+
+    ValueSlots(@Nullable SlotBitmap numericSlots) {
+      this.numericSlots = numericSlots;
+    }
+  }
+
+  /**
+   * A set of slots with one array of words per segment, allocated only for segments containing a
+   * slot of the set. Bits are only ever set.
+   *
+   * <p>The directory of word arrays is copied on write and published through a volatile field, so
+   * a query that reads it also sees every word array it references. Only bits of slots past the
+   * published size are set in place, and queries ignore those.
+   */
+  private static final class SlotBitmap {
+    volatile int[][] words = new int[0][];
+
+    void set(int slot) {
+      int segment = slot / SEGMENT_SIZE;
+      int[][] current = words;
+      if (segment >= current.length || current[segment] == null) {
+        current = Arrays.copyOf(current, Math.max(current.length, segment + 1));
+        current[segment] = new int[SEGMENT_SIZE / Integer.SIZE];
+        words = current;
+      }
+      int offset = slot % SEGMENT_SIZE;
+      current[segment][offset >>> 5] |= 1 << offset;
+    }
+  }
+
+  /**
+   * An immutable view of the first {@code size} slots, {@code numDeleted} of which are deleted,
+   * and of the index of their metadata.
+   */
+  private static final class Snapshot<T> {
+    final Segment[] segments;
+    final int size;
+    final int numDeleted;
+    final MetadataIndex index;
+
+    Snapshot(Segment[] segments, int size, int numDeleted, MetadataIndex index) {
+      this.segments = segments;
+      this.size = size;
+      this.numDeleted = numDeleted;
+      this.index = index;
+    }
+
+    Segment segment(int slot) {
+      return segments[slot / SEGMENT_SIZE];
+    }
+
+    @SuppressWarnings("unchecked") // Only records of type T are inserted.
+    VectorStoreRecord<T> get(int slot) {
+      return (VectorStoreRecord<T>) segment(slot).records[slot % SEGMENT_SIZE];
+    }
+  }
+
+  /**
+   * Returns, for each normalized query, the slots and scores of its top K records among {@code
+   * candidates}, or among all records if it is null.
+   */
+  private ScoreHeap[] search(
+      Snapshot<T> snapshot,
+      float[][] queries,
+      int topK,
+      float minSimilarityScore,
+      int @Nullable [][] candidates) {
+    int numTasks = Math.min(parallelism, snapshot.size / MIN_RECORDS_PER_TASK);
+    if (numTasks <= 1) {
+      return scan(snapshot, queries, topK, minSimilarityScore, candidates, 0, snapshot.size);
+    }
+    int maxRecordsPerTask = (snapshot.size + numTasks - 1) / numTasks;
+    return pool.invoke(
+        new ScanTask<>(
+            snapshot,
+            queries,
+            topK,
+            minSimilarityScore,
+            candidates,
+            0,
+            snapshot.size,
+            maxRecordsPerTask));
+  }
+
+  /**
+   * Returns the slots and scores of the top K records for a normalized query among the {@code
+   * rerankMultiplier * topK} live records whose sketches are closest to the query's.
+   */
+  private ScoreHeap searchBySketch(
+      Snapshot<T> snapshot, float[] query, int topK, float minSimilarityScore) {
+    long[] querySketch = new long[sketchWords];
+    SignSketches.sketch(query, querySketch, 0);
+    int numCandidates =
+        Math.min(
+            IntMath.saturatedMultiply(topK, sketchRerankMultiplier),
+            snapshot.size - snapshot.numDeleted);
+    ScoreHeap candidates = new ScoreHeap(numCandidates);
+    for (int segmentStart = 0; segmentStart < snapshot.size; segmentStart += SEGMENT_SIZE) {
+      Segment segment = snapshot.segment(segmentStart);
+      int segmentSize = Math.min(SEGMENT_SIZE, snapshot.size - segmentStart);
+      for (int offset = 0; offset < segmentSize; offset++) {
+        if (segment.isDeleted(offset)) {
+          continue;
+        }
+        int distance =
+            SignSketches.hammingDistance(
+                querySketch, 0, segment.sketches, offset * sketchWords, sketchWords);
+        // The closest sketches have the highest negated distance.
+        candidates.offer(segmentStart + offset, -distance, numCandidates);
+      }
+    }
+    ScoreHeap nearest = new ScoreHeap(topK);
+    for (int slot : candidates.drainDescending()) {
+      Segment segment = snapshot.segment(slot);
+      int offset = slot % SEGMENT_SIZE;
+      float similarityScore =
+          VectorOperations.dot(query, segment.records[offset].getEmbeddingVector())
+              * segment.inverseNorms[offset];
+      if (similarityScore >= minSimilarityScore) {
+        nearest.offer(slot, similarityScore, topK);
+      }
+    }
+    return nearest;
+  }
+
+  private static <T> ScoredRecords<T> toRecords(Snapshot<T> snapshot, ScoreHeap nearest) {
+    int[] slots = new int[nearest.size()];
+    float[] scores = new float[slots.length];
+    nearest.drainDescending(slots, scores);
+    ImmutableList.Builder<VectorStoreRecord<T>> records = ImmutableList.builder();
+    for (int slot : slots) {
+      records.add(snapshot.get(slot));
+    }
+    return new ScoredRecords<>(records.build(), scores);
+  }
+
+  /**
+   * Returns, for each normalized query, the slots and scores of its top K records in {@code
+   * [from, to)} among {@code candidates}, or among all records if it is null.
+   */
+  private static <T> ScoreHeap[] scan(
+      Snapshot<T> snapshot,
+      float[][] queries,
+      int topK,
+      float minSimilarityScore,
+      int @Nullable [][] candidates,
+      int from,
+      int to) {
+    ScoreHeap[] nearest = new ScoreHeap[queries.length];
+    for (int i = 0; i < queries.length; i++) {
+      nearest[i] = new ScoreHeap(topK);
+    }
+    int blockEnd;
+    for (int blockStart = from; blockStart < to; blockStart = blockEnd) {
+      // Blocks are aligned to SCAN_BLOCK_SIZE, a divisor of SEGMENT_SIZE, so they never straddle
+      // segments.
+      blockEnd = Math.min((blockStart / SCAN_BLOCK_SIZE + 1) * SCAN_BLOCK_SIZE, to);
+      int segmentStart = blockStart - blockStart % SEGMENT_SIZE;
+      int @Nullable [] candidateWords = null;
+      if (candidates != null) {
+        candidateWords = candidates[blockStart / SEGMENT_SIZE];
+        if (candidateWords == null) {
+          blockEnd = Math.min(segmentStart + SEGMENT_SIZE, to);
+          continue;
+        }
+      }
+      Segment segment = snapshot.segment(blockStart);
+      for (int i = 0; i < queries.length; i++) {
+        // Visits the live candidates of the block one word of 32 slots at a time.
+        for (int wordStart = blockStart - blockStart % Integer.SIZE;
+            wordStart < blockEnd;
+            wordStart += Integer.SIZE) {
+          int word = (wordStart - segmentStart) >>> 5;
+          int live = ~segment.tombstones[word];
+          if (candidateWords != null) {
+            live &= candidateWords[word];
+          }
+          if (wordStart < blockStart) {
+            live &= -1 << (blockStart - wordStart);
+          }
+          if (wordStart + Integer.SIZE > blockEnd) {
+            live &= -1 >>> (wordStart + Integer.SIZE - blockEnd);
+          }
+          for (; live != 0; live &= live - 1) {
+            int offset = wordStart - segmentStart + Integer.numberOfTrailingZeros(live);
+            float similarityScore =
+                VectorOperations.dot(queries[i], segment.records[offset].getEmbeddingVector())
+                    * segment.inverseNorms[offset];
+            if (similarityScore >= minSimilarityScore) {
+              nearest[i].offer(segmentStart + offset, similarityScore, topK);
+            }
+          }
+        }
+      }
+    }
+    return nearest;
+  }
+
+  /** Scans a range of a snapshot, splitting it in halves until it is small enough. */
+  private static final class ScanTask<T> extends RecursiveTask<ScoreHeap[]> {
+    private static final long serialVersionUID = 0L;
+
+    private final Snapshot<T> snapshot;
+    private final float[][] queries;
+    private final int topK;
+    private final float minSimilarityScore;
+    private final int @Nullable [][] candidates;
+    private final int from;
+    private final int to;
+    private final int maxRecordsPerTask;
+
+    ScanTask(
+        Snapshot<T> snapshot,
+        float[][] queries,
+        int topK,
+        float minSimilarityScore,
+        int @Nullable [][] candidates,
+        int from,
+        int to,
+        int maxRecordsPerTask) {
+      this.snapshot = snapshot;
+      this.queries = queries;
+      this.topK = topK;
+      this.minSimilarityScore = minSimilarityScore;
+      this.candidates = candidates;
+      this.from = from;
+      this.to = to;
+      this.maxRecordsPerTask = maxRecordsPerTask;
     }
 
-    T2 getSecond() {
-      return second;
+    @Override
+    protected ScoreHeap[] compute() {
+      if (to - from <= maxRecordsPerTask) {
+        return scan(snapshot, queries, topK, minSimilarityScore, candidates, from, to);
+      }
+      int middle = (from + to) >>> 1;
+      ScanTask<T> left =
+          new ScanTask<>(
+              snapshot,
+              queries,
+              topK,
+              minSimilarityScore,
+              candidates,
+              from,
+              middle,
+              maxRecordsPerTask);
+      ScanTask<T> right =
+          new ScanTask<>(
+              snapshot,
+              queries,
+              topK,
+              minSimilarityScore,
+              candidates,
+              middle,
+              to,
+              maxRecordsPerTask);
+      left.fork();
+      ScoreHeap[] nearest = right.compute();
+      ScoreHeap[] leftNearest = left.join();
+      for (int i = 0; i < nearest.length; i++) {
+        nearest[i].offerAll(leftNearest[i], topK);
+      }
+      return nearest;
     }
   }
 }
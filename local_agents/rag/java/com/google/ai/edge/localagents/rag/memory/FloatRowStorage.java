@@ -0,0 +1,143 @@
+/**
+ * Copyright 2025 The Google AI Edge Authors.
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ai.edge.localagents.rag.memory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Append-only storage of full-precision vectors addressed by row, kept either on the heap or in a
+ * row-major little-endian float file.
+ *
+ * <p>Compressed stores use it to re-score a handful of candidates exactly while keeping only their
+ * compact codes resident. Callers synchronize appends; reads may run concurrently with each other.
+ */
+abstract class FloatRowStorage implements Closeable {
+  final int dimensions;
+
+  private FloatRowStorage(int dimensions) {
+    this.dimensions = dimensions;
+  }
+
+  /** Returns a storage that keeps the rows on the heap. */
+  static FloatRowStorage inMemory(int dimensions) {
+    return new InMemory(dimensions);
+  }
+
+  /** Returns a storage that keeps the rows in the given file, truncating it. */
+  static FloatRowStorage inFile(Path path, int dimensions) {
+    try {
+      return new InFile(
+          FileChannel.open(
+              path,
+              StandardOpenOption.CREATE,
+              StandardOpenOption.TRUNCATE_EXISTING,
+              StandardOpenOption.READ,
+              StandardOpenOption.WRITE),
+          dimensions);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /** Appends a row and returns its index. */
+  abstract int append(float[] vector);
+
+  /** Reads the row at {@code row} into {@code destination}. */
+  abstract void read(int row, float[] destination);
+
+  @Override
+  public void close() {}
+
+  private static final class InMemory extends FloatRowStorage {
+    private final List<float[]> rows = new ArrayList<>();
+
+    InMemory(int dimensions) {
+      super(dimensions);
+    }
+
+    @Override
+    int append(float[] vector) {
+      rows.add(vector.clone());
+      return rows.size() - 1;
+    }
+
+    @Override
+    void read(int row, float[] destination) {
+      System.arraycopy(rows.get(row), 0, destination, 0, dimensions);
+    }
+  }
+
+  private static final class InFile extends FloatRowStorage {
+    private final FileChannel channel;
+    private final int rowBytes;
+    private int numRows = 0;
+
+    InFile(FileChannel channel, int dimensions) {
+      super(dimensions);
+      this.channel = channel;
+      this.rowBytes = dimensions * Float.BYTES;
+    }
+
+    @Override
+    int append(float[] vector) {
+      ByteBuffer buffer = ByteBuffer.allocate(rowBytes).order(ByteOrder.LITTLE_ENDIAN);
+      buffer.asFloatBuffer().put(vector, 0, dimensions);
+      try {
+        long position = (long) numRows * rowBytes;
+        while (buffer.hasRemaining()) {
+          position += channel.write(buffer, position);
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      return numRows++;
+    }
+
+    @Override
+    void read(int row, float[] destination) {
+      ByteBuffer buffer = ByteBuffer.allocate(rowBytes).order(ByteOrder.LITTLE_ENDIAN);
+      try {
+        long position = (long) row * rowBytes;
+        while (buffer.hasRemaining()) {
+          int read = channel.read(buffer, position + buffer.position());
+          if (read < 0) {
+            throw new IOException("Unexpected end of vector file at row " + row);
+          }
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      buffer.flip();
+      buffer.asFloatBuffer().get(destination, 0, dimensions);
+    }
+
+    @Override
+    public void close() {
+      try {
+        channel.close();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+}
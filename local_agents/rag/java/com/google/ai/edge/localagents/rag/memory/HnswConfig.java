@@ -0,0 +1,75 @@
+/**
+ * Copyright 2025 The Google AI Edge Authors.
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ai.edge.localagents.rag.memory;
+
+import com.google.auto.value.AutoValue;
+
+/** Configuration of a hierarchical navigable small world (HNSW) graph index. */
+@AutoValue
+public abstract class HnswConfig {
+  public static final int DEFAULT_M = 16;
+  public static final int DEFAULT_EF_CONSTRUCTION = 200;
+  public static final int DEFAULT_EF_SEARCH = 64;
+
+  /**
+   * The maximum number of neighbors of a node on the upper layers. The bottom layer allows twice as
+   * many. Higher values improve recall at the cost of memory and insertion time. Default = 16.
+   */
+  public abstract int getM();
+
+  /** The size of the candidate list used while inserting. Default = 200. */
+  public abstract int getEfConstruction();
+
+  /**
+   * The size of the candidate list used while searching. Higher values improve recall at the cost
+   * of latency. Queries always use at least {@code topK}. Default = 64.
+   */
+  public abstract int getEfSearch();
+
+  public abstract Builder toBuilder();
+
+  public static Builder builder() {
+    return new AutoValue_HnswConfig.Builder()
+        .setM(DEFAULT_M)
+        .setEfConstruction(DEFAULT_EF_CONSTRUCTION)
+        .setEfSearch(DEFAULT_EF_SEARCH);
+  }
+
+  public static HnswConfig create(int m, int efConstruction, int efSearch) {
+    return builder().setM(m).setEfConstruction(efConstruction).setEfSearch(efSearch).build();
+  }
+
+  /** Auto Builder. */
+  @AutoValue.Builder
+  public abstract static class Builder {
+    public abstract Builder setM(int m);
+
+    public abstract Builder setEfConstruction(int efConstruction);
+
+    public abstract Builder setEfSearch(int efSearch);
+
+    abstract HnswConfig autoBuild();
+
+    public HnswConfig build() {
+      HnswConfig config = autoBuild();
+      if (config.getM() < 2) {
+        throw new IllegalArgumentException("M must be at least 2");
+      }
+      if (config.getEfConstruction() < 1 || config.getEfSearch() < 1) {
+        throw new IllegalArgumentException("efConstruction and efSearch must be positive");
+      }
+      return config;
+    }
+  }
+}
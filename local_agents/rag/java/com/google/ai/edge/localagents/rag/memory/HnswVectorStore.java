@@ -0,0 +1,443 @@
+/**
+ * Copyright 2025 The Google AI Edge Authors.
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ai.edge.localagents.rag.memory;
+
+import static com.google.ai.edge.localagents.rag.shared.VectorOperations.dot;
+import static com.google.ai.edge.localagents.rag.shared.VectorOperations.normalize;
+
+import com.google.ai.edge.localagents.rag.shared.EmbeddingVector;
+import com.google.common.collect.ImmutableList;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A non-persistent vector store that answers queries approximately using a hierarchical navigable
+ * small world (HNSW) graph.
+ *
+ * <p>Queries visit a small neighborhood of the graph instead of scoring every record, so latency
+ * grows roughly logarithmically with the number of records. Results may miss some of the exact top
+ * K records; raise {@link HnswConfig#getEfSearch()} to trade latency for recall. Similarity is the
+ * cosine similarity, as in {@link DefaultVectorStore}.
+ *
+ * <p>Records can be inserted at any time. Queries run concurrently with each other and are blocked
+ * only while an insert updates the graph.
+ */
+public final class HnswVectorStore<T> extends ScoredVectorStore<T> {
+  private static final long RANDOM_SEED = 42;
+  private static final int GRAPH_MAGIC = 0x484e5357; // "HNSW"
+  private static final int GRAPH_VERSION = 1;
+
+  private final HnswConfig config;
+  private final double levelMultiplier;
+  private final Random random = new Random(RANDOM_SEED);
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private final List<Node<T>> nodes = new ArrayList<>();
+  private int entryPoint = -1;
+  private int maxLevel = -1;
+  private int dimensions = -1;
+
+  /** Creates an HNSW vector store with the default {@link HnswConfig}. */
+  public HnswVectorStore() {
+    this(HnswConfig.builder().build());
+  }
+
+  /**
+   * Creates an HNSW vector store.
+   *
+   * @param config The graph configuration.
+   */
+  public HnswVectorStore(HnswConfig config) {
+    this.config = config;
+    this.levelMultiplier = 1 / Math.log(config.getM());
+  }
+
+  @Override
+  public void insert(VectorStoreRecord<T> record) {
+    insertNormalized(record, normalize(record.getEmbeddingVector()));
+  }
+
+  /**
+   * Inserts a record whose normalized embedding is already known. The graph keeps {@code vector}
+   * without copying it, so the embedding of {@code record} may be left empty to hold the vector
+   * only once.
+   */
+  void insertNormalized(VectorStoreRecord<T> record, float[] vector) {
+    lock.writeLock().lock();
+    try {
+      if (dimensions < 0) {
+        dimensions = vector.length;
+      } else if (vector.length != dimensions) {
+        throw new IllegalArgumentException("Vectors lengths must be equal");
+      }
+      int id = nodes.size();
+      int level = randomLevel();
+      Node<T> node = new Node<>(record, vector, level, config.getM());
+      nodes.add(node);
+      if (entryPoint < 0) {
+        entryPoint = id;
+        maxLevel = level;
+        return;
+      }
+
+      int current = entryPoint;
+      for (int layer = maxLevel; layer > level; layer--) {
+        current = greedySearch(vector, current, layer);
+      }
+      for (int layer = Math.min(level, maxLevel); layer >= 0; layer--) {
+        int[] candidates =
+            searchLayer(vector, current, config.getEfConstruction(), layer).drainDescending();
+        current = candidates[0];
+        for (int neighbor : selectNeighbors(vector, candidates, config.getM())) {
+          node.links[layer][node.linkCounts[layer]++] = neighbor;
+          connect(neighbor, id, layer);
+        }
+      }
+      if (level > maxLevel) {
+        maxLevel = level;
+        entryPoint = id;
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public ImmutableList<VectorStoreRecord<T>> getNearestRecords(
+      List<Float> queryEmbeddings, int topK, float minSimilarityScore) {
+    return getNearestRecords(EmbeddingVector.copyOf(queryEmbeddings), topK, minSimilarityScore);
+  }
+
+  @Override
+  public ImmutableList<VectorStoreRecord<T>> getNearestRecords(
+      EmbeddingVector queryEmbeddings, int topK, float minSimilarityScore) {
+    return getNearestScoredRecords(queryEmbeddings, topK, minSimilarityScore).records;
+  }
+
+  @Override
+  ScoredRecords<T> getNearestScoredRecords(
+      EmbeddingVector queryEmbeddings, int topK, float minSimilarityScore) {
+    if (topK <= 0) {
+      return ScoredRecords.empty();
+    }
+    float[] query = normalize(queryEmbeddings);
+    lock.readLock().lock();
+    try {
+      if (entryPoint < 0) {
+        return ScoredRecords.empty();
+      }
+      if (query.length != dimensions) {
+        throw new IllegalArgumentException("Vectors lengths must be equal");
+      }
+      int current = entryPoint;
+      for (int layer = maxLevel; layer > 0; layer--) {
+        current = greedySearch(query, current, layer);
+      }
+      ScoreHeap results = searchLayer(query, current, Math.max(config.getEfSearch(), topK), 0);
+      while (!results.isEmpty()
+          && (results.size() > topK || results.peekScore() < minSimilarityScore)) {
+        results.pop();
+      }
+      int[] ids = new int[results.size()];
+      float[] scores = new float[ids.length];
+      results.drainDescending(ids, scores);
+      ImmutableList.Builder<VectorStoreRecord<T>> records = ImmutableList.builder();
+      for (int id : ids) {
+        records.add(nodes.get(id).record);
+      }
+      return new ScoredRecords<>(records.build(), scores);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Returns the number of records in the store. */
+  public int size() {
+    lock.readLock().lock();
+    try {
+      return nodes.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Returns the normalized embedding of a node. Callers must not modify it. */
+  float[] getNormalizedVector(int id) {
+    lock.readLock().lock();
+    try {
+      return nodes.get(id).vector;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Writes the links of the graph, without the records, in a versioned binary format readable by
+   * {@link #readGraph}.
+   */
+  void writeGraph(OutputStream outputStream) throws IOException {
+    DataOutputStream output = new DataOutputStream(outputStream);
+    lock.readLock().lock();
+    try {
+      output.writeInt(GRAPH_MAGIC);
+      output.writeInt(GRAPH_VERSION);
+      output.writeInt(config.getM());
+      output.writeInt(nodes.size());
+      output.writeInt(entryPoint);
+      output.writeInt(maxLevel);
+      for (Node<T> node : nodes) {
+        output.writeInt(node.links.length - 1);
+        for (int layer = 0; layer < node.links.length; layer++) {
+          output.writeInt(node.linkCounts[layer]);
+          for (int i = 0; i < node.linkCounts[layer]; i++) {
+            output.writeInt(node.links[layer][i]);
+          }
+        }
+      }
+    } finally {
+      lock.readLock().unlock();
+    }
+    output.flush();
+  }
+
+  /**
+   * Restores a graph written by {@link #writeGraph}, avoiding the cost of inserting the records one
+   * by one.
+   *
+   * @param inputStream The graph.
+   * @param config The configuration the graph was built with.
+   * @param records The records the graph was built from, in insertion order. Records past the
+   *     number of nodes in the graph are not inserted.
+   */
+  static <T> HnswVectorStore<T> readGraph(
+      InputStream inputStream, HnswConfig config, List<VectorStoreRecord<T>> records)
+      throws IOException {
+    List<float[]> vectors = new ArrayList<>(records.size());
+    for (VectorStoreRecord<T> record : records) {
+      vectors.add(normalize(record.getEmbeddingVector()));
+    }
+    return readGraph(inputStream, config, records, vectors);
+  }
+
+  /**
+   * Restores a graph written by {@link #writeGraph} from records whose normalized embeddings are
+   * already known.
+   *
+   * @param inputStream The graph.
+   * @param config The configuration the graph was built with.
+   * @param records The records the graph was built from, in insertion order. Their embeddings may
+   *     be empty. Records past the number of nodes in the graph are not inserted.
+   * @param vectors The normalized embeddings of the records, which the graph keeps without copying.
+   */
+  static <T> HnswVectorStore<T> readGraph(
+      InputStream inputStream,
+      HnswConfig config,
+      List<VectorStoreRecord<T>> records,
+      List<float[]> vectors)
+      throws IOException {
+    DataInputStream input = new DataInputStream(inputStream);
+    if (input.readInt() != GRAPH_MAGIC) {
+      throw new IOException("Not an HNSW graph");
+    }
+    int version = input.readInt();
+    if (version != GRAPH_VERSION) {
+      throw new IOException("Unsupported HNSW graph version " + version);
+    }
+    int m = input.readInt();
+    if (m != config.getM()) {
+      throw new IOException("HNSW graph was built with M = " + m);
+    }
+    int numNodes = input.readInt();
+    int entryPoint = input.readInt();
+    int maxLevel = input.readInt();
+    if (numNodes < 0
+        || numNodes > records.size()
+        || numNodes > vectors.size()
+        || entryPoint >= numNodes) {
+      throw new IOException("Corrupted HNSW graph header");
+    }
+    HnswVectorStore<T> store = new HnswVectorStore<>(config);
+    for (int id = 0; id < numNodes; id++) {
+      float[] vector = vectors.get(id);
+      int level = input.readInt();
+      if (level < 0 || level > maxLevel) {
+        throw new IOException("Corrupted HNSW graph node " + id);
+      }
+      if (store.dimensions >= 0 && vector.length != store.dimensions) {
+        throw new IllegalArgumentException("Vectors lengths must be equal");
+      }
+      store.dimensions = vector.length;
+      Node<T> node = new Node<>(records.get(id), vector, level, m);
+      for (int layer = 0; layer <= level; layer++) {
+        int count = input.readInt();
+        if (count < 0 || count > node.links[layer].length) {
+          throw new IOException("Corrupted HNSW graph node " + id);
+        }
+        for (int i = 0; i < count; i++) {
+          int neighbor = input.readInt();
+          if (neighbor < 0 || neighbor >= numNodes) {
+            throw new IOException("Corrupted HNSW graph node " + id);
+          }
+          node.links[layer][i] = neighbor;
+        }
+        node.linkCounts[layer] = count;
+      }
+      store.nodes.add(node);
+    }
+    store.entryPoint = entryPoint;
+    store.maxLevel = maxLevel;
+    return store;
+  }
+
+  private int randomLevel() {
+    return (int) (-Math.log(1 - random.nextDouble()) * levelMultiplier);
+  }
+
+  /** Walks the given layer towards the query and returns the closest node found. */
+  private int greedySearch(float[] query, int entry, int layer) {
+    int current = entry;
+    float currentScore = dot(query, nodes.get(current).vector);
+    boolean improved = true;
+    while (improved) {
+      improved = false;
+      Node<T> node = nodes.get(current);
+      for (int i = 0; i < node.linkCounts[layer]; i++) {
+        int neighbor = node.links[layer][i];
+        float score = dot(query, nodes.get(neighbor).vector);
+        if (score > currentScore) {
+          current = neighbor;
+          currentScore = score;
+          improved = true;
+        }
+      }
+    }
+    return current;
+  }
+
+  /** Returns up to {@code ef} nodes of the given layer closest to the query. */
+  private ScoreHeap searchLayer(float[] query, int entry, int ef, int layer) {
+    BitSet visited = new BitSet(nodes.size());
+    visited.set(entry);
+    float entryScore = dot(query, nodes.get(entry).vector);
+    // Scores are negated so that the min-heap pops the most similar candidate first.
+    ScoreHeap candidates = new ScoreHeap(ef);
+    candidates.push(entry, -entryScore);
+    ScoreHeap results = new ScoreHeap(ef);
+    results.push(entry, entryScore);
+    while (!candidates.isEmpty()) {
+      int candidate = candidates.peekId();
+      float candidateScore = -candidates.peekScore();
+      candidates.pop();
+      if (results.size() >= ef && candidateScore < results.peekScore()) {
+        break;
+      }
+      Node<T> node = nodes.get(candidate);
+      for (int i = 0; i < node.linkCounts[layer]; i++) {
+        int neighbor = node.links[layer][i];
+        if (visited.get(neighbor)) {
+          continue;
+        }
+        visited.set(neighbor);
+        float score = dot(query, nodes.get(neighbor).vector);
+        if (results.size() < ef || score > results.peekScore()) {
+          candidates.push(neighbor, -score);
+          results.offer(neighbor, score, ef);
+        }
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Picks up to {@code m} neighbors from candidates sorted by descending similarity to {@code
+   * base}, preferring candidates that are closer to the base than to any already selected neighbor
+   * so that links spread in different directions. Remaining slots are filled with the closest
+   * skipped candidates.
+   */
+  private int[] selectNeighbors(float[] base, int[] candidates, int m) {
+    int[] selected = new int[m];
+    int selectedCount = 0;
+    int[] skipped = new int[candidates.length];
+    int skippedCount = 0;
+    for (int candidate : candidates) {
+      if (selectedCount == m) {
+        break;
+      }
+      float[] candidateVector = nodes.get(candidate).vector;
+      float scoreToBase = dot(base, candidateVector);
+      boolean diverse = true;
+      for (int i = 0; i < selectedCount; i++) {
+        if (dot(candidateVector, nodes.get(selected[i]).vector) > scoreToBase) {
+          diverse = false;
+          break;
+        }
+      }
+      if (diverse) {
+        selected[selectedCount++] = candidate;
+      } else {
+        skipped[skippedCount++] = candidate;
+      }
+    }
+    for (int i = 0; i < skippedCount && selectedCount < m; i++) {
+      selected[selectedCount++] = skipped[i];
+    }
+    return Arrays.copyOf(selected, selectedCount);
+  }
+
+  /** Adds a link from {@code from} to {@code to}, pruning the links of {@code from} if full. */
+  private void connect(int from, int to, int layer) {
+    Node<T> node = nodes.get(from);
+    int[] links = node.links[layer];
+    int count = node.linkCounts[layer];
+    if (count < links.length) {
+      links[count] = to;
+      node.linkCounts[layer] = count + 1;
+      return;
+    }
+    ScoreHeap ranked = new ScoreHeap(count + 1);
+    for (int i = 0; i < count; i++) {
+      ranked.push(links[i], dot(node.vector, nodes.get(links[i]).vector));
+    }
+    ranked.push(to, dot(node.vector, nodes.get(to).vector));
+    int[] kept = selectNeighbors(node.vector, ranked.drainDescending(), links.length);
+    System.arraycopy(kept, 0, links, 0, kept.length);
+    node.linkCounts[layer] = kept.length;
+  }
+
+  private static final class Node<T> {
+    final VectorStoreRecord<T> record;
+    final float[] vector;
+    final int[][] links;
+    final int[] linkCounts;
+
+    Node(VectorStoreRecord<T> record, float[] vector, int level, int m) {
+      this.record = record;
+      this.vector = vector;
+      this.links = new int[level + 1][];
+      this.linkCounts = new int[level + 1];
+      for (int layer = 0; layer <= level; layer++) {
+        links[layer] = new int[layer == 0 ? 2 * m : m];
+      }
+    }
+  }
+}
@@ -0,0 +1,312 @@
+/**
+ * Copyright 2025 The Google AI Edge Authors.
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ai.edge.localagents.rag.memory;
+
+import static com.google.ai.edge.localagents.rag.memory.DefaultSemanticTextMemory.getNearestRecords;
+import static com.google.ai.edge.localagents.rag.memory.DefaultSemanticTextMemory.recordBatchedEntries;
+import static com.google.ai.edge.localagents.rag.memory.DefaultSemanticTextMemory.recordEntry;
+import static com.google.ai.edge.localagents.rag.memory.DefaultSemanticTextMemory.toQueryEmbeddingRequest;
+import static com.google.ai.edge.localagents.rag.memory.DefaultSemanticTextMemory.toRetrievalEntity;
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+
+import com.google.ai.edge.localagents.rag.models.Embedder;
+import com.google.ai.edge.localagents.rag.retrieval.RetrievalConfig;
+import com.google.ai.edge.localagents.rag.retrieval.RetrievalRequest;
+import com.google.ai.edge.localagents.rag.retrieval.RetrievalResponse;
+import com.google.ai.edge.localagents.rag.retrieval.SemanticDataEntry;
+import com.google.ai.edge.localagents.rag.shared.EmbeddingVector;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * A semantic text memory that combines lexical and semantic retrieval.
+ *
+ * <p>Each entry is stored both in a vector store and in a {@link Bm25Index}. A query is looked up
+ * in the lexical index on its own thread while it is being embedded and searched in the vector
+ * store, then the two rankings are fused with reciprocal rank fusion: each record scores {@code 1 /
+ * (60 + rank)} in every ranking it appears in. Records found by both retrievers come first, and
+ * exact keyword matches such as codes or product names surface even when their embeddings are not
+ * close to the query's. Records found only by the lexical index carry no embeddings.
+ *
+ * <p>Entries recorded with {@link #upsertMemoryEntry} can be replaced and deleted in both stores
+ * by id, which requires a vector store supporting {@link VectorStore#upsert} and {@link
+ * VectorStore#delete}.
+ *
+ * <p>The lexical index lives on the heap. When the vector store is persistent, save the index with
+ * {@link Bm25Index#writeTo} along with the store and pass {@link Bm25Index#readFrom} to the
+ * constructor on restart, or record the entries again.
+ */
+public final class HybridSemanticTextMemory implements SemanticMemory<String> {
+  // Dampens the weight of the top ranks, at the value used in the original RRF paper.
+  private static final int RRF_K = 60;
+
+  private final VectorStore<String> vectorStore;
+  private final Bm25Index lexicalIndex;
+  private final Embedder<String> embeddingModel;
+  private final Executor workerExecutor;
+  private final Executor lexicalExecutor;
+
+  /**
+   * Creates a new hybrid semantic text memory with an empty lexical index.
+   *
+   * @param vectorStore The vector store for storing the text embeddings.
+   * @param embeddingModel The embedding model to use for embedding the text.
+   */
+  public HybridSemanticTextMemory(
+      VectorStore<String> vectorStore, Embedder<String> embeddingModel) {
+    this(vectorStore, new Bm25Index(), embeddingModel);
+  }
+
+  /**
+   * Creates a new hybrid semantic text memory.
+   *
+   * @param vectorStore The vector store for storing the text embeddings.
+   * @param lexicalIndex The lexical index for storing the text terms.
+   * @param embeddingModel The embedding model to use for embedding the text.
+   */
+  public HybridSemanticTextMemory(
+      VectorStore<String> vectorStore, Bm25Index lexicalIndex, Embedder<String> embeddingModel) {
+    this.vectorStore = vectorStore;
+    this.lexicalIndex = lexicalIndex;
+    this.embeddingModel = embeddingModel;
+    this.workerExecutor =
+        Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder()
+                .setNameFormat("hybrid-semantic-text-memory-pool-%d")
+                .setPriority(Thread.NORM_PRIORITY)
+                .build());
+    this.lexicalExecutor =
+        Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder()
+                .setNameFormat("hybrid-semantic-text-memory-lexical-pool-%d")
+                .setPriority(Thread.NORM_PRIORITY)
+                .build());
+  }
+
+  /**
+   * Retrieves the top K elements from the memory by fusing the lexical and semantic rankings of the
+   * query. The lexical lookup runs while the query is being embedded and searched.
+   *
+   * @param request The retrieval request.
+   * @return A future that resolves to the retrieval response.
+   */
+  @Override
+  public ListenableFuture<RetrievalResponse<String>> retrieveResults(
+      RetrievalRequest<String> request) {
+    ListenableFuture<ImmutableList<VectorStoreRecord<String>>> lexicalRecords =
+        Futures.submit(() -> searchLexicalIndex(request), lexicalExecutor);
+    ListenableFuture<List<VectorStoreRecord<String>>> semanticRecords =
+        Futures.transform(
+            embeddingModel.getEmbeddingVector(toQueryEmbeddingRequest(request)),
+            (embeddings) -> getNearestRecords(vectorStore, request.getConfig(), embeddings),
+            workerExecutor);
+    return fuse(request.getConfig(), lexicalRecords, semanticRecords);
+  }
+
+  /**
+   * Retrieves the top K elements from the memory by fusing the lexical and semantic rankings of the
+   * query, using the given query embeddings instead of calling the embedding model.
+   *
+   * @param request The retrieval request.
+   * @param queryEmbeddings The embeddings of the query.
+   * @return A future that resolves to the retrieval response.
+   */
+  @Override
+  public ListenableFuture<RetrievalResponse<String>> retrieveResults(
+      RetrievalRequest<String> request, EmbeddingVector queryEmbeddings) {
+    ListenableFuture<ImmutableList<VectorStoreRecord<String>>> lexicalRecords =
+        Futures.submit(() -> searchLexicalIndex(request), lexicalExecutor);
+    ListenableFuture<List<VectorStoreRecord<String>>> semanticRecords =
+        Futures.submit(
+            () -> getNearestRecords(vectorStore, request.getConfig(), queryEmbeddings),
+            workerExecutor);
+    return fuse(request.getConfig(), lexicalRecords, semanticRecords);
+  }
+
+  /**
+   * Stores the text memory and its embeddings in the vector store and the lexical index.
+   *
+   * @param text The text to record.
+   * @return A future that resolves to a boolean indicating whether the item is successfully stored.
+   */
+  @Override
+  public ListenableFuture<Boolean> recordMemoryItem(String text) {
+    return recordMemoryEntry(SemanticDataEntry.create(text));
+  }
+
+  /**
+   * Stores the memory entry and its embeddings in the vector store and the lexical index.
+   *
+   * @param dataEntry The memory entry to record.
+   * @return A future that resolves to a boolean indicating whether the memory entry is successfully
+   *     stored.
+   */
+  @Override
+  public ListenableFuture<Boolean> recordMemoryEntry(SemanticDataEntry<String> dataEntry) {
+    return recordEntry(embeddingModel, dataEntry, this::insertRecord, workerExecutor);
+  }
+
+  /**
+   * Stores the memory entry and its precomputed embeddings in the vector store and the lexical
+   * index.
+   *
+   * @param dataEntry The memory entry to record.
+   * @param embeddings The embeddings of the memory entry.
+   * @return A future that resolves to a boolean indicating whether the memory entry is successfully
+   *     stored.
+   */
+  @Override
+  public ListenableFuture<Boolean> recordMemoryEntry(
+      SemanticDataEntry<String> dataEntry, EmbeddingVector embeddings) {
+    return recordEntry(dataEntry, embeddings, this::insertRecord, workerExecutor);
+  }
+
+  /**
+   * Stores the text memories and their embeddings in the vector store and the lexical index.
+   *
+   * @param texts The texts to record.
+   * @return A future that resolves to a boolean indicating whether the items are successfully
+   *     stored.
+   */
+  @Override
+  public ListenableFuture<Boolean> recordBatchedMemoryItems(ImmutableList<String> texts) {
+    return recordBatchedMemoryEntries(
+        texts.stream().map(SemanticDataEntry::create).collect(toImmutableList()));
+  }
+
+  /**
+   * Stores the memory entries and their embeddings in the vector store and the lexical index.
+   *
+   * @param dataEntries The memory entries to record.
+   * @return A future that resolves to a boolean indicating whether the memory entries are
+   *     successfully stored.
+   */
+  @Override
+  public ListenableFuture<Boolean> recordBatchedMemoryEntries(
+      ImmutableList<SemanticDataEntry<String>> dataEntries) {
+    return recordBatchedEntries(embeddingModel, dataEntries, this::insertRecords, workerExecutor);
+  }
+
+  /**
+   * Stores the memory entry and its embeddings under the given id in the vector store and the
+   * lexical index, replacing the entry previously stored under it, if any.
+   *
+   * @param id The id of the entry in the vector store.
+   * @param dataEntry The memory entry to record.
+   * @return A future that resolves to a boolean indicating whether the memory entry is successfully
+   *     stored.
+   */
+  public ListenableFuture<Boolean> upsertMemoryEntry(
+      long id, SemanticDataEntry<String> dataEntry) {
+    return recordEntry(
+        embeddingModel, dataEntry, (record) -> upsertRecord(id, record), workerExecutor);
+  }
+
+  /**
+   * Deletes the entry stored under the given id from the vector store and the lexical index.
+   *
+   * @param id The id passed to {@link #upsertMemoryEntry}.
+   * @return A future that resolves to a boolean indicating whether the deletion succeeded.
+   */
+  public ListenableFuture<Boolean> deleteMemoryEntry(long id) {
+    return Futures.submit(
+        () -> {
+          vectorStore.delete(id);
+          lexicalIndex.delete(id);
+          return true;
+        },
+        workerExecutor);
+  }
+
+  private void insertRecord(VectorStoreRecord<String> record) {
+    vectorStore.insert(record);
+    lexicalIndex.insert(record.getData(), record.getMetadata());
+  }
+
+  private void insertRecords(ImmutableList<VectorStoreRecord<String>> records) {
+    vectorStore.insertBatch(records);
+    for (VectorStoreRecord<String> record : records) {
+      lexicalIndex.insert(record.getData(), record.getMetadata());
+    }
+  }
+
+  private void upsertRecord(long id, VectorStoreRecord<String> record) {
+    vectorStore.upsert(id, record);
+    lexicalIndex.upsert(id, record.getData(), record.getMetadata());
+  }
+
+  private ImmutableList<VectorStoreRecord<String>> searchLexicalIndex(
+      RetrievalRequest<String> request) {
+    return lexicalIndex.search(
+        request.getQuery(),
+        request.getConfig().getTopK(),
+        request.getConfig().getMetadataFilter().orElse(null));
+  }
+
+  private static ListenableFuture<RetrievalResponse<String>> fuse(
+      RetrievalConfig config,
+      ListenableFuture<? extends List<VectorStoreRecord<String>>> lexicalRecords,
+      ListenableFuture<? extends List<VectorStoreRecord<String>>> semanticRecords) {
+    return Futures.whenAllSucceed(lexicalRecords, semanticRecords)
+        .call(
+            () ->
+                fuse(
+                    config.getTopK(),
+                    Futures.getDone(lexicalRecords),
+                    Futures.getDone(semanticRecords)),
+            directExecutor());
+  }
+
+  /** Merges the rankings with reciprocal rank fusion, identifying records by their text. */
+  private static RetrievalResponse<String> fuse(
+      int topK,
+      List<VectorStoreRecord<String>> lexicalRecords,
+      List<VectorStoreRecord<String>> semanticRecords) {
+    Map<String, FusedRecord> fused = new LinkedHashMap<>();
+    for (List<VectorStoreRecord<String>> ranking :
+        ImmutableList.of(semanticRecords, lexicalRecords)) {
+      for (int rank = 0; rank < ranking.size(); rank++) {
+        VectorStoreRecord<String> record = ranking.get(rank);
+        fused.computeIfAbsent(record.getData(), data -> new FusedRecord(record)).score +=
+            1.0 / (RRF_K + rank + 1);
+      }
+    }
+    List<FusedRecord> ranked = new ArrayList<>(fused.values());
+    ranked.sort(Comparator.comparingDouble((FusedRecord record) -> record.score).reversed());
+    return RetrievalResponse.<String>create(
+        ranked.stream()
+            .limit(topK)
+            .map(fusedRecord -> toRetrievalEntity(fusedRecord.record))
+            .collect(toImmutableList()));
+  }
+
+  private static final class FusedRecord {
+    final VectorStoreRecord<String> record;
+    double score = 0;
+
+    FusedRecord(VectorStoreRecord<String> record) {
+      this.record = record;
+    }
+  }
+}
@@ -0,0 +1,396 @@
+/**
+ * Copyright 2025 The Google AI Edge Authors.
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ai.edge.localagents.rag.memory;
+
+import static com.google.ai.edge.localagents.rag.shared.VectorOperations.dot;
+import static com.google.ai.edge.localagents.rag.shared.VectorOperations.normalize;
+import static com.google.ai.edge.localagents.rag.shared.VectorOperations.squaredL2Distance;
+
+import com.google.ai.edge.localagents.rag.shared.EmbeddingVector;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The trained quantizers of an {@link IvfPqVectorStore}: coarse k-means centroids that partition
+ * the vectors into inverted lists, and product quantization (PQ) codebooks that compress the
+ * residual of each vector to its centroid into one byte per subspace.
+ *
+ * <p>Training is expensive and should be done offline on a representative sample of the corpus.
+ * The result can be written with {@link #writeTo} and shipped to devices, which load it with {@link
+ * #readFrom} instead of retraining.
+ */
+public final class IvfPqCodebook {
+  private static final int MAGIC = 0x49565051; // "IVPQ"
+  private static final int VERSION = 1;
+  private static final int MAX_SUBSPACE_CENTROIDS = 256;
+  private static final int DEFAULT_ITERATIONS = 20;
+  private static final long DEFAULT_SEED = 42;
+
+  private final int dimensions;
+  private final int numLists;
+  private final int numSubspaces;
+  private final int numSubspaceCentroids;
+  private final int subspaceDimensions;
+  // numLists x dimensions, row-major.
+  private final float[] coarseCentroids;
+  // numSubspaces x numSubspaceCentroids x subspaceDimensions, row-major.
+  private final float[] subspaceCentroids;
+  private final float[] coarseCentroidSquaredNorms;
+
+  private IvfPqCodebook(
+      int dimensions,
+      int numLists,
+      int numSubspaces,
+      int numSubspaceCentroids,
+      float[] coarseCentroids,
+      float[] subspaceCentroids) {
+    this.dimensions = dimensions;
+    this.numLists = numLists;
+    this.numSubspaces = numSubspaces;
+    this.numSubspaceCentroids = numSubspaceCentroids;
+    this.subspaceDimensions = dimensions / numSubspaces;
+    this.coarseCentroids = coarseCentroids;
+    this.subspaceCentroids = subspaceCentroids;
+    this.coarseCentroidSquaredNorms = new float[numLists];
+    for (int list = 0; list < numLists; list++) {
+      coarseCentroidSquaredNorms[list] =
+          dot(coarseCentroids, list * dimensions, coarseCentroids, list * dimensions, dimensions);
+    }
+  }
+
+  /**
+   * Trains a codebook with default k-means settings.
+   *
+   * @param sample The training vectors. Should contain many more vectors than {@code numLists}.
+   * @param numLists The number of inverted lists (coarse centroids).
+   * @param numSubspaces The number of PQ subspaces, i.e. the code size in bytes. Must divide the
+   *     number of dimensions.
+   */
+  public static IvfPqCodebook train(List<EmbeddingVector> sample, int numLists, int numSubspaces) {
+    return train(sample, numLists, numSubspaces, DEFAULT_ITERATIONS, DEFAULT_SEED);
+  }
+
+  /**
+   * Trains a codebook.
+   *
+   * @param sample The training vectors. Should contain many more vectors than {@code numLists}.
+   * @param numLists The number of inverted lists (coarse centroids).
+   * @param numSubspaces The number of PQ subspaces, i.e. the code size in bytes. Must divide the
+   *     number of dimensions.
+   * @param iterations The number of k-means iterations.
+   * @param seed The seed for centroid initialization.
+   */
+  public static IvfPqCodebook train(
+      List<EmbeddingVector> sample, int numLists, int numSubspaces, int iterations, long seed) {
+    if (sample.isEmpty()) {
+      throw new IllegalArgumentException("Training sample cannot be empty");
+    }
+    int dimensions = sample.get(0).size();
+    if (numSubspaces <= 0 || dimensions % numSubspaces != 0) {
+      throw new IllegalArgumentException(
+          "Number of subspaces must divide the number of dimensions " + dimensions);
+    }
+    if (numLists <= 0 || numLists > sample.size()) {
+      throw new IllegalArgumentException("Number of lists must be in [1, sample size]");
+    }
+    Random random = new Random(seed);
+    int numPoints = sample.size();
+    float[] points = new float[numPoints * dimensions];
+    for (int i = 0; i < numPoints; i++) {
+      EmbeddingVector vector = sample.get(i);
+      if (vector.size() != dimensions) {
+        throw new IllegalArgumentException("Vectors lengths must be equal");
+      }
+      float[] normalized = normalize(vector);
+      System.arraycopy(normalized, 0, points, i * dimensions, dimensions);
+    }
+
+    float[] coarseCentroids = kMeans(points, numPoints, dimensions, numLists, iterations, random);
+
+    // Replace every point by its residual to the nearest coarse centroid.
+    for (int i = 0; i < numPoints; i++) {
+      int list = nearest(points, i * dimensions, coarseCentroids, numLists, dimensions);
+      for (int j = 0; j < dimensions; j++) {
+        points[i * dimensions + j] -= coarseCentroids[list * dimensions + j];
+      }
+    }
+
+    int subspaceDimensions = dimensions / numSubspaces;
+    int numSubspaceCentroids = Math.min(MAX_SUBSPACE_CENTROIDS, numPoints);
+    float[] subspaceCentroids = new float[numSubspaces * numSubspaceCentroids * subspaceDimensions];
+    float[] subspacePoints = new float[numPoints * subspaceDimensions];
+    for (int subspace = 0; subspace < numSubspaces; subspace++) {
+      for (int i = 0; i < numPoints; i++) {
+        System.arraycopy(
+            points,
+            i * dimensions + subspace * subspaceDimensions,
+            subspacePoints,
+            i * subspaceDimensions,
+            subspaceDimensions);
+      }
+      float[] centroids =
+          kMeans(
+              subspacePoints,
+              numPoints,
+              subspaceDimensions,
+              numSubspaceCentroids,
+              iterations,
+              random);
+      System.arraycopy(
+          centroids,
+          0,
+          subspaceCentroids,
+          subspace * numSubspaceCentroids * subspaceDimensions,
+          centroids.length);
+    }
+    return new IvfPqCodebook(
+        dimensions,
+        numLists,
+        numSubspaces,
+        numSubspaceCentroids,
+        coarseCentroids,
+        subspaceCentroids);
+  }
+
+  /** Writes the codebook in a versioned binary format readable by {@link #readFrom}. */
+  public void writeTo(OutputStream outputStream) throws IOException {
+    DataOutputStream output = new DataOutputStream(outputStream);
+    output.writeInt(MAGIC);
+    output.writeInt(VERSION);
+    output.writeInt(dimensions);
+    output.writeInt(numLists);
+    output.writeInt(numSubspaces);
+    output.writeInt(numSubspaceCentroids);
+    for (float value : coarseCentroids) {
+      output.writeFloat(value);
+    }
+    for (float value : subspaceCentroids) {
+      output.writeFloat(value);
+    }
+    output.flush();
+  }
+
+  /** Reads a codebook written by {@link #writeTo}. */
+  public static IvfPqCodebook readFrom(InputStream inputStream) throws IOException {
+    DataInputStream input = new DataInputStream(inputStream);
+    if (input.readInt() != MAGIC) {
+      throw new IOException("Not an IVF-PQ codebook");
+    }
+    int version = input.readInt();
+    if (version != VERSION) {
+      throw new IOException("Unsupported IVF-PQ codebook version " + version);
+    }
+    int dimensions = input.readInt();
+    int numLists = input.readInt();
+    int numSubspaces = input.readInt();
+    int numSubspaceCentroids = input.readInt();
+    if (dimensions <= 0
+        || numLists <= 0
+        || numSubspaces <= 0
+        || dimensions % numSubspaces != 0
+        || numSubspaceCentroids <= 0
+        || numSubspaceCentroids > MAX_SUBSPACE_CENTROIDS) {
+      throw new IOException("Corrupted IVF-PQ codebook header");
+    }
+    float[] coarseCentroids = new float[numLists * dimensions];
+    for (int i = 0; i < coarseCentroids.length; i++) {
+      coarseCentroids[i] = input.readFloat();
+    }
+    float[] subspaceCentroids = new float[numSubspaceCentroids * dimensions];
+    for (int i = 0; i < subspaceCentroids.length; i++) {
+      subspaceCentroids[i] = input.readFloat();
+    }
+    return new IvfPqCodebook(
+        dimensions,
+        numLists,
+        numSubspaces,
+        numSubspaceCentroids,
+        coarseCentroids,
+        subspaceCentroids);
+  }
+
+  /** Returns the number of dimensions of the encoded vectors. */
+  public int getDimensions() {
+    return dimensions;
+  }
+
+  /** Returns the number of inverted lists. */
+  public int getNumLists() {
+    return numLists;
+  }
+
+  /** Returns the number of PQ subspaces, which is also the code size in bytes. */
+  public int getNumSubspaces() {
+    return numSubspaces;
+  }
+
+  /** Returns the inverted list of a normalized vector. */
+  int assignList(float[] vector) {
+    return nearest(vector, 0, coarseCentroids, numLists, dimensions);
+  }
+
+  /** Writes the PQ code of the residual of a normalized vector to its list's centroid. */
+  void encode(float[] vector, int list, byte[] codes, int offset) {
+    float[] residual = new float[subspaceDimensions];
+    for (int subspace = 0; subspace < numSubspaces; subspace++) {
+      int start = subspace * subspaceDimensions;
+      for (int j = 0; j < subspaceDimensions; j++) {
+        residual[j] = vector[start + j] - coarseCentroids[list * dimensions + start + j];
+      }
+      int codebookOffset = subspace * numSubspaceCentroids * subspaceDimensions;
+      int best = 0;
+      float bestDistance = Float.MAX_VALUE;
+      for (int centroid = 0; centroid < numSubspaceCentroids; centroid++) {
+        float distance =
+            squaredL2Distance(
+                residual,
+                0,
+                subspaceCentroids,
+                codebookOffset + centroid * subspaceDimensions,
+                subspaceDimensions);
+        if (distance < bestDistance) {
+          bestDistance = distance;
+          best = centroid;
+        }
+      }
+      codes[offset + subspace] = (byte) best;
+    }
+  }
+
+  /**
+   * Returns the {@code numProbes} lists whose centroids are closest to a normalized query, along
+   * with the dot product of the query with each of their centroids.
+   */
+  int[] probeLists(float[] query, int numProbes, float[] centroidScores) {
+    ScoreHeap closest = new ScoreHeap(numProbes);
+    for (int list = 0; list < numLists; list++) {
+      float score = dot(query, 0, coarseCentroids, list * dimensions, dimensions);
+      centroidScores[list] = score;
+      // Ranking by 2 * q.c - |c|^2 is equivalent to ranking by L2 distance, which is how vectors
+      // were assigned to lists.
+      closest.offer(list, 2 * score - coarseCentroidSquaredNorms[list], numProbes);
+    }
+    return closest.drainDescending();
+  }
+
+  /**
+   * Returns the dot products of each query subvector with each subspace centroid, laid out as
+   * {@code numSubspaces x 256} so that codes can be used as indices.
+   */
+  float[] computeScoreTable(float[] query) {
+    float[] table = new float[numSubspaces * MAX_SUBSPACE_CENTROIDS];
+    for (int subspace = 0; subspace < numSubspaces; subspace++) {
+      int codebookOffset = subspace * numSubspaceCentroids * subspaceDimensions;
+      for (int centroid = 0; centroid < numSubspaceCentroids; centroid++) {
+        table[subspace * MAX_SUBSPACE_CENTROIDS + centroid] =
+            dot(
+                query,
+                subspace * subspaceDimensions,
+                subspaceCentroids,
+                codebookOffset + centroid * subspaceDimensions,
+                subspaceDimensions);
+      }
+    }
+    return table;
+  }
+
+  /** Returns the approximate dot product of a query with an encoded residual. */
+  float scoreCode(float[] scoreTable, byte[] codes, int offset) {
+    float score = 0;
+    for (int subspace = 0; subspace < numSubspaces; subspace++) {
+      score += scoreTable[subspace * MAX_SUBSPACE_CENTROIDS + (codes[offset + subspace] & 0xFF)];
+    }
+    return score;
+  }
+
+  /** Runs Lloyd's k-means over {@code numPoints} row-major points and returns the centroids. */
+  private static float[] kMeans(
+      float[] points, int numPoints, int dimensions, int k, int iterations, Random random) {
+    float[] centroids = new float[k * dimensions];
+    // Initialize with distinct random points (partial Fisher-Yates shuffle).
+    int[] order = new int[numPoints];
+    for (int i = 0; i < numPoints; i++) {
+      order[i] = i;
+    }
+    for (int i = 0; i < k; i++) {
+      int j = i + random.nextInt(numPoints - i);
+      int swap = order[i];
+      order[i] = order[j];
+      order[j] = swap;
+      System.arraycopy(points, order[i] * dimensions, centroids, i * dimensions, dimensions);
+    }
+
+    int[] assignments = new int[numPoints];
+    float[] sums = new float[k * dimensions];
+    int[] counts = new int[k];
+    for (int iteration = 0; iteration < iterations; iteration++) {
+      boolean changed = false;
+      for (int i = 0; i < numPoints; i++) {
+        int assignment = nearest(points, i * dimensions, centroids, k, dimensions);
+        changed |= iteration == 0 || assignment != assignments[i];
+        assignments[i] = assignment;
+      }
+      if (!changed) {
+        break;
+      }
+      Arrays.fill(sums, 0);
+      Arrays.fill(counts, 0);
+      for (int i = 0; i < numPoints; i++) {
+        int centroid = assignments[i];
+        counts[centroid]++;
+        for (int j = 0; j < dimensions; j++) {
+          sums[centroid * dimensions + j] += points[i * dimensions + j];
+        }
+      }
+      for (int centroid = 0; centroid < k; centroid++) {
+        if (counts[centroid] == 0) {
+          // Re-seed empty clusters with a random point.
+          System.arraycopy(
+              points,
+              random.nextInt(numPoints) * dimensions,
+              centroids,
+              centroid * dimensions,
+              dimensions);
+          continue;
+        }
+        for (int j = 0; j < dimensions; j++) {
+          centroids[centroid * dimensions + j] =
+              sums[centroid * dimensions + j] / counts[centroid];
+        }
+      }
+    }
+    return centroids;
+  }
+
+  private static int nearest(
+      float[] point, int pointOffset, float[] centroids, int k, int dimensions) {
+    int best = 0;
+    float bestDistance = Float.MAX_VALUE;
+    for (int centroid = 0; centroid < k; centroid++) {
+      float distance =
+          squaredL2Distance(point, pointOffset, centroids, centroid * dimensions, dimensions);
+      if (distance < bestDistance) {
+        bestDistance = distance;
+        best = centroid;
+      }
+    }
+    return best;
+  }
+}
@@ -0,0 +1,65 @@
+/**
+ * Copyright 2025 The Google AI Edge Authors.
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ai.edge.localagents.rag.memory;
+
+import com.google.auto.value.AutoValue;
+
+/** Search configuration of an {@link IvfPqVectorStore}. */
+@AutoValue
+public abstract class IvfPqConfig {
+  public static final int DEFAULT_NUM_PROBES = 8;
+  public static final int DEFAULT_RERANK_MULTIPLIER = 10;
+
+  /**
+   * The number of inverted lists scanned per query. Higher values improve recall at the cost of
+   * latency. Default = 8.
+   */
+  public abstract int getNumProbes();
+
+  /**
+   * How many candidates per requested result are re-scored with the full-precision vectors, i.e.
+   * {@code rerankMultiplier * topK} candidates are re-scored. Default = 10.
+   */
+  public abstract int getRerankMultiplier();
+
+  public abstract Builder toBuilder();
+
+  public static Builder builder() {
+    return new AutoValue_IvfPqConfig.Builder()
+        .setNumProbes(DEFAULT_NUM_PROBES)
+        .setRerankMultiplier(DEFAULT_RERANK_MULTIPLIER);
+  }
+
+  public static IvfPqConfig create(int numProbes, int rerankMultiplier) {
+    return builder().setNumProbes(numProbes).setRerankMultiplier(rerankMultiplier).build();
+  }
+
+  /** Auto Builder. */
+  @AutoValue.Builder
+  public abstract static class Builder {
+    public abstract Builder setNumProbes(int numProbes);
+
+    public abstract Builder setRerankMultiplier(int rerankMultiplier);
+
+    abstract IvfPqConfig autoBuild();
+
+    public IvfPqConfig build() {
+      IvfPqConfig config = autoBuild();
+      if (config.getNumProbes() < 1 || config.getRerankMultiplier() < 1) {
+        throw new IllegalArgumentException("numProbes and rerankMultiplier must be positive");
+      }
+      return config;
+    }
+  }
+}
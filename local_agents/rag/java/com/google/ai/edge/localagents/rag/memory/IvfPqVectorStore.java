@@ -0,0 +1,140 @@
+/**
+ * Copyright 2025 The Google AI Edge Authors.
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ai.edge.localagents.rag.memory;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * A vector store for large corpora that combines an inverted file (IVF) index with product
+ * quantization (PQ).
+ *
+ * <p>Each record is assigned to the inverted list of its nearest coarse centroid and kept resident
+ * only as a PQ code of {@link IvfPqCodebook#getNumSubspaces()} bytes. A query scans the codes of
+ * the {@link IvfPqConfig#getNumProbes()} closest lists using precomputed lookup tables, then
+ * re-scores the best candidates with the exact cosine similarity against the full-precision
+ * vectors. Those can be kept in a file so that they never occupy the heap.
+ *
+ * <p>The codebook must be trained beforehand with {@link IvfPqCodebook#train}, typically offline.
+ */
+public final class IvfPqVectorStore<T> extends RerankingVectorStore<T> {
+  private final IvfPqCodebook codebook;
+  private final IvfPqConfig config;
+  private final InvertedList[] lists;
+  private byte[] codes;
+  private int[] listOfRecord;
+
+  /**
+   * Creates a store that keeps full-precision vectors on the heap.
+   *
+   * @param codebook The trained quantizers.
+   */
+  public IvfPqVectorStore(IvfPqCodebook codebook) {
+    this(codebook, IvfPqConfig.builder().build());
+  }
+
+  /**
+   * Creates a store that keeps full-precision vectors on the heap.
+   *
+   * @param codebook The trained quantizers.
+   * @param config The search configuration.
+   */
+  public IvfPqVectorStore(IvfPqCodebook codebook, IvfPqConfig config) {
+    this(codebook, config, FloatRowStorage.inMemory(codebook.getDimensions()));
+  }
+
+  /**
+   * Creates a store that keeps full-precision vectors in a file. Only the PQ codes, record data and
+   * metadata stay on the heap.
+   *
+   * @param codebook The trained quantizers.
+   * @param config The search configuration.
+   * @param vectorFilePath The file holding the full-precision vectors. It is overwritten.
+   */
+  public IvfPqVectorStore(IvfPqCodebook codebook, IvfPqConfig config, Path vectorFilePath) {
+    this(codebook, config, FloatRowStorage.inFile(vectorFilePath, codebook.getDimensions()));
+  }
+
+  private IvfPqVectorStore(IvfPqCodebook codebook, IvfPqConfig config, FloatRowStorage vectors) {
+    super(codebook.getDimensions(), config.getRerankMultiplier(), vectors);
+    this.codebook = codebook;
+    this.config = config;
+    this.lists = new InvertedList[codebook.getNumLists()];
+    for (int i = 0; i < lists.length; i++) {
+      lists[i] = new InvertedList();
+    }
+    this.codes = new byte[INITIAL_CAPACITY * codebook.getNumSubspaces()];
+    this.listOfRecord = new int[INITIAL_CAPACITY];
+  }
+
+  @Override
+  void growIndex(int capacity) {
+    codes = Arrays.copyOf(codes, capacity * codebook.getNumSubspaces());
+    listOfRecord = Arrays.copyOf(listOfRecord, capacity);
+  }
+
+  @Override
+  void addToIndex(int id, float[] normalized) {
+    int list = codebook.assignList(normalized);
+    codebook.encode(normalized, list, codes, id * codebook.getNumSubspaces());
+    listOfRecord[id] = list;
+    lists[list].add(id);
+  }
+
+  /** Returns a scorer that only offers the records of the lists closest to the query. */
+  @Override
+  CoarseScorer prepareQuery(float[] normalizedQuery) {
+    float[] centroidScores = new float[codebook.getNumLists()];
+    int[] probes =
+        codebook.probeLists(
+            normalizedQuery,
+            Math.min(config.getNumProbes(), codebook.getNumLists()),
+            centroidScores);
+    float[] scoreTable = codebook.computeScoreTable(normalizedQuery);
+    int numSubspaces = codebook.getNumSubspaces();
+    return new CoarseScorer() {
+      @Override
+      public float score(int id) {
+        return centroidScores[listOfRecord[id]]
+            + codebook.scoreCode(scoreTable, codes, id * numSubspaces);
+      }
+
+      @Override
+      public void offerCandidates(int size, ScoreHeap candidates, int numCandidates) {
+        for (int listIndex : probes) {
+          InvertedList list = lists[listIndex];
+          float centroidScore = centroidScores[listIndex];
+          for (int i = 0; i < list.size; i++) {
+            int id = list.ids[i];
+            float score = centroidScore + codebook.scoreCode(scoreTable, codes, id * numSubspaces);
+            candidates.offer(id, score, numCandidates);
+          }
+        }
+      }
+    };
+  }
+
+  /** The ids of the records assigned to one coarse centroid. */
+  private static final class InvertedList {
+    private int[] ids = new int[8];
+    private int size = 0;
+
+    void add(int id) {
+      if (size == ids.length) {
+        ids = Arrays.copyOf(ids, size * 2);
+      }
+      ids[size++] = id;
+    }
+  }
+}
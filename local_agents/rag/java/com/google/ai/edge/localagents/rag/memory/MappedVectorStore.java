@@ -0,0 +1,425 @@
+/**
+ * Copyright 2025 The Google AI Edge Authors.
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ai.edge.localagents.rag.memory;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.ai.edge.localagents.rag.shared.EmbeddingVector;
+import com.google.ai.edge.localagents.rag.shared.VectorOperations;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A persistent vector store that keeps embeddings in a memory-mapped file.
+ *
+ * <p>The store lives in a directory of three files:
+ *
+ * <ul>
+ *   <li>{@code vectors.f32}: the embeddings as contiguous row-major little-endian floats, mapped
+ *       into memory in chunks. Queries score directly against the mapping, so embeddings never
+ *       occupy the Java heap and the OS pages them in and out as needed.
+ *   <li>{@code payloads.bin}: the text and metadata of each record. It is only read for the top K
+ *       results of a query.
+ *   <li>{@code records.idx}: a fixed-size entry per record with the payload location and the
+ *       inverse norm of the embeddings. An entry is only appended once the embeddings and payload
+ *       it refers to have been forced to disk, so after a crash every entry found on reopening
+ *       refers to complete data. Records whose entry had not reached the disk yet are lost. {@link
+ *       #insertBatch} forces the data of all its records at once before appending their entries.
+ * </ul>
+ *
+ * <p>Reopening a directory only reads the index, so it takes time proportional to 16 bytes per
+ * record. Like {@link SqliteVectorStore}, metadata values are persisted as strings.
+ */
+public final class MappedVectorStore extends ScoredVectorStore<String> implements Closeable {
+  private static final String VECTORS_FILE_NAME = "vectors.f32";
+  private static final String PAYLOADS_FILE_NAME = "payloads.bin";
+  private static final String INDEX_FILE_NAME = "records.idx";
+  private static final int MAGIC = 0x4D565354; // "MVST"
+  private static final int VERSION = 1;
+  private static final int INDEX_HEADER_BYTES = 16;
+  private static final int INDEX_ENTRY_BYTES = 16;
+  private static final int CHUNK_BYTES = 16 << 20;
+
+  private final int dimensions;
+  private final int rowsPerChunk;
+  private final FileChannel vectorsChannel;
+  private final FileChannel payloadsChannel;
+  private final FileChannel indexChannel;
+  private final List<MappedByteBuffer> chunks = new ArrayList<>();
+  private final List<FloatBuffer> chunkFloats = new ArrayList<>();
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private long[] payloadOffsets = new long[16];
+  private int[] payloadLengths = new int[16];
+  private float[] inverseNorms = new float[16];
+  private int size = 0;
+  private long payloadsSize = 0;
+
+  /**
+   * Opens the store in the given directory, creating it if needed.
+   *
+   * @param directory The directory holding the store files.
+   * @param numEmbeddingDimensions The number of dimensions of the embeddings. Must match the
+   *     store if it already exists.
+   */
+  public MappedVectorStore(Path directory, int numEmbeddingDimensions) {
+    if (numEmbeddingDimensions <= 0) {
+      throw new IllegalArgumentException("Number of dimensions must be positive");
+    }
+    this.dimensions = numEmbeddingDimensions;
+    this.rowsPerChunk = Math.max(1, CHUNK_BYTES / (numEmbeddingDimensions * Float.BYTES));
+    FileChannel vectors = null;
+    FileChannel payloads = null;
+    FileChannel index = null;
+    try {
+      Files.createDirectories(directory);
+      vectors = open(directory.resolve(VECTORS_FILE_NAME));
+      payloads = open(directory.resolve(PAYLOADS_FILE_NAME));
+      index = open(directory.resolve(INDEX_FILE_NAME));
+      vectorsChannel = vectors;
+      payloadsChannel = payloads;
+      indexChannel = index;
+      loadIndex();
+      for (int chunk = 0; chunk * rowsPerChunk < size; chunk++) {
+        mapChunk(chunk);
+      }
+    } catch (IOException e) {
+      closeAfterFailure(e, vectors, payloads, index);
+      throw new UncheckedIOException(e);
+    } catch (RuntimeException e) {
+      closeAfterFailure(e, vectors, payloads, index);
+      throw e;
+    }
+  }
+
+  @Override
+  public void insert(VectorStoreRecord<String> record) {
+    insertBatch(ImmutableList.of(record));
+  }
+
+  /**
+   * Inserts the records with a single flush of the data files, so that the cost of forcing them to
+   * disk is shared by the whole batch.
+   */
+  @Override
+  public void insertBatch(List<VectorStoreRecord<String>> records) {
+    float[] newInverseNorms = new float[records.size()];
+    ByteBuffer[] payloads = new ByteBuffer[records.size()];
+    for (int i = 0; i < records.size(); i++) {
+      VectorStoreRecord<String> record = records.get(i);
+      EmbeddingVector embeddings = record.getEmbeddingVector();
+      if (embeddings.size() != dimensions) {
+        throw new IllegalArgumentException("Vectors lengths must be equal");
+      }
+      float norm = VectorOperations.norm(embeddings);
+      if (norm == 0) {
+        throw new IllegalArgumentException("Vectors cannot have zero norm");
+      }
+      newInverseNorms[i] = 1 / norm;
+      payloads[i] = encodePayload(record.getData(), record.getMetadata());
+    }
+    if (records.isEmpty()) {
+      return;
+    }
+
+    lock.writeLock().lock();
+    try {
+      long[] newPayloadOffsets = new long[records.size()];
+      long payloadOffset = payloadsSize;
+      for (int i = 0; i < records.size(); i++) {
+        newPayloadOffsets[i] = payloadOffset;
+        payloadOffset += payloads[i].remaining();
+        writeFully(payloadsChannel, payloads[i].duplicate(), newPayloadOffsets[i]);
+      }
+
+      int firstChunk = size / rowsPerChunk;
+      for (int i = 0; i < records.size(); i++) {
+        int row = size + i;
+        int chunk = row / rowsPerChunk;
+        if (chunk == chunkFloats.size()) {
+          mapChunk(chunk);
+        }
+        FloatBuffer floats = chunkFloats.get(chunk);
+        int offset = (row % rowsPerChunk) * dimensions;
+        EmbeddingVector embeddings = records.get(i).getEmbeddingVector();
+        for (int j = 0; j < dimensions; j++) {
+          floats.put(offset + j, embeddings.get(j));
+        }
+      }
+      // The entries must not reach the disk before the data they refer to.
+      int lastChunk = (size + records.size() - 1) / rowsPerChunk;
+      for (int chunk = firstChunk; chunk <= lastChunk; chunk++) {
+        chunks.get(chunk).force();
+      }
+      payloadsChannel.force(false);
+
+      ByteBuffer entries =
+          ByteBuffer.allocate(records.size() * INDEX_ENTRY_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+      for (int i = 0; i < records.size(); i++) {
+        entries
+            .putLong(newPayloadOffsets[i])
+            .putInt(payloads[i].remaining())
+            .putFloat(newInverseNorms[i]);
+      }
+      entries.flip();
+      writeFully(indexChannel, entries, INDEX_HEADER_BYTES + (long) size * INDEX_ENTRY_BYTES);
+
+      for (int i = 0; i < records.size(); i++) {
+        addIndexEntry(newPayloadOffsets[i], payloads[i].remaining(), newInverseNorms[i]);
+      }
+      payloadsSize = payloadOffset;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public ImmutableList<VectorStoreRecord<String>> getNearestRecords(
+      List<Float> queryEmbeddings, int topK, float minSimilarityScore) {
+    return getNearestRecords(EmbeddingVector.copyOf(queryEmbeddings), topK, minSimilarityScore);
+  }
+
+  @Override
+  public ImmutableList<VectorStoreRecord<String>> getNearestRecords(
+      EmbeddingVector queryEmbeddings, int topK, float minSimilarityScore) {
+    return getNearestScoredRecords(queryEmbeddings, topK, minSimilarityScore).records;
+  }
+
+  @Override
+  ScoredRecords<String> getNearestScoredRecords(
+      EmbeddingVector queryEmbeddings, int topK, float minSimilarityScore) {
+    if (queryEmbeddings.size() != dimensions) {
+      throw new IllegalArgumentException("Vectors lengths must be equal");
+    }
+    if (topK <= 0) {
+      return ScoredRecords.empty();
+    }
+    float[] query = VectorOperations.normalize(queryEmbeddings);
+    lock.readLock().lock();
+    try {
+      ScoreHeap nearest = new ScoreHeap(topK);
+      float[] scores = new float[Math.min(rowsPerChunk, size)];
+      for (int chunk = 0; chunk * rowsPerChunk < size; chunk++) {
+        int firstRow = chunk * rowsPerChunk;
+        int numRows = Math.min(rowsPerChunk, size - firstRow);
+        VectorOperations.dotBatch(query, chunkFloats.get(chunk), 0, numRows, scores);
+        for (int i = 0; i < numRows; i++) {
+          float score = scores[i] * inverseNorms[firstRow + i];
+          if (score >= minSimilarityScore) {
+            nearest.offer(firstRow + i, score, topK);
+          }
+        }
+      }
+      int[] rows = new int[nearest.size()];
+      float[] nearestScores = new float[rows.length];
+      nearest.drainDescending(rows, nearestScores);
+      ImmutableList.Builder<VectorStoreRecord<String>> records = ImmutableList.builder();
+      for (int row : rows) {
+        records.add(readRecord(row));
+      }
+      return new ScoredRecords<>(records.build(), nearestScores);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Returns the number of records in the store. */
+  public int size() {
+    lock.readLock().lock();
+    try {
+      return size;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Flushes the index to disk and closes the store files. */
+  @Override
+  public void close() {
+    lock.writeLock().lock();
+    try {
+      indexChannel.force(false);
+      vectorsChannel.close();
+      payloadsChannel.close();
+      indexChannel.close();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private void loadIndex() throws IOException {
+    long indexSize = indexChannel.size();
+    if (indexSize < INDEX_HEADER_BYTES) {
+      ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+      header.putInt(MAGIC).putInt(VERSION).putInt(dimensions).putInt(0).flip();
+      indexChannel.truncate(0);
+      writeFully(indexChannel, header, 0);
+      return;
+    }
+    ByteBuffer header = ByteBuffer.allocate(INDEX_HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    readFully(indexChannel, header, 0);
+    if (header.getInt() != MAGIC) {
+      throw new IOException("Not a mapped vector store index");
+    }
+    int version = header.getInt();
+    if (version != VERSION) {
+      throw new IOException("Unsupported mapped vector store version " + version);
+    }
+    int storedDimensions = header.getInt();
+    if (storedDimensions != dimensions) {
+      throw new IllegalArgumentException(
+          "Store has " + storedDimensions + " dimensions, expected " + dimensions);
+    }
+    // A partially written trailing entry belongs to an insert that did not complete.
+    int numEntries = (int) ((indexSize - INDEX_HEADER_BYTES) / INDEX_ENTRY_BYTES);
+    ByteBuffer entries =
+        ByteBuffer.allocate(numEntries * INDEX_ENTRY_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    readFully(indexChannel, entries, INDEX_HEADER_BYTES);
+    for (int i = 0; i < numEntries; i++) {
+      long payloadOffset = entries.getLong();
+      int payloadLength = entries.getInt();
+      addIndexEntry(payloadOffset, payloadLength, entries.getFloat());
+      payloadsSize = payloadOffset + payloadLength;
+    }
+  }
+
+  private void addIndexEntry(long payloadOffset, int payloadLength, float inverseNorm) {
+    if (size == inverseNorms.length) {
+      payloadOffsets = Arrays.copyOf(payloadOffsets, size * 2);
+      payloadLengths = Arrays.copyOf(payloadLengths, size * 2);
+      inverseNorms = Arrays.copyOf(inverseNorms, size * 2);
+    }
+    payloadOffsets[size] = payloadOffset;
+    payloadLengths[size] = payloadLength;
+    inverseNorms[size] = inverseNorm;
+    size++;
+  }
+
+  /** Maps the given chunk of the vectors file, growing the file if needed. */
+  private void mapChunk(int chunk) throws IOException {
+    long chunkBytes = (long) rowsPerChunk * dimensions * Float.BYTES;
+    MappedByteBuffer buffer =
+        vectorsChannel.map(FileChannel.MapMode.READ_WRITE, chunk * chunkBytes, chunkBytes);
+    chunks.add(buffer);
+    chunkFloats.add(buffer.order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer());
+  }
+
+  private VectorStoreRecord<String> readRecord(int row) throws IOException {
+    float[] values = new float[dimensions];
+    FloatBuffer floats = chunkFloats.get(row / rowsPerChunk);
+    int offset = (row % rowsPerChunk) * dimensions;
+    for (int i = 0; i < dimensions; i++) {
+      values[i] = floats.get(offset + i);
+    }
+    ByteBuffer payload = ByteBuffer.allocate(payloadLengths[row]);
+    readFully(payloadsChannel, payload, payloadOffsets[row]);
+    String text = readString(payload);
+    int numPairs = payload.getInt();
+    ImmutableMap.Builder<String, Object> metadata = ImmutableMap.builder();
+    for (int i = 0; i < numPairs; i++) {
+      metadata.put(readString(payload), readString(payload));
+    }
+    return VectorStoreRecord.create(text, EmbeddingVector.copyOf(values), metadata.buildOrThrow());
+  }
+
+  private static ByteBuffer encodePayload(String text, Map<String, Object> metadata) {
+    List<byte[]> strings = new ArrayList<>();
+    strings.add(text.getBytes(UTF_8));
+    for (Map.Entry<String, Object> keyValuePair : metadata.entrySet()) {
+      strings.add(keyValuePair.getKey().getBytes(UTF_8));
+      strings.add(keyValuePair.getValue().toString().getBytes(UTF_8));
+    }
+    int length = Integer.BYTES;
+    for (byte[] string : strings) {
+      length += Integer.BYTES + string.length;
+    }
+    ByteBuffer payload = ByteBuffer.allocate(length);
+    putString(payload, strings.get(0));
+    payload.putInt(metadata.size());
+    for (int i = 1; i < strings.size(); i++) {
+      putString(payload, strings.get(i));
+    }
+    payload.flip();
+    return payload;
+  }
+
+  private static void putString(ByteBuffer buffer, byte[] string) {
+    buffer.putInt(string.length).put(string);
+  }
+
+  private static String readString(ByteBuffer buffer) {
+    byte[] string = new byte[buffer.getInt()];
+    buffer.get(string);
+    return new String(string, UTF_8);
+  }
+
+  /** Closes the channels opened by a constructor that is failing with {@code failure}. */
+  private static void closeAfterFailure(Throwable failure, FileChannel... channels) {
+    for (FileChannel channel : channels) {
+      if (channel == null) {
+        continue;
+      }
+      try {
+        channel.close();
+      } catch (IOException e) {
+        failure.addSuppressed(e);
+      }
+    }
+  }
+
+  private static FileChannel open(Path path) throws IOException {
+    return FileChannel.open(
+        path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer buffer, long position)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      position += channel.write(buffer, position);
+    }
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      int read = channel.read(buffer, position + buffer.position());
+      if (read < 0) {
+        throw new IOException("Unexpected end of file");
+      }
+    }
+    buffer.flip();
+  }
+}
@@ -0,0 +1,116 @@
+/**
+ * Copyright 2025 The Google AI Edge Authors.
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ai.edge.localagents.rag.memory;
+
+import static com.google.ai.edge.localagents.rag.shared.VectorOperations.dot;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * An exact-scan vector store for Matryoshka embeddings, such as EmbeddingGemma's, whose leading
+ * dimensions form a usable embedding on their own.
+ *
+ * <p>The store keeps a compact index of the normalized first {@code prefixDimensions} dimensions
+ * of every embedding. Queries scan it to select the best {@code rerankMultiplier * topK}
+ * candidates by the cosine similarity of the prefixes, then re-score only those with the exact
+ * cosine similarity against the full vectors, which can be kept in a file instead of on the heap.
+ * With a 128-dimension prefix of 768-dimension embeddings, the scan reads a sixth of the memory of
+ * {@link DefaultVectorStore}. Returned records carry their full embeddings.
+ */
+public final class MatryoshkaVectorStore<T> extends RerankingVectorStore<T> {
+  public static final int DEFAULT_RERANK_MULTIPLIER = 4;
+
+  private final int prefixDimensions;
+  private float[] prefixes;
+
+  /**
+   * Creates a store that keeps full vectors on the heap.
+   *
+   * @param dimensions The number of dimensions of the embeddings.
+   * @param prefixDimensions The number of leading dimensions scanned to select candidates.
+   */
+  public MatryoshkaVectorStore(int dimensions, int prefixDimensions) {
+    this(dimensions, prefixDimensions, DEFAULT_RERANK_MULTIPLIER);
+  }
+
+  /**
+   * Creates a store that keeps full vectors on the heap.
+   *
+   * @param dimensions The number of dimensions of the embeddings.
+   * @param prefixDimensions The number of leading dimensions scanned to select candidates.
+   * @param rerankMultiplier How many candidates per requested result are re-scored exactly.
+   */
+  public MatryoshkaVectorStore(int dimensions, int prefixDimensions, int rerankMultiplier) {
+    this(dimensions, prefixDimensions, rerankMultiplier, FloatRowStorage.inMemory(dimensions));
+  }
+
+  /**
+   * Creates a store that keeps full vectors in a file. Only the prefix index, record data and
+   * metadata stay on the heap.
+   *
+   * @param dimensions The number of dimensions of the embeddings.
+   * @param prefixDimensions The number of leading dimensions scanned to select candidates.
+   * @param rerankMultiplier How many candidates per requested result are re-scored exactly.
+   * @param vectorFilePath The file holding the full vectors. It is overwritten.
+   */
+  public MatryoshkaVectorStore(
+      int dimensions, int prefixDimensions, int rerankMultiplier, Path vectorFilePath) {
+    this(
+        dimensions,
+        prefixDimensions,
+        rerankMultiplier,
+        FloatRowStorage.inFile(vectorFilePath, dimensions));
+  }
+
+  private MatryoshkaVectorStore(
+      int dimensions, int prefixDimensions, int rerankMultiplier, FloatRowStorage vectors) {
+    super(dimensions, rerankMultiplier, vectors);
+    if (prefixDimensions < 1 || prefixDimensions > dimensions) {
+      throw new IllegalArgumentException("prefixDimensions must be between 1 and dimensions");
+    }
+    this.prefixDimensions = prefixDimensions;
+    this.prefixes = new float[INITIAL_CAPACITY * prefixDimensions];
+  }
+
+  @Override
+  void growIndex(int capacity) {
+    prefixes = Arrays.copyOf(prefixes, capacity * prefixDimensions);
+  }
+
+  @Override
+  void addToIndex(int id, float[] normalized) {
+    float[] prefix = normalizedPrefix(normalized);
+    System.arraycopy(prefix, 0, prefixes, id * prefixDimensions, prefixDimensions);
+  }
+
+  @Override
+  CoarseScorer prepareQuery(float[] normalizedQuery) {
+    float[] queryPrefix = normalizedPrefix(normalizedQuery);
+    return id -> dot(queryPrefix, 0, prefixes, id * prefixDimensions, prefixDimensions);
+  }
+
+  /** Returns the first {@code prefixDimensions} values of {@code vector}, scaled to unit norm. */
+  private float[] normalizedPrefix(float[] vector) {
+    float[] prefix = Arrays.copyOf(vector, prefixDimensions);
+    float norm = (float) Math.sqrt(dot(prefix, 0, prefix, 0, prefixDimensions));
+    // A zero prefix is kept as is and scores 0 against every query.
+    if (norm > 0) {
+      for (int i = 0; i < prefixDimensions; i++) {
+        prefix[i] /= norm;
+      }
+    }
+    return prefix;
+  }
+}
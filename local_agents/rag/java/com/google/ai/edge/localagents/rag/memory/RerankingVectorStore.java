@@ -0,0 +1,195 @@
+/**
+ * Copyright 2025 The Google AI Edge Authors.
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ai.edge.localagents.rag.memory;
+
+import static com.google.ai.edge.localagents.rag.shared.VectorOperations.dot;
+import static com.google.ai.edge.localagents.rag.shared.VectorOperations.norm;
+import static com.google.ai.edge.localagents.rag.shared.VectorOperations.normalize;
+
+import com.google.ai.edge.localagents.rag.shared.EmbeddingVector;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.math.IntMath;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A vector store that ranks the records by a cheap score over a compact index, then re-scores the
+ * best {@code rerankMultiplier * topK} candidates with the exact cosine similarity against the
+ * full-precision vectors. Returned records carry their full-precision embeddings.
+ *
+ * <p>Subclasses provide the compact index: how a record is added to it and how a query scores it.
+ */
+abstract class RerankingVectorStore<T> extends ScoredVectorStore<T> implements Closeable {
+  /** The number of records the compact index must hold initially. */
+  static final int INITIAL_CAPACITY = 16;
+
+  /** Scores the records of the compact index against one query; higher is closer. */
+  interface CoarseScorer {
+    float score(int id);
+
+    /**
+     * Offers the records worth re-scoring exactly to {@code candidates} with their scores, keeping
+     * at most {@code numCandidates}. The default scores all {@code size} records; an index that
+     * partitions the records only scores the partitions close to the query instead.
+     */
+    default void offerCandidates(int size, ScoreHeap candidates, int numCandidates) {
+      for (int id = 0; id < size; id++) {
+        candidates.offer(id, score(id), numCandidates);
+      }
+    }
+  }
+
+  private final int dimensions;
+  private final int rerankMultiplier;
+  private final FloatRowStorage vectors;
+  private final List<T> data = new ArrayList<>();
+  private final List<ImmutableMap<String, Object>> metadata = new ArrayList<>();
+  private float[] norms = new float[INITIAL_CAPACITY];
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+  RerankingVectorStore(int dimensions, int rerankMultiplier, FloatRowStorage vectors) {
+    if (rerankMultiplier < 1) {
+      throw new IllegalArgumentException("rerankMultiplier must be positive");
+    }
+    this.dimensions = dimensions;
+    this.rerankMultiplier = rerankMultiplier;
+    this.vectors = vectors;
+  }
+
+  /** Grows the compact index to hold {@code capacity} records. Called with the write lock held. */
+  abstract void growIndex(int capacity);
+
+  /**
+   * Adds a record to the compact index. Called with the write lock held.
+   *
+   * @param id The index of the record.
+   * @param normalized The embedding of the record, scaled to unit norm.
+   */
+  abstract void addToIndex(int id, float[] normalized);
+
+  /**
+   * Returns the scorer of a query. It is used with the read lock held, so it may read the compact
+   * index.
+   *
+   * @param normalizedQuery The query, scaled to unit norm.
+   */
+  abstract CoarseScorer prepareQuery(float[] normalizedQuery);
+
+  @Override
+  public void insert(VectorStoreRecord<T> record) {
+    EmbeddingVector embedding = record.getEmbeddingVector();
+    checkDimensions(embedding.size());
+    float[] normalized = normalize(embedding);
+    float norm = norm(embedding);
+    float[] vector = embedding.toArray();
+
+    lock.writeLock().lock();
+    try {
+      int id = vectors.append(vector);
+      data.add(record.getData());
+      metadata.add(record.getMetadata());
+      if (id == norms.length) {
+        norms = Arrays.copyOf(norms, id * 2);
+        growIndex(norms.length);
+      }
+      norms[id] = norm;
+      addToIndex(id, normalized);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  @Override
+  public ImmutableList<VectorStoreRecord<T>> getNearestRecords(
+      List<Float> queryEmbeddings, int topK, float minSimilarityScore) {
+    return getNearestRecords(EmbeddingVector.copyOf(queryEmbeddings), topK, minSimilarityScore);
+  }
+
+  @Override
+  public ImmutableList<VectorStoreRecord<T>> getNearestRecords(
+      EmbeddingVector queryEmbeddings, int topK, float minSimilarityScore) {
+    return getNearestScoredRecords(queryEmbeddings, topK, minSimilarityScore).records;
+  }
+
+  @Override
+  ScoredRecords<T> getNearestScoredRecords(
+      EmbeddingVector queryEmbeddings, int topK, float minSimilarityScore) {
+    checkDimensions(queryEmbeddings.size());
+    if (topK <= 0) {
+      return ScoredRecords.empty();
+    }
+    float[] query = normalize(queryEmbeddings);
+    CoarseScorer scorer = prepareQuery(query);
+    lock.readLock().lock();
+    try {
+      int size = data.size();
+      int numCandidates = Math.min(IntMath.saturatedMultiply(topK, rerankMultiplier), size);
+      ScoreHeap candidates = new ScoreHeap(numCandidates);
+      scorer.offerCandidates(size, candidates, numCandidates);
+
+      int[] candidateIds = candidates.drainDescending();
+      float[][] rows = new float[candidateIds.length][];
+      ScoreHeap results = new ScoreHeap(topK);
+      for (int i = 0; i < candidateIds.length; i++) {
+        int id = candidateIds[i];
+        rows[i] = new float[dimensions];
+        vectors.read(id, rows[i]);
+        float score = dot(query, 0, rows[i], 0, dimensions) / norms[id];
+        if (score >= minSimilarityScore) {
+          results.offer(i, score, topK);
+        }
+      }
+      int[] indices = new int[results.size()];
+      float[] scores = new float[indices.length];
+      results.drainDescending(indices, scores);
+      ImmutableList.Builder<VectorStoreRecord<T>> records = ImmutableList.builder();
+      for (int i : indices) {
+        int id = candidateIds[i];
+        records.add(
+            VectorStoreRecord.create(
+                data.get(id), EmbeddingVector.copyOf(rows[i]), metadata.get(id)));
+      }
+      return new ScoredRecords<>(records.build(), scores);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Returns the number of records in the store. */
+  public int size() {
+    lock.readLock().lock();
+    try {
+      return data.size();
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Releases the full-precision vector file, if any. */
+  @Override
+  public void close() {
+    vectors.close();
+  }
+
+  private void checkDimensions(int dimensions) {
+    if (dimensions != this.dimensions) {
+      throw new IllegalArgumentException("Vectors lengths must be equal");
+    }
+  }
+}
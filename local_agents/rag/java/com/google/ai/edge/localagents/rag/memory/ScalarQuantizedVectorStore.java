@@ -0,0 +1,95 @@
+/**
+ * Copyright 2025 The Google AI Edge Authors.
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ai.edge.localagents.rag.memory;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * An exact-scan vector store that scores embeddings as int8 codes.
+ *
+ * <p>Queries score every record with an integer dot product over the codes, then re-score the best
+ * {@code rerankMultiplier * topK} candidates with the exact cosine similarity against the
+ * full-precision vectors. Returned records carry their full-precision embeddings.
+ *
+ * <p>The memory savings depend on where the full-precision vectors live. When they are kept in a
+ * file, the resident embeddings take a quarter of the memory of {@link DefaultVectorStore}. The
+ * constructors without a file path keep them on the heap next to the codes, which takes more memory
+ * than {@link DefaultVectorStore} and only speeds up the scan.
+ */
+public final class ScalarQuantizedVectorStore<T> extends RerankingVectorStore<T> {
+  public static final int DEFAULT_RERANK_MULTIPLIER = 4;
+
+  private final ScalarQuantizer quantizer;
+  private byte[] codes;
+
+  /**
+   * Creates a store that keeps full-precision vectors on the heap.
+   *
+   * @param quantizer The trained quantizer.
+   */
+  public ScalarQuantizedVectorStore(ScalarQuantizer quantizer) {
+    this(quantizer, DEFAULT_RERANK_MULTIPLIER);
+  }
+
+  /**
+   * Creates a store that keeps full-precision vectors on the heap.
+   *
+   * @param quantizer The trained quantizer.
+   * @param rerankMultiplier How many candidates per requested result are re-scored exactly.
+   */
+  public ScalarQuantizedVectorStore(ScalarQuantizer quantizer, int rerankMultiplier) {
+    this(quantizer, rerankMultiplier, FloatRowStorage.inMemory(quantizer.getDimensions()));
+  }
+
+  /**
+   * Creates a store that keeps full-precision vectors in a file. Only the int8 codes, record data
+   * and metadata stay on the heap.
+   *
+   * @param quantizer The trained quantizer.
+   * @param rerankMultiplier How many candidates per requested result are re-scored exactly.
+   * @param vectorFilePath The file holding the full-precision vectors. It is overwritten.
+   */
+  public ScalarQuantizedVectorStore(
+      ScalarQuantizer quantizer, int rerankMultiplier, Path vectorFilePath) {
+    this(
+        quantizer,
+        rerankMultiplier,
+        FloatRowStorage.inFile(vectorFilePath, quantizer.getDimensions()));
+  }
+
+  private ScalarQuantizedVectorStore(
+      ScalarQuantizer quantizer, int rerankMultiplier, FloatRowStorage vectors) {
+    super(quantizer.getDimensions(), rerankMultiplier, vectors);
+    this.quantizer = quantizer;
+    this.codes = new byte[INITIAL_CAPACITY * quantizer.getDimensions()];
+  }
+
+  @Override
+  void growIndex(int capacity) {
+    codes = Arrays.copyOf(codes, capacity * quantizer.getDimensions());
+  }
+
+  @Override
+  void addToIndex(int id, float[] normalized) {
+    quantizer.encode(normalized, codes, id * normalized.length);
+  }
+
+  @Override
+  CoarseScorer prepareQuery(float[] normalizedQuery) {
+    ScalarQuantizer.Query quantizedQuery = quantizer.prepareQuery(normalizedQuery);
+    int dimensions = normalizedQuery.length;
+    return id -> quantizedQuery.score(codes, id * dimensions);
+  }
+}
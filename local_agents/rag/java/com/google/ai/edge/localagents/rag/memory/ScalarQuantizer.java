@@ -0,0 +1,187 @@
+/**
+ * Copyright 2025 The Google AI Edge Authors.
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ai.edge.localagents.rag.memory;
+
+import static com.google.ai.edge.localagents.rag.shared.VectorOperations.normalize;
+
+import com.google.ai.edge.localagents.rag.shared.EmbeddingVector;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Per-dimension int8 scalar quantization of normalized vectors, as used by {@link
+ * ScalarQuantizedVectorStore}.
+ *
+ * <p>Each dimension is mapped linearly from the value range observed in a training sample onto the
+ * codes {@code [-127, 127]}; values outside the range are clamped. Training only needs a single
+ * pass over the sample, and the result can be persisted with {@link #writeTo} so that every device
+ * encodes with the same ranges.
+ */
+public final class ScalarQuantizer {
+  private static final int MAGIC = 0x53513820; // "SQ8 "
+  private static final int VERSION = 1;
+  private static final int MAX_CODE = 127;
+
+  private final float[] centers;
+  private final float[] scales;
+
+  private ScalarQuantizer(float[] centers, float[] scales) {
+    this.centers = centers;
+    this.scales = scales;
+  }
+
+  /**
+   * Trains a quantizer from the per-dimension value ranges of a sample.
+   *
+   * @param sample The training vectors. They are normalized before their ranges are measured.
+   */
+  public static ScalarQuantizer train(List<EmbeddingVector> sample) {
+    if (sample.isEmpty()) {
+      throw new IllegalArgumentException("Training sample cannot be empty");
+    }
+    int dimensions = sample.get(0).size();
+    float[] min = new float[dimensions];
+    float[] max = new float[dimensions];
+    Arrays.fill(min, Float.POSITIVE_INFINITY);
+    Arrays.fill(max, Float.NEGATIVE_INFINITY);
+    for (EmbeddingVector embeddings : sample) {
+      if (embeddings.size() != dimensions) {
+        throw new IllegalArgumentException("Vectors lengths must be equal");
+      }
+      float[] vector = normalize(embeddings);
+      for (int i = 0; i < dimensions; i++) {
+        min[i] = Math.min(min[i], vector[i]);
+        max[i] = Math.max(max[i], vector[i]);
+      }
+    }
+    float[] centers = new float[dimensions];
+    float[] scales = new float[dimensions];
+    for (int i = 0; i < dimensions; i++) {
+      centers[i] = (min[i] + max[i]) / 2;
+      // A constant dimension still gets a non-zero step so that encoding never divides by zero.
+      scales[i] = Math.max(max[i] - min[i], Float.MIN_NORMAL) / (2 * MAX_CODE);
+    }
+    return new ScalarQuantizer(centers, scales);
+  }
+
+  /** Writes the quantizer in a versioned binary format readable by {@link #readFrom}. */
+  public void writeTo(OutputStream outputStream) throws IOException {
+    DataOutputStream output = new DataOutputStream(outputStream);
+    output.writeInt(MAGIC);
+    output.writeInt(VERSION);
+    output.writeInt(centers.length);
+    for (int i = 0; i < centers.length; i++) {
+      output.writeFloat(centers[i]);
+      output.writeFloat(scales[i]);
+    }
+    output.flush();
+  }
+
+  /** Reads a quantizer written by {@link #writeTo}. */
+  public static ScalarQuantizer readFrom(InputStream inputStream) throws IOException {
+    DataInputStream input = new DataInputStream(inputStream);
+    if (input.readInt() != MAGIC) {
+      throw new IOException("Not a scalar quantizer");
+    }
+    int version = input.readInt();
+    if (version != VERSION) {
+      throw new IOException("Unsupported scalar quantizer version " + version);
+    }
+    int dimensions = input.readInt();
+    if (dimensions <= 0) {
+      throw new IOException("Corrupted scalar quantizer header");
+    }
+    float[] centers = new float[dimensions];
+    float[] scales = new float[dimensions];
+    for (int i = 0; i < dimensions; i++) {
+      centers[i] = input.readFloat();
+      scales[i] = input.readFloat();
+    }
+    return new ScalarQuantizer(centers, scales);
+  }
+
+  /** Returns the number of dimensions of the encoded vectors. */
+  public int getDimensions() {
+    return centers.length;
+  }
+
+  /** Writes the int8 codes of a normalized vector. */
+  void encode(float[] vector, byte[] codes, int offset) {
+    for (int i = 0; i < centers.length; i++) {
+      int code = Math.round((vector[i] - centers[i]) / scales[i]);
+      codes[offset + i] = (byte) Math.max(-MAX_CODE, Math.min(MAX_CODE, code));
+    }
+  }
+
+  /**
+   * Prepares a normalized query for integer scoring. Since a vector is approximately {@code center
+   * + scale * code} per dimension, its dot product with the query is {@code q.center + sum(q *
+   * scale * code)}; the per-dimension weights {@code q * scale} are quantized to int8 as well so
+   * that the sum becomes an integer dot product.
+   */
+  Query prepareQuery(float[] query) {
+    float bias = 0;
+    float maxWeight = 0;
+    float[] weights = new float[centers.length];
+    for (int i = 0; i < centers.length; i++) {
+      bias += query[i] * centers[i];
+      weights[i] = query[i] * scales[i];
+      maxWeight = Math.max(maxWeight, Math.abs(weights[i]));
+    }
+    float step = maxWeight == 0 ? 1 : maxWeight / MAX_CODE;
+    byte[] codes = new byte[centers.length];
+    for (int i = 0; i < centers.length; i++) {
+      codes[i] = (byte) Math.round(weights[i] / step);
+    }
+    return new Query(codes, step, bias);
+  }
+
+  /** A query quantized by {@link #prepareQuery}. */
+  static final class Query {
+    private final byte[] codes;
+    private final float step;
+    private final float bias;
+
+    private Query(byte[] codes, float step, float bias) {
+      this.codes = codes;
+      this.step = step;
+      this.bias = bias;
+    }
+
+    /** Returns the approximate dot product of the query with the encoded vector at an offset. */
+    float score(byte[] vectorCodes, int offset) {
+      int length = codes.length;
+      int sum0 = 0;
+      int sum1 = 0;
+      int sum2 = 0;
+      int sum3 = 0;
+      int i = 0;
+      for (; i + 3 < length; i += 4) {
+        sum0 += codes[i] * vectorCodes[offset + i];
+        sum1 += codes[i + 1] * vectorCodes[offset + i + 1];
+        sum2 += codes[i + 2] * vectorCodes[offset + i + 2];
+        sum3 += codes[i + 3] * vectorCodes[offset + i + 3];
+      }
+      for (; i < length; i++) {
+        sum0 += codes[i] * vectorCodes[offset + i];
+      }
+      return bias + step * (sum0 + sum1 + sum2 + sum3);
+    }
+  }
+}
@@ -0,0 +1,156 @@
+/**
+ * Copyright 2025 The Google AI Edge Authors.
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ai.edge.localagents.rag.memory;
+
+import java.util.Arrays;
+
+/**
+ * A binary min-heap of (id, score) pairs backed by primitive arrays.
+ *
+ * <p>The lowest score is at the top, so a heap bounded to K elements keeps the K highest scores
+ * seen so far. Not thread-safe.
+ */
+final class ScoreHeap {
+  // Callers size heaps by a requested top K, which can be far larger than the number of elements
+  // actually offered, so larger heaps grow on demand instead.
+  private static final int MAX_INITIAL_CAPACITY = 1024;
+
+  private int[] ids;
+  private float[] scores;
+  private int size = 0;
+
+  ScoreHeap(int initialCapacity) {
+    int capacity = Math.max(Math.min(initialCapacity, MAX_INITIAL_CAPACITY), 1);
+    ids = new int[capacity];
+    scores = new float[capacity];
+  }
+
+  int size() {
+    return size;
+  }
+
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  /** Returns the id with the lowest score. */
+  int peekId() {
+    return ids[0];
+  }
+
+  /** Returns the lowest score. */
+  float peekScore() {
+    return scores[0];
+  }
+
+  /** Adds an element, growing the heap if needed. */
+  void push(int id, float score) {
+    if (size == ids.length) {
+      int capacity = (int) Math.min(2L * size, Integer.MAX_VALUE - 8);
+      ids = Arrays.copyOf(ids, capacity);
+      scores = Arrays.copyOf(scores, capacity);
+    }
+    int index = size++;
+    while (index > 0) {
+      int parent = (index - 1) >>> 1;
+      if (scores[parent] <= score) {
+        break;
+      }
+      ids[index] = ids[parent];
+      scores[index] = scores[parent];
+      index = parent;
+    }
+    ids[index] = id;
+    scores[index] = score;
+  }
+
+  /**
+   * Adds an element while keeping at most {@code limit} elements, evicting the lowest score.
+   *
+   * @return Whether the element was kept.
+   */
+  boolean offer(int id, float score, int limit) {
+    if (size < limit) {
+      push(id, score);
+      return true;
+    }
+    if (limit == 0 || score <= scores[0]) {
+      return false;
+    }
+    ids[0] = id;
+    scores[0] = score;
+    siftDown(0);
+    return true;
+  }
+
+  /** Offers every element of {@code other}, keeping at most {@code limit} elements. */
+  void offerAll(ScoreHeap other, int limit) {
+    for (int i = 0; i < other.size; i++) {
+      offer(other.ids[i], other.scores[i], limit);
+    }
+  }
+
+  /** Removes the element with the lowest score. */
+  void pop() {
+    size--;
+    if (size > 0) {
+      ids[0] = ids[size];
+      scores[0] = scores[size];
+      siftDown(0);
+    }
+  }
+
+  /** Returns the ids in descending score order and empties the heap. */
+  int[] drainDescending() {
+    int[] result = new int[size];
+    for (int i = result.length - 1; i >= 0; i--) {
+      result[i] = ids[0];
+      pop();
+    }
+    return result;
+  }
+
+  /**
+   * Empties the heap into {@code ids} and {@code scores} in descending score order. Both must hold
+   * {@link #size} elements.
+   */
+  void drainDescending(int[] ids, float[] scores) {
+    for (int i = size - 1; i >= 0; i--) {
+      ids[i] = this.ids[0];
+      scores[i] = this.scores[0];
+      pop();
+    }
+  }
+
+  private void siftDown(int index) {
+    int id = ids[index];
+    float score = scores[index];
+    int half = size >>> 1;
+    while (index < half) {
+      int child = 2 * index + 1;
+      int right = child + 1;
+      if (right < size && scores[right] < scores[child]) {
+        child = right;
+      }
+      if (score <= scores[child]) {
+        break;
+      }
+      ids[index] = ids[child];
+      scores[index] = scores[child];
+      index = child;
+    }
+    ids[index] = id;
+    scores[index] = score;
+  }
+}
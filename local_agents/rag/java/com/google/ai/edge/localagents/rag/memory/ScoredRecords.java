@@ -0,0 +1,39 @@
+/**
+ * Copyright 2025 The Google AI Edge Authors.
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ai.edge.localagents.rag.memory;
+
+import com.google.common.collect.ImmutableList;
+
+/** The records returned by a query in descending score order, with their similarity scores. */
+final class ScoredRecords<T> {
+  final ImmutableList<VectorStoreRecord<T>> records;
+  // The score of each record, at the same index.
+  final float[] scores;
+
+  ScoredRecords(ImmutableList<VectorStoreRecord<T>> records, float[] scores) {
+    if (records.size() != scores.length) {
+      throw new IllegalArgumentException("Every record must have a score");
+    }
+    this.records = records;
+    this.scores = scores;
+  }
+
+  static <T> ScoredRecords<T> empty() {
+    return new ScoredRecords<>(ImmutableList.of(), new float[0]);
+  }
+
+  int size() {
+    return scores.length;
+  }
+}
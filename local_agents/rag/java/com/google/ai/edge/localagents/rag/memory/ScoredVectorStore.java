@@ -0,0 +1,75 @@
+/**
+ * Copyright 2025 The Google AI Edge Authors.
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ai.edge.localagents.rag.memory;
+
+import com.google.ai.edge.localagents.rag.retrieval.MetadataFilter;
+import com.google.ai.edge.localagents.rag.shared.EmbeddingVector;
+import com.google.common.collect.ImmutableList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A vector store that reports the similarity score of each record it returns, so that the results
+ * of several stores can be merged without scoring the records again.
+ */
+abstract class ScoredVectorStore<T> implements VectorStore<T> {
+  /**
+   * Same as {@link #getNearestRecords(EmbeddingVector, int, float)}, with the score of each record.
+   */
+  abstract ScoredRecords<T> getNearestScoredRecords(
+      EmbeddingVector queryEmbeddings, int topK, float minSimilarityScore);
+
+  /**
+   * Same as {@link #getNearestRecords(EmbeddingVector, int, float, MetadataFilter)}, with the score
+   * of each record. The default implementation filters increasingly many unfiltered nearest
+   * records, like {@link VectorStore}'s.
+   */
+  ScoredRecords<T> getNearestScoredRecords(
+      EmbeddingVector queryEmbeddings, int topK, float minSimilarityScore, MetadataFilter filter) {
+    int numCandidates = topK;
+    while (true) {
+      numCandidates = numCandidates > Integer.MAX_VALUE / 4 ? Integer.MAX_VALUE : numCandidates * 4;
+      ScoredRecords<T> candidates =
+          getNearestScoredRecords(queryEmbeddings, numCandidates, minSimilarityScore);
+      ImmutableList.Builder<VectorStoreRecord<T>> results = ImmutableList.builder();
+      float[] scores = new float[Math.min(topK, candidates.size())];
+      int numResults = 0;
+      for (int i = 0; i < candidates.size() && numResults < topK; i++) {
+        VectorStoreRecord<T> candidate = candidates.records.get(i);
+        if (filter.matches(candidate.getMetadata())) {
+          results.add(candidate);
+          scores[numResults++] = candidates.scores[i];
+        }
+      }
+      if (numResults == topK
+          || candidates.size() < numCandidates
+          || numCandidates == Integer.MAX_VALUE) {
+        return new ScoredRecords<>(results.build(), Arrays.copyOf(scores, numResults));
+      }
+    }
+  }
+
+  /**
+   * Same as {@link #getNearestRecordsBatch}, with the score of each record. The default
+   * implementation runs the queries one after another.
+   */
+  List<ScoredRecords<T>> getNearestScoredRecordsBatch(
+      List<EmbeddingVector> queryEmbeddings, int topK, float minSimilarityScore) {
+    ImmutableList.Builder<ScoredRecords<T>> results = ImmutableList.builder();
+    for (EmbeddingVector query : queryEmbeddings) {
+      results.add(getNearestScoredRecords(query, topK, minSimilarityScore));
+    }
+    return results.build();
+  }
+}
@@ -17,6 +17,7 @@ import com.google.ai.edge.localagents.rag.retrieval.BaseRetriever;
 import com.google.ai.edge.localagents.rag.retrieval.RetrievalRequest;
 import com.google.ai.edge.localagents.rag.retrieval.RetrievalResponse;
 import com.google.ai.edge.localagents.rag.retrieval.SemanticDataEntry;
+import com.google.ai.edge.localagents.rag.shared.EmbeddingVector;
 import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.ListenableFuture;
 import org.jspecify.annotations.NonNull;
@@ -32,6 +33,22 @@ public interface SemanticMemory<T extends @NonNull Object> extends BaseRetriever
   @Override
   public ListenableFuture<RetrievalResponse<T>> retrieveResults(RetrievalRequest<T> query);
 
+  /**
+   * Retrieves results from memory for a query that has already been embedded.
+   *
+   * <p>The default implementation ignores {@code queryEmbeddings} and delegates to {@link
+   * #retrieveResults(RetrievalRequest)}, which embeds the query again. Implementations should
+   * override it to use the given embeddings.
+   *
+   * @param query The query to retrieve results for.
+   * @param queryEmbeddings The embeddings of the query.
+   * @return A future that resolves to the retrieval response.
+   */
+  public default ListenableFuture<RetrievalResponse<T>> retrieveResults(
+      RetrievalRequest<T> query, EmbeddingVector queryEmbeddings) {
+    return retrieveResults(query);
+  }
+
   /**
    * Records a memory.
    *
@@ -50,6 +67,23 @@ public interface SemanticMemory<T extends @NonNull Object> extends BaseRetriever
    */
   public ListenableFuture<Boolean> recordMemoryEntry(SemanticDataEntry<T> entry);
 
+  /**
+   * Records a memory with metadata whose embeddings have already been computed.
+   *
+   * <p>The default implementation ignores {@code embeddings} and delegates to {@link
+   * #recordMemoryEntry(SemanticDataEntry)}, which embeds the entry again. Implementations should
+   * override it to use the given embeddings.
+   *
+   * @param entry The memory entry to record.
+   * @param embeddings The embeddings of the memory entry.
+   * @return A future that resolves to a boolean indicating whether the memory entry is successfully
+   *     stored in the vector store.
+   */
+  public default ListenableFuture<Boolean> recordMemoryEntry(
+      SemanticDataEntry<T> entry, EmbeddingVector embeddings) {
+    return recordMemoryEntry(entry);
+  }
+
   /**
    * Records memories in batch.
    *
@@ -0,0 +1,344 @@
+/**
+ * Copyright 2025 The Google AI Edge Authors.
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ai.edge.localagents.rag.memory;
+
+import com.google.ai.edge.localagents.rag.retrieval.MetadataFilter;
+import com.google.ai.edge.localagents.rag.shared.EmbeddingVector;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.google.common.util.concurrent.Uninterruptibles;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+
+/**
+ * A vector store that partitions its records across several child stores and queries all of them
+ * concurrently.
+ *
+ * <p>Each query is sent to every shard on the executor, and the per-shard top K lists are merged by
+ * the similarity scores the shards computed, so each shard applies its own scoring and minimum
+ * score. Shards must be stores of this package that report their scores, i.e. any store but {@link
+ * SqliteVectorStore}, whose native search does not. Typical uses are several {@link
+ * DefaultVectorStore}s to use every core for a single query, or several {@link MappedVectorStore}s
+ * to split a large persisted store across directories. Mixing store types merges scores of
+ * different precision, e.g. exact and approximate ones.
+ *
+ * <p>The calling thread searches the shards that no executor thread has started yet, beginning with
+ * the last one, so a saturated executor, or a query made from one of its own tasks, slows the query
+ * down instead of deadlocking it. If a shard fails, the shards that were not started yet are
+ * skipped, and the call throws once the running ones have finished.
+ *
+ * <p>Ids returned by {@link #insertAndGetId} encode the shard holding the record, so {@link
+ * #upsert} and {@link #delete} are routed to the same shard; they are supported when the shards
+ * support them. With {@link Partitioning#HASH}, an upsert must not move the record to another
+ * shard, i.e. its new data must hash to the shard of the id.
+ */
+public final class ShardedVectorStore<T> extends ScoredVectorStore<T> {
+  /** How inserted records are assigned to shards. */
+  public enum Partitioning {
+    /** Records are assigned to the shards in turn, balancing their sizes. */
+    ROUND_ROBIN,
+    /**
+     * Records are assigned by the hash code of their data, so that equal data always lands on the
+     * same shard.
+     */
+    HASH,
+  }
+
+  private final ImmutableList<ScoredVectorStore<T>> shards;
+  private final Executor executor;
+  private final Partitioning partitioning;
+  private final AtomicInteger nextShard = new AtomicInteger();
+
+  /**
+   * Creates a store partitioning records across {@code shards} in turn.
+   *
+   * @param shards The child stores, which must not be used directly afterwards.
+   * @param executor The executor searching the shards concurrently.
+   */
+  public ShardedVectorStore(List<? extends VectorStore<T>> shards, Executor executor) {
+    this(shards, executor, Partitioning.ROUND_ROBIN);
+  }
+
+  /**
+   * Creates a store partitioning records across {@code shards}.
+   *
+   * @param shards The child stores, which must not be used directly afterwards.
+   * @param executor The executor searching the shards concurrently.
+   * @param partitioning How inserted records are assigned to shards.
+   * @throws IllegalArgumentException if a shard does not report the scores of its records.
+   */
+  public ShardedVectorStore(
+      List<? extends VectorStore<T>> shards, Executor executor, Partitioning partitioning) {
+    if (shards.isEmpty()) {
+      throw new IllegalArgumentException("At least one shard is required");
+    }
+    ImmutableList.Builder<ScoredVectorStore<T>> scoredShards = ImmutableList.builder();
+    for (VectorStore<T> shard : shards) {
+      if (!(shard instanceof ScoredVectorStore)) {
+        throw new IllegalArgumentException(
+            shard.getClass().getName() + " does not report scores and cannot be a shard");
+      }
+      scoredShards.add((ScoredVectorStore<T>) shard);
+    }
+    this.shards = scoredShards.build();
+    this.executor = executor;
+    this.partitioning = partitioning;
+  }
+
+  @Override
+  public void insert(VectorStoreRecord<T> record) {
+    shards.get(shardOf(record)).insert(record);
+  }
+
+  /** Inserts the records of each shard with a single {@link VectorStore#insertBatch} call. */
+  @Override
+  public void insertBatch(List<VectorStoreRecord<T>> records) {
+    List<List<VectorStoreRecord<T>>> recordsByShard = new ArrayList<>(shards.size());
+    for (int i = 0; i < shards.size(); i++) {
+      recordsByShard.add(new ArrayList<>());
+    }
+    for (VectorStoreRecord<T> record : records) {
+      recordsByShard.get(shardOf(record)).add(record);
+    }
+    scatter(
+        shard -> {
+          List<VectorStoreRecord<T>> shardRecords = recordsByShard.get(shard);
+          if (!shardRecords.isEmpty()) {
+            shards.get(shard).insertBatch(shardRecords);
+          }
+          return null;
+        });
+  }
+
+  @Override
+  public long insertAndGetId(VectorStoreRecord<T> record) {
+    int shard = shardOf(record);
+    return toId(shards.get(shard).insertAndGetId(record), shard);
+  }
+
+  /**
+   * Replaces the record with the given id, on the shard encoded in the id.
+   *
+   * @throws IllegalArgumentException if records are partitioned by {@link Partitioning#HASH} and
+   *     the data of {@code record} hashes to another shard, where inserts of equal data would land.
+   */
+  @Override
+  public void upsert(long id, VectorStoreRecord<T> record) {
+    int shard = shardOfId(id);
+    if (partitioning == Partitioning.HASH && shardOf(record) != shard) {
+      throw new IllegalArgumentException(
+          "The data of the record hashes to another shard than the record with id " + id);
+    }
+    shards.get(shard).upsert(id / shards.size(), record);
+  }
+
+  @Override
+  public void delete(long id) {
+    shards.get(shardOfId(id)).delete(id / shards.size());
+  }
+
+  @Override
+  public ImmutableList<VectorStoreRecord<T>> getNearestRecords(
+      List<Float> queryEmbeddings, int topK, float minSimilarityScore) {
+    return getNearestRecords(EmbeddingVector.copyOf(queryEmbeddings), topK, minSimilarityScore);
+  }
+
+  @Override
+  public ImmutableList<VectorStoreRecord<T>> getNearestRecords(
+      EmbeddingVector queryEmbeddings, int topK, float minSimilarityScore) {
+    return getNearestScoredRecords(queryEmbeddings, topK, minSimilarityScore).records;
+  }
+
+  @Override
+  ScoredRecords<T> getNearestScoredRecords(
+      EmbeddingVector queryEmbeddings, int topK, float minSimilarityScore) {
+    return merge(
+        topK,
+        scatter(
+            shard ->
+                shards
+                    .get(shard)
+                    .getNearestScoredRecords(queryEmbeddings, topK, minSimilarityScore)));
+  }
+
+  @Override
+  public ImmutableList<VectorStoreRecord<T>> getNearestRecords(
+      EmbeddingVector queryEmbeddings, int topK, float minSimilarityScore, MetadataFilter filter) {
+    return getNearestScoredRecords(queryEmbeddings, topK, minSimilarityScore, filter).records;
+  }
+
+  @Override
+  ScoredRecords<T> getNearestScoredRecords(
+      EmbeddingVector queryEmbeddings, int topK, float minSimilarityScore, MetadataFilter filter) {
+    return merge(
+        topK,
+        scatter(
+            shard ->
+                shards
+                    .get(shard)
+                    .getNearestScoredRecords(queryEmbeddings, topK, minSimilarityScore, filter)));
+  }
+
+  @Override
+  public ImmutableList<List<VectorStoreRecord<T>>> getNearestRecordsBatch(
+      List<EmbeddingVector> queryEmbeddings, int topK, float minSimilarityScore) {
+    ImmutableList.Builder<List<VectorStoreRecord<T>>> results = ImmutableList.builder();
+    for (ScoredRecords<T> nearest :
+        getNearestScoredRecordsBatch(queryEmbeddings, topK, minSimilarityScore)) {
+      results.add(nearest.records);
+    }
+    return results.build();
+  }
+
+  @Override
+  ImmutableList<ScoredRecords<T>> getNearestScoredRecordsBatch(
+      List<EmbeddingVector> queryEmbeddings, int topK, float minSimilarityScore) {
+    List<List<ScoredRecords<T>>> shardResults =
+        scatter(
+            shard ->
+                shards
+                    .get(shard)
+                    .getNearestScoredRecordsBatch(queryEmbeddings, topK, minSimilarityScore));
+    ImmutableList.Builder<ScoredRecords<T>> results = ImmutableList.builder();
+    for (int query = 0; query < queryEmbeddings.size(); query++) {
+      List<ScoredRecords<T>> candidates = new ArrayList<>(shards.size());
+      for (List<ScoredRecords<T>> shardResult : shardResults) {
+        candidates.add(shardResult.get(query));
+      }
+      results.add(merge(topK, candidates));
+    }
+    return results.build();
+  }
+
+  private int shardOf(VectorStoreRecord<T> record) {
+    switch (partitioning) {
+      case HASH:
+        return Math.floorMod(record.getData().hashCode(), shards.size());
+      case ROUND_ROBIN:
+        return Math.floorMod(nextShard.getAndIncrement(), shards.size());
+    }
+    throw new AssertionError(partitioning);
+  }
+
+  private int shardOfId(long id) {
+    if (id < 0) {
+      throw new IllegalArgumentException("Invalid id " + id);
+    }
+    return (int) (id % shards.size());
+  }
+
+  private long toId(long shardId, int shard) {
+    return shardId * shards.size() + shard;
+  }
+
+  /** A task run on one shard. */
+  private interface ShardTask<R> {
+    R run(int shard);
+  }
+
+  /**
+   * Runs {@code task} on every shard and returns the results in shard order. Each shard is run by
+   * whichever of the executor and the calling thread claims it first.
+   */
+  private <R> List<R> scatter(ShardTask<R> task) {
+    int numShards = shards.size();
+    List<AtomicBoolean> claimed = new ArrayList<>(numShards);
+    List<SettableFuture<R>> results = new ArrayList<>(numShards);
+    for (int shard = 0; shard < numShards; shard++) {
+      claimed.add(new AtomicBoolean());
+      results.add(SettableFuture.create());
+    }
+    AtomicBoolean failed = new AtomicBoolean();
+    IntConsumer run =
+        shard -> {
+          if (!claimed.get(shard).compareAndSet(false, true)) {
+            return;
+          }
+          if (failed.get()) {
+            results.get(shard).cancel(false);
+            return;
+          }
+          try {
+            results.get(shard).set(task.run(shard));
+          } catch (Throwable t) {
+            failed.set(true);
+            results.get(shard).setException(t);
+          }
+        };
+    for (int shard = 0; shard < numShards - 1; shard++) {
+      int index = shard;
+      try {
+        executor.execute(() -> run.accept(index));
+      } catch (RejectedExecutionException e) {
+        // The calling thread runs the shard below.
+      }
+    }
+    for (int shard = numShards - 1; shard >= 0; shard--) {
+      run.accept(shard);
+    }
+    // Every shard is now done or running on an executor thread, so waiting cannot deadlock.
+    List<R> values = new ArrayList<>(numShards);
+    Throwable failure = null;
+    for (SettableFuture<R> result : results) {
+      try {
+        values.add(Uninterruptibles.getUninterruptibly(result));
+      } catch (CancellationException e) {
+        // Skipped after another shard failed.
+      } catch (ExecutionException e) {
+        if (failure == null) {
+          failure = e.getCause();
+        } else {
+          failure.addSuppressed(e.getCause());
+        }
+      }
+    }
+    if (failure != null) {
+      Throwables.throwIfUnchecked(failure);
+      throw new UncheckedExecutionException(failure);
+    }
+    return values;
+  }
+
+  /** Merges the per-shard results of a query into its overall top K by their scores. */
+  private ScoredRecords<T> merge(int topK, List<ScoredRecords<T>> lists) {
+    if (lists.size() == 1) {
+      return lists.get(0);
+    }
+    List<VectorStoreRecord<T>> candidates = new ArrayList<>();
+    ScoreHeap heap = new ScoreHeap(topK);
+    for (ScoredRecords<T> list : lists) {
+      for (int i = 0; i < list.size(); i++) {
+        heap.offer(candidates.size(), list.scores[i], topK);
+        candidates.add(list.records.get(i));
+      }
+    }
+    int[] indices = new int[heap.size()];
+    float[] scores = new float[indices.length];
+    heap.drainDescending(indices, scores);
+    ImmutableList.Builder<VectorStoreRecord<T>> results = ImmutableList.builder();
+    for (int index : indices) {
+      results.add(candidates.get(index));
+    }
+    return new ScoredRecords<>(results.build(), scores);
+  }
+}
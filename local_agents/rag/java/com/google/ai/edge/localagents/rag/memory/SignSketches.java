@@ -0,0 +1,52 @@
+/**
+ * Copyright 2025 The Google AI Edge Authors.
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ai.edge.localagents.rag.memory;
+
+/**
+ * Sign sketches of embeddings: one bit per dimension, set for positive values, packed into longs.
+ * The Hamming distance between two sketches grows with the angle between their embeddings.
+ */
+final class SignSketches {
+
+  /** Returns the number of longs in the sketch of an embedding with the given dimensions. */
+  static int numWords(int dimensions) {
+    return (dimensions + Long.SIZE - 1) / Long.SIZE;
+  }
+
+  /** Writes the sketch of {@code vector} to {@code destination}, starting at {@code offset}. */
+  static void sketch(float[] vector, long[] destination, int offset) {
+    int numWords = numWords(vector.length);
+    for (int word = 0; word < numWords; word++) {
+      long bits = 0;
+      int end = Math.min(vector.length, (word + 1) * Long.SIZE);
+      for (int i = word * Long.SIZE; i < end; i++) {
+        if (vector[i] > 0) {
+          bits |= 1L << i;
+        }
+      }
+      destination[offset + word] = bits;
+    }
+  }
+
+  /** Returns the number of differing bits of two sketches of {@code numWords} longs. */
+  static int hammingDistance(long[] x, int xOffset, long[] y, int yOffset, int numWords) {
+    int distance = 0;
+    for (int word = 0; word < numWords; word++) {
+      distance += Long.bitCount(x[xOffset + word] ^ y[yOffset + word]);
+    }
+    return distance;
+  }
+
+  private SignSketches() {}
+}
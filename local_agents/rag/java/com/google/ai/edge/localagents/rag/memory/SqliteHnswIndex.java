@@ -0,0 +1,949 @@
+/**
+ * Copyright 2025 The Google AI Edge Authors.
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ai.edge.localagents.rag.memory;
+
+import static com.google.ai.edge.localagents.rag.shared.VectorOperations.norm;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.ai.edge.localagents.rag.shared.EmbeddingVector;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * An HNSW index over the records of a {@link SqliteVectorStore}.
+ *
+ * <p>The index of a persisted database is backed by an append-only log next to it. The log holds
+ * the normalized embedding, the text and metadata of each record, the deleted records, the keys of
+ * the upserted records, and the table version after each write. Only the normalized embeddings are
+ * kept on the heap; the text and metadata are read back for the results of a query only. The graph
+ * is checkpointed every {@link #CHECKPOINT_INTERVAL} records so that it does not have to be built
+ * again when the store is opened.
+ *
+ * <p>When the store is opened, the index is restored from the log if the table version matches the
+ * last one logged, i.e. if the table was only written through the index since. Otherwise, and
+ * whenever the index may have diverged from the table, it is synchronized with a scan of the table:
+ * records whose content is gone are deleted, and records that are not in the graph yet are
+ * inserted. The log and the graph are compacted once a quarter of the records are deleted.
+ *
+ * <p>Records whose embedding has a zero or non-finite norm have no cosine similarity with any query
+ * and are not indexed.
+ *
+ * <p>The index of an ephemeral database is kept on the heap only.
+ */
+final class SqliteHnswIndex {
+  /** The version of a table whose version is not tracked. */
+  static final long NO_VERSION = -1;
+
+  private static final int CHECKPOINT_INTERVAL = 4096;
+  private static final int LOG_MAGIC = 0x5351484c; // "SQHL"
+  private static final int LOG_VERSION = 1;
+  private static final int LOG_HEADER_BYTES = Integer.BYTES * 2 + Long.BYTES + Integer.BYTES;
+  private static final int CHECKPOINT_MAGIC = 0x53514849; // "SQHI"
+  private static final int CHECKPOINT_VERSION = 2;
+  // Buffered log entries are written out once they reach this size.
+  private static final int LOG_FLUSH_BYTES = 1 << 20;
+  private static final int NO_NODE = -1;
+
+  // Types of the log entries.
+  private static final int NODE_ENTRY = 1;
+  private static final int DELETED_NODE_ENTRY = 2;
+  private static final int KEY_ENTRY = 3;
+  private static final int CLEARED_KEYS_ENTRY = 4;
+  private static final int COMMIT_ENTRY = 5;
+
+  private final HnswConfig config;
+  private final int dimensions;
+  private final @Nullable Path logPath;
+  private final @Nullable Path checkpointPath;
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+  private volatile boolean stale;
+  // All fields below are guarded by lock. The graph is null until the index is first loaded or
+  // synchronized with the table, and after a write to the log failed.
+  private @Nullable HnswVectorStore<Integer> graph;
+  private long[] hashes = new long[0];
+  private float[] norms = new float[0];
+  private long[] payloadOffsets = new long[0];
+  private final List<byte @Nullable []> heapPayloads = new ArrayList<>();
+  private final BitSet deleted = new BitSet();
+  private int numDeleted = 0;
+  private final Map<Long, Integer> nodesById = new HashMap<>();
+  private long tableVersion = NO_VERSION;
+  private long generation = 0;
+  private long logEnd = 0;
+  private int numCheckpointed = 0;
+
+  /**
+   * Creates an index for the given database.
+   *
+   * @param config The graph configuration.
+   * @param dimensions The number of embedding dimensions.
+   * @param databasePath The path to the database file, or the empty string for an ephemeral one.
+   */
+  SqliteHnswIndex(HnswConfig config, int dimensions, String databasePath) {
+    this.config = config;
+    this.dimensions = dimensions;
+    this.logPath = databasePath.isEmpty() ? null : Paths.get(databasePath + "-hnsw-log");
+    this.checkpointPath = databasePath.isEmpty() ? null : Paths.get(databasePath + "-hnsw-graph");
+    if (logPath == null) {
+      // An ephemeral table starts empty.
+      graph = new HnswVectorStore<>(config);
+      stale = false;
+    } else {
+      stale = true;
+    }
+  }
+
+  /** Returns whether the index must be loaded or synchronized with the table before it is used. */
+  boolean isStale() {
+    return stale;
+  }
+
+  /** Returns whether the index holds a graph, which may be stale. */
+  boolean isLoaded() {
+    lock.readLock().lock();
+    try {
+      return graph != null;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Returns the table version after the last write applied to the index. */
+  long getTableVersion() {
+    lock.readLock().lock();
+    try {
+      return tableVersion;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /** Returns whether the index knows the record of the given key. */
+  boolean hasKey(long id) {
+    lock.readLock().lock();
+    try {
+      return nodesById.containsKey(id);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Marks the index as diverged from the table in an unknown way, e.g. after an arbitrary SQL
+   * statement, and forgets the keys of the upserted records.
+   */
+  void invalidate() {
+    lock.writeLock().lock();
+    try {
+      stale = true;
+      if (graph == null) {
+        return;
+      }
+      nodesById.clear();
+      try (LogAppender log = new LogAppender()) {
+        log.writeClearedKeys();
+      }
+    } catch (IOException e) {
+      discardAfterFailure();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Restores the index from its log without reading the table.
+   *
+   * @param tableVersion The current version of the table.
+   * @return Whether the log was restored, i.e. it is intact and ends at {@code tableVersion}.
+   */
+  boolean load(long tableVersion) {
+    lock.writeLock().lock();
+    try {
+      if (logPath == null || tableVersion == NO_VERSION || !replayLog(tableVersion)) {
+        reset();
+        return false;
+      }
+      stale = false;
+      maintain();
+      return true;
+    } catch (IOException | IllegalArgumentException e) {
+      // A log that does not match the configuration is rebuilt from the table.
+      reset();
+      return false;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Synchronizes the index with the given records, which must be the whole table.
+   *
+   * @param table The records of the table.
+   * @param tableVersion The version of the table when it was read, or {@link #NO_VERSION}.
+   */
+  void refresh(List<VectorStoreRecord<String>> table, long tableVersion) {
+    lock.writeLock().lock();
+    try {
+      if (graph == null) {
+        rebuild(table, tableVersion);
+        return;
+      }
+      Map<Long, ArrayDeque<VectorStoreRecord<String>>> unmatched = new LinkedHashMap<>();
+      for (VectorStoreRecord<String> record : table) {
+        unmatched.computeIfAbsent(hash(record), unused -> new ArrayDeque<>()).add(record);
+      }
+      try (LogAppender log = new LogAppender()) {
+        for (int node = 0; node < graph.size(); node++) {
+          if (deleted.get(node)) {
+            continue;
+          }
+          ArrayDeque<VectorStoreRecord<String>> records = unmatched.get(hashes[node]);
+          if (records == null || records.poll() == null) {
+            markDeleted(node, log);
+          }
+        }
+        List<VectorStoreRecord<String>> records = new ArrayList<>();
+        for (ArrayDeque<VectorStoreRecord<String>> remaining : unmatched.values()) {
+          records.addAll(remaining);
+        }
+        insertNodes(records, log);
+        stale = false;
+        commit(log, tableVersion);
+      }
+      maintain();
+    } catch (IOException e) {
+      reset();
+      stale = true;
+      throw new UncheckedIOException(e);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Adds records that were inserted into the table.
+   *
+   * @param records The inserted records.
+   * @param tableVersion The version of the table after the insert, or {@link #NO_VERSION}.
+   */
+  void insert(List<VectorStoreRecord<String>> records, long tableVersion) {
+    lock.writeLock().lock();
+    try {
+      if (graph == null) {
+        return;
+      }
+      try (LogAppender log = new LogAppender()) {
+        insertNodes(records, log);
+        commit(log, tableVersion);
+      }
+      maintain();
+    } catch (IOException e) {
+      discardAfterFailure();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Replaces the record of the given key, which was upserted into the table.
+   *
+   * @param id The key of the record.
+   * @param record The new record.
+   * @param tableVersion The version of the table after the upsert, or {@link #NO_VERSION}.
+   * @param replacedUnknownRecord Whether the upsert may have replaced a record of a key that the
+   *     index does not know, in which case the index must be synchronized with the table.
+   */
+  void upsert(
+      long id, VectorStoreRecord<String> record, long tableVersion, boolean replacedUnknownRecord) {
+    lock.writeLock().lock();
+    try {
+      if (graph == null) {
+        return;
+      }
+      try (LogAppender log = new LogAppender()) {
+        Integer replaced = nodesById.remove(id);
+        if (replaced != null) {
+          markDeleted(replaced, log);
+        } else if (replacedUnknownRecord) {
+          // The replaced record is only known to the table.
+          stale = true;
+        }
+        int node = insertNodes(ImmutableList.of(record), log)[0];
+        if (node != NO_NODE) {
+          nodesById.put(id, node);
+        }
+        log.writeKey(id, node);
+        commit(log, tableVersion);
+      }
+      maintain();
+    } catch (IOException e) {
+      discardAfterFailure();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Removes the record of the given key, which was deleted from the table.
+   *
+   * @param id The key of the record.
+   * @param tableVersion The version of the table after the delete, or {@link #NO_VERSION}.
+   * @param deletedUnknownRecord Whether the delete may have removed a record of a key that the
+   *     index does not know, in which case the index must be synchronized with the table.
+   */
+  void delete(long id, long tableVersion, boolean deletedUnknownRecord) {
+    lock.writeLock().lock();
+    try {
+      if (graph == null) {
+        return;
+      }
+      try (LogAppender log = new LogAppender()) {
+        Integer node = nodesById.remove(id);
+        if (node != null) {
+          markDeleted(node, log);
+          log.writeKey(id, NO_NODE);
+        } else if (deletedUnknownRecord) {
+          stale = true;
+        }
+        commit(log, tableVersion);
+      }
+      maintain();
+    } catch (IOException e) {
+      discardAfterFailure();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Returns the approximate nearest records to the query, or null if the index must be
+   * synchronized with the table first.
+   */
+  @Nullable ImmutableList<VectorStoreRecord<String>> getNearestRecords(
+      EmbeddingVector queryEmbeddings, int topK, float minSimilarityScore) {
+    // Queries only share the lock, and the graph has its own, so they do not wait for each other.
+    lock.readLock().lock();
+    try {
+      if (stale || graph == null) {
+        return null;
+      }
+      List<VectorStoreRecord<Integer>> results = new ArrayList<>();
+      int numCandidates = topK;
+      while (true) {
+        List<VectorStoreRecord<Integer>> candidates =
+            graph.getNearestRecords(queryEmbeddings, numCandidates, minSimilarityScore);
+        results.clear();
+        for (VectorStoreRecord<Integer> candidate : candidates) {
+          if (results.size() < topK && !deleted.get(candidate.getData())) {
+            results.add(candidate);
+          }
+        }
+        if (results.size() == topK
+            || candidates.size() < numCandidates
+            || numCandidates == Integer.MAX_VALUE) {
+          break;
+        }
+        numCandidates =
+            numCandidates > Integer.MAX_VALUE / 4 ? Integer.MAX_VALUE : numCandidates * 4;
+      }
+      return readRecords(results);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Replays the log, and restores the graph from the checkpoint or from the logged embeddings.
+   * Returns false, leaving the index partially restored, if the log is damaged or does not end at
+   * {@code expectedTableVersion}.
+   */
+  private boolean replayLog(long expectedTableVersion) throws IOException {
+    if (!Files.exists(logPath)) {
+      return false;
+    }
+    List<float[]> vectors = new ArrayList<>();
+    long committedEnd = -1;
+    try (DataInputStream input =
+        new DataInputStream(new BufferedInputStream(Files.newInputStream(logPath)))) {
+      if (input.readInt() != LOG_MAGIC || input.readInt() != LOG_VERSION) {
+        return false;
+      }
+      generation = input.readLong();
+      if (input.readInt() != dimensions) {
+        return false;
+      }
+      long position = LOG_HEADER_BYTES;
+      for (int type = input.read(); type >= 0; type = input.read()) {
+        position++;
+        switch (type) {
+          case NODE_ENTRY:
+            {
+              int node = vectors.size();
+              ensureCapacity(node + 1);
+              hashes[node] = input.readLong();
+              norms[node] = input.readFloat();
+              float[] vector = new float[dimensions];
+              for (int i = 0; i < dimensions; i++) {
+                vector[i] = input.readFloat();
+              }
+              vectors.add(vector);
+              position += Long.BYTES + Float.BYTES * (dimensions + 1);
+              payloadOffsets[node] = position;
+              int length = input.readInt();
+              if (length < 0) {
+                return false;
+              }
+              skipFully(input, length);
+              position += Integer.BYTES + length;
+              break;
+            }
+          case DELETED_NODE_ENTRY:
+            {
+              int node = input.readInt();
+              if (node < 0 || node >= vectors.size() || deleted.get(node)) {
+                return false;
+              }
+              deleted.set(node);
+              numDeleted++;
+              position += Integer.BYTES;
+              break;
+            }
+          case KEY_ENTRY:
+            {
+              long id = input.readLong();
+              int node = input.readInt();
+              if (node == NO_NODE) {
+                nodesById.remove(id);
+              } else if (node >= 0 && node < vectors.size()) {
+                nodesById.put(id, node);
+              } else {
+                return false;
+              }
+              position += Long.BYTES + Integer.BYTES;
+              break;
+            }
+          case CLEARED_KEYS_ENTRY:
+            nodesById.clear();
+            break;
+          case COMMIT_ENTRY:
+            tableVersion = input.readLong();
+            position += Long.BYTES;
+            committedEnd = position;
+            break;
+          default:
+            return false;
+        }
+      }
+      // Entries after the last commit belong to a write the table may not have.
+      if (committedEnd != position || tableVersion != expectedTableVersion) {
+        return false;
+      }
+      logEnd = position;
+    } catch (EOFException e) {
+      // The last entry was cut short.
+      return false;
+    }
+    graph = restoreGraph(vectors);
+    return true;
+  }
+
+  /**
+   * Restores the graph of the given embeddings from the checkpoint, and inserts the embeddings
+   * logged after it. Without a usable checkpoint, the graph is built from scratch.
+   */
+  private HnswVectorStore<Integer> restoreGraph(List<float[]> vectors) {
+    List<VectorStoreRecord<Integer>> records = new ArrayList<>(vectors.size());
+    for (int node = 0; node < vectors.size(); node++) {
+      records.add(VectorStoreRecord.create(node, EmbeddingVector.empty()));
+    }
+    HnswVectorStore<Integer> restored = null;
+    numCheckpointed = 0;
+    try (DataInputStream input =
+        new DataInputStream(new BufferedInputStream(Files.newInputStream(checkpointPath)))) {
+      if (input.readInt() == CHECKPOINT_MAGIC
+          && input.readInt() == CHECKPOINT_VERSION
+          && input.readLong() == generation) {
+        restored = HnswVectorStore.readGraph(input, config, records, vectors);
+        numCheckpointed = restored.size();
+      }
+    } catch (IOException | IllegalArgumentException e) {
+      // A missing or damaged checkpoint only costs building the graph again.
+    }
+    if (restored == null) {
+      restored = new HnswVectorStore<>(config);
+    }
+    for (int node = restored.size(); node < vectors.size(); node++) {
+      restored.insertNormalized(records.get(node), vectors.get(node));
+    }
+    return restored;
+  }
+
+  /** Builds the index and the log from scratch. */
+  private void rebuild(List<VectorStoreRecord<String>> table, long tableVersion)
+      throws IOException {
+    reset();
+    generation = ThreadLocalRandom.current().nextLong() | 1;
+    if (logPath != null) {
+      try (DataOutputStream output =
+          new DataOutputStream(
+              new BufferedOutputStream(
+                  Files.newOutputStream(
+                      logPath,
+                      StandardOpenOption.CREATE,
+                      StandardOpenOption.WRITE,
+                      StandardOpenOption.TRUNCATE_EXISTING)))) {
+        writeLogHeader(output, generation);
+      }
+      logEnd = LOG_HEADER_BYTES;
+    }
+    graph = new HnswVectorStore<>(config);
+    try (LogAppender log = new LogAppender()) {
+      insertNodes(table, log);
+      stale = false;
+      commit(log, tableVersion);
+    }
+    checkpoint();
+  }
+
+  /**
+   * Rewrites the log and the graph without the deleted records. The text and metadata are copied
+   * from the old log, so the table is not read.
+   */
+  private void compact() throws IOException {
+    HnswVectorStore<Integer> oldGraph = graph;
+    int[] newNodes = new int[oldGraph.size()];
+    int capacity = Math.max(oldGraph.size() - numDeleted, 1);
+    long[] newHashes = new long[capacity];
+    float[] newNorms = new float[capacity];
+    long[] newPayloadOffsets = new long[capacity];
+    List<byte @Nullable []> newHeapPayloads = new ArrayList<>();
+    Map<Long, Integer> newNodesById = new HashMap<>();
+    HnswVectorStore<Integer> newGraph = new HnswVectorStore<>(config);
+    long newGeneration = ThreadLocalRandom.current().nextLong() | 1;
+    long newLogEnd = 0;
+    Path temporaryPath = logPath == null ? null : temporaryPath(logPath);
+    try (FileChannel oldLog =
+            logPath == null ? null : FileChannel.open(logPath, StandardOpenOption.READ);
+        DataOutputStream output =
+            temporaryPath == null
+                ? null
+                : new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(temporaryPath)))) {
+      if (output != null) {
+        writeLogHeader(output, newGeneration);
+      }
+      int newNode = 0;
+      for (int node = 0; node < oldGraph.size(); node++) {
+        if (deleted.get(node)) {
+          newNodes[node] = NO_NODE;
+          continue;
+        }
+        float[] vector = oldGraph.getNormalizedVector(node);
+        newNodes[node] = newNode;
+        newHashes[newNode] = hashes[node];
+        newNorms[newNode] = norms[node];
+        if (output == null) {
+          newPayloadOffsets[newNode] = newHeapPayloads.size();
+          newHeapPayloads.add(heapPayloads.get((int) payloadOffsets[node]));
+        } else {
+          byte[] payload = readPayload(oldLog, payloadOffsets[node]);
+          newPayloadOffsets[newNode] =
+              writeNodeEntry(output, output.size(), hashes[node], norms[node], vector, payload);
+        }
+        newGraph.insertNormalized(
+            VectorStoreRecord.create(newNode, EmbeddingVector.empty()), vector);
+        newNode++;
+      }
+      for (Map.Entry<Long, Integer> entry : nodesById.entrySet()) {
+        int node = newNodes[entry.getValue()];
+        newNodesById.put(entry.getKey(), node);
+        if (output != null) {
+          output.writeByte(KEY_ENTRY);
+          output.writeLong(entry.getKey());
+          output.writeInt(node);
+        }
+      }
+      if (output != null) {
+        if (!stale && tableVersion != NO_VERSION) {
+          output.writeByte(COMMIT_ENTRY);
+          output.writeLong(tableVersion);
+        }
+        newLogEnd = output.size();
+      }
+    }
+    if (temporaryPath != null) {
+      Files.move(
+          temporaryPath,
+          logPath,
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    }
+    graph = newGraph;
+    hashes = newHashes;
+    norms = newNorms;
+    payloadOffsets = newPayloadOffsets;
+    heapPayloads.clear();
+    heapPayloads.addAll(newHeapPayloads);
+    deleted.clear();
+    numDeleted = 0;
+    nodesById.clear();
+    nodesById.putAll(newNodesById);
+    generation = newGeneration;
+    logEnd = newLogEnd;
+    numCheckpointed = 0;
+    checkpoint();
+  }
+
+  /**
+   * Adds records to the graph and logs them, and returns their nodes. Records that cannot be
+   * indexed get {@link #NO_NODE}.
+   */
+  private int[] insertNodes(List<VectorStoreRecord<String>> records, LogAppender log)
+      throws IOException {
+    int[] nodes = new int[records.size()];
+    for (int i = 0; i < records.size(); i++) {
+      VectorStoreRecord<String> record = records.get(i);
+      EmbeddingVector embedding = record.getEmbeddingVector();
+      float norm = norm(embedding);
+      if (embedding.size() != dimensions) {
+        throw new IllegalArgumentException("Vectors lengths must be equal");
+      }
+      if (norm == 0 || !Float.isFinite(norm)) {
+        nodes[i] = NO_NODE;
+        continue;
+      }
+      float[] vector = embedding.toArray();
+      for (int j = 0; j < vector.length; j++) {
+        vector[j] /= norm;
+      }
+      int node = graph.size();
+      ensureCapacity(node + 1);
+      hashes[node] = hash(record);
+      norms[node] = norm;
+      payloadOffsets[node] = log.writeNode(hashes[node], norm, vector, toPayload(record));
+      graph.insertNormalized(VectorStoreRecord.create(node, EmbeddingVector.empty()), vector);
+      nodes[i] = node;
+    }
+    return nodes;
+  }
+
+  /**
+   * Ends a write: records the table version, and logs it unless the index is stale, in which case
+   * the log must not be trusted on its own anymore.
+   */
+  private void commit(LogAppender log, long tableVersion) throws IOException {
+    this.tableVersion = tableVersion;
+    if (!stale && tableVersion != NO_VERSION) {
+      log.writeCommit(tableVersion);
+    }
+  }
+
+  /** Compacts the index once a quarter of it is deleted, and checkpoints it periodically. */
+  private void maintain() throws IOException {
+    if (numDeleted * 4L > graph.size()) {
+      compact();
+    } else if (graph.size() - numCheckpointed >= CHECKPOINT_INTERVAL) {
+      checkpoint();
+    }
+  }
+
+  /** Looks up the text and metadata of the given nodes, and restores their embeddings. */
+  private ImmutableList<VectorStoreRecord<String>> readRecords(
+      List<VectorStoreRecord<Integer>> nodes) throws IOException {
+    ImmutableList.Builder<VectorStoreRecord<String>> records = ImmutableList.builder();
+    if (nodes.isEmpty()) {
+      return records.build();
+    }
+    try (FileChannel channel =
+        logPath == null ? null : FileChannel.open(logPath, StandardOpenOption.READ)) {
+      for (VectorStoreRecord<Integer> result : nodes) {
+        int node = result.getData();
+        byte[] payload =
+            channel == null
+                ? heapPayloads.get((int) payloadOffsets[node])
+                : readPayload(channel, payloadOffsets[node]);
+        VectorStoreRecord<String> record = SqliteVectorStore.toVectorStoreRecord(payload);
+        float[] embedding = graph.getNormalizedVector(node).clone();
+        for (int i = 0; i < embedding.length; i++) {
+          embedding[i] *= norms[node];
+        }
+        records.add(
+            VectorStoreRecord.create(
+                record.getData(), EmbeddingVector.copyOf(embedding), record.getMetadata()));
+      }
+    }
+    return records.build();
+  }
+
+  /**
+   * Writes the graph next to the checkpoint and then replaces it, so it is never half-written. The
+   * embeddings, and which records are deleted, are restored from the log.
+   */
+  private void checkpoint() throws IOException {
+    if (checkpointPath == null) {
+      return;
+    }
+    Path temporaryPath = temporaryPath(checkpointPath);
+    int numNodes = graph.size();
+    try (DataOutputStream output =
+        new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryPath)))) {
+      output.writeInt(CHECKPOINT_MAGIC);
+      output.writeInt(CHECKPOINT_VERSION);
+      output.writeLong(generation);
+      graph.writeGraph(output);
+    }
+    Files.move(
+        temporaryPath,
+        checkpointPath,
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+    numCheckpointed = numNodes;
+  }
+
+  private void markDeleted(int node, LogAppender log) throws IOException {
+    if (deleted.get(node)) {
+      return;
+    }
+    deleted.set(node);
+    numDeleted++;
+    if (logPath == null) {
+      heapPayloads.set((int) payloadOffsets[node], null);
+    }
+    log.writeDeletedNode(node);
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity > hashes.length) {
+      int newCapacity = Math.max(capacity, hashes.length * 2);
+      hashes = Arrays.copyOf(hashes, newCapacity);
+      norms = Arrays.copyOf(norms, newCapacity);
+      payloadOffsets = Arrays.copyOf(payloadOffsets, newCapacity);
+    }
+  }
+
+  /** Forgets everything the index holds. */
+  private void reset() {
+    graph = null;
+    hashes = new long[0];
+    norms = new float[0];
+    payloadOffsets = new long[0];
+    heapPayloads.clear();
+    deleted.clear();
+    numDeleted = 0;
+    nodesById.clear();
+    tableVersion = NO_VERSION;
+    generation = 0;
+    logEnd = 0;
+    numCheckpointed = 0;
+  }
+
+  /** Drops the index after a failed write; it is synchronized with the table before it is used. */
+  private void discardAfterFailure() {
+    reset();
+    stale = true;
+  }
+
+  private void writeLogHeader(DataOutputStream output, long generation) throws IOException {
+    output.writeInt(LOG_MAGIC);
+    output.writeInt(LOG_VERSION);
+    output.writeLong(generation);
+    output.writeInt(dimensions);
+  }
+
+  /**
+   * Buffers the entries of one write and appends them to the log. Nothing is written for an
+   * ephemeral index.
+   */
+  private final class LogAppender implements Closeable {
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private final DataOutputStream output = new DataOutputStream(buffer);
+    private @Nullable FileChannel channel;
+
+    /** Logs a record and returns where its payload is stored. */
+    long writeNode(long hash, float norm, float[] vector, byte[] payload) throws IOException {
+      if (logPath == null) {
+        heapPayloads.add(payload);
+        return heapPayloads.size() - 1;
+      }
+      long payloadOffset =
+          writeNodeEntry(output, logEnd + output.size(), hash, norm, vector, payload);
+      if (buffer.size() >= LOG_FLUSH_BYTES) {
+        flush();
+      }
+      return payloadOffset;
+    }
+
+    void writeDeletedNode(int node) throws IOException {
+      if (logPath != null) {
+        output.writeByte(DELETED_NODE_ENTRY);
+        output.writeInt(node);
+      }
+    }
+
+    void writeKey(long id, int node) throws IOException {
+      if (logPath != null) {
+        output.writeByte(KEY_ENTRY);
+        output.writeLong(id);
+        output.writeInt(node);
+      }
+    }
+
+    void writeClearedKeys() throws IOException {
+      if (logPath != null) {
+        output.writeByte(CLEARED_KEYS_ENTRY);
+      }
+    }
+
+    void writeCommit(long tableVersion) throws IOException {
+      if (logPath != null) {
+        output.writeByte(COMMIT_ENTRY);
+        output.writeLong(tableVersion);
+      }
+    }
+
+    private void flush() throws IOException {
+      if (buffer.size() == 0) {
+        return;
+      }
+      if (channel == null) {
+        channel = FileChannel.open(logPath, StandardOpenOption.WRITE);
+      }
+      long position = logEnd + output.size() - buffer.size();
+      ByteBuffer bytes = ByteBuffer.wrap(buffer.toByteArray());
+      while (bytes.hasRemaining()) {
+        channel.write(bytes, position + bytes.position());
+      }
+      buffer.reset();
+    }
+
+    /** Writes the remaining entries. The log is only extended once all of them are written. */
+    @Override
+    public void close() throws IOException {
+      if (logPath == null) {
+        return;
+      }
+      try {
+        flush();
+      } finally {
+        if (channel != null) {
+          channel.close();
+        }
+      }
+      logEnd += output.size();
+    }
+  }
+
+  /**
+   * Writes the log entry of a record and returns the offset of its payload.
+   *
+   * @param output The log.
+   * @param position The offset of the entry in the log file.
+   */
+  private static long writeNodeEntry(
+      DataOutputStream output, long position, long hash, float norm, float[] vector, byte[] payload)
+      throws IOException {
+    output.writeByte(NODE_ENTRY);
+    output.writeLong(hash);
+    output.writeFloat(norm);
+    for (float value : vector) {
+      output.writeFloat(value);
+    }
+    output.writeInt(payload.length);
+    output.write(payload);
+    return position + 1 + Long.BYTES + Float.BYTES * (vector.length + 1);
+  }
+
+  private static byte[] readPayload(FileChannel channel, long offset) throws IOException {
+    ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+    readFully(channel, length, offset);
+    int payloadLength = length.getInt(0);
+    if (payloadLength < 0) {
+      throw new IOException("Corrupted HNSW log");
+    }
+    ByteBuffer payload = ByteBuffer.allocate(payloadLength);
+    readFully(channel, payload, offset + Integer.BYTES);
+    return payload.array();
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        throw new EOFException("Truncated HNSW log");
+      }
+    }
+  }
+
+  private static void skipFully(DataInputStream input, int length) throws IOException {
+    for (int skipped = 0; skipped < length; ) {
+      int n = input.skipBytes(length - skipped);
+      if (n <= 0) {
+        if (input.read() < 0) {
+          throw new EOFException("Truncated HNSW log");
+        }
+        n = 1;
+      }
+      skipped += n;
+    }
+  }
+
+  private static Path temporaryPath(Path path) {
+    return path.resolveSibling(path.getFileName() + ".tmp");
+  }
+
+  /** Identifies a record by its text and embeddings, which are what the table returns reliably. */
+  private static long hash(VectorStoreRecord<String> record) {
+    Hasher hasher = Hashing.murmur3_128().newHasher().putString(record.getData(), UTF_8);
+    for (float value : record.getEmbeddingVector().toArray()) {
+      hasher.putFloat(value);
+    }
+    return hasher.hash().asLong();
+  }
+
+  private static byte[] toPayload(VectorStoreRecord<String> record) {
+    return SqliteVectorStore.toMemoryRecordProtoBytes(
+        VectorStoreRecord.create(record.getData(), EmbeddingVector.empty(), record.getMetadata()));
+  }
+}
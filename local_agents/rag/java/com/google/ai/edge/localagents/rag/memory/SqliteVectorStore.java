@@ -13,6 +13,7 @@
  */
 package com.google.ai.edge.localagents.rag.memory;
 
+import static com.google.ai.edge.localagents.rag.memory.SqliteHnswIndex.NO_VERSION;
 import static com.google.common.collect.ImmutableList.toImmutableList;
 import static com.google.common.collect.ImmutableMap.toImmutableMap;
 
@@ -20,13 +21,21 @@ import com.google.ai.edge.localagents.rag.memory.proto.KeyValuePair;
 import com.google.ai.edge.localagents.rag.memory.proto.MemoryRecord;
 import com.google.ai.edge.localagents.rag.memory.proto.Metadata;
 import com.google.ai.edge.localagents.rag.memory.proto.TableConfig.ColumnConfig.KeyType;
+import com.google.ai.edge.localagents.rag.shared.EmbeddingVector;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.primitives.Floats;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.CodedOutputStream;
 import com.google.protobuf.ExtensionRegistryLite;
-import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.WireFormat;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import org.jspecify.annotations.Nullable;
 
 /** A vector store implementation wrapping the SQLite JNI with vector extension. */
 public final class SqliteVectorStore implements VectorStore<String> {
@@ -43,7 +52,36 @@ public final class SqliteVectorStore implements VectorStore<String> {
               ColumnConfig.create(DEFAULT_TEXT_COLUMN_NAME, "TEXT"),
               ColumnConfig.create(DEFAULT_EMBEDDINGS_COLUMN_NAME, "REAL")));
 
+  private static final String ROWID_COLUMN_NAME = "ROWID";
+  // Wire tags of the MemoryRecord fields. Embeddings are normally packed, but parsers must also
+  // accept them one per tag.
+  private static final int TEXT_TAG =
+      MemoryRecord.TEXT_FIELD_NUMBER << 3 | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+  private static final int PACKED_EMBEDDINGS_TAG =
+      MemoryRecord.EMBEDDINGS_FIELD_NUMBER << 3 | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+  private static final int EMBEDDING_TAG =
+      MemoryRecord.EMBEDDINGS_FIELD_NUMBER << 3 | WireFormat.WIRETYPE_FIXED32;
+  private static final int METADATA_TAG =
+      MemoryRecord.METADATA_FIELD_NUMBER << 3 | WireFormat.WIRETYPE_LENGTH_DELIMITED;
+  // The version stamp of a table with an ANN index is kept in a one-row table next to it. Writes
+  // through the store move it to a new version, and triggers overwrite it with CHANGED_STAMP when
+  // the table is written otherwise.
+  private static final String VERSION_TABLE_SUFFIX = "_hnsw_version";
+  private static final String VERSION_COLUMN_NAME = "version";
+  private static final String VERSION_EMBEDDINGS_COLUMN_NAME = "embeddings";
+  private static final String CHANGED_STAMP = "changed";
+  private static final String WRITING_STAMP = "writing";
+  // Stamps telling whether a delete through the store removed a row.
+  private static final String DELETING_STAMP = "deleting";
+  private static final String DELETED_STAMP = "deleted";
+
   private final long jniHandle;
+  private final int numEmbeddingDimensions;
+  private final String tableName;
+  private final String idColumnName;
+  private final @Nullable SqliteHnswIndex annIndex;
+  // Reads the version stamp of the table, or 0 if its version is not tracked.
+  private final long versionJniHandle;
 
   static {
     System.loadLibrary("sqlite_vector_store_jni");
@@ -91,6 +129,69 @@ public final class SqliteVectorStore implements VectorStore<String> {
       String textColumnName,
       String embeddingColumnName,
       com.google.ai.edge.localagents.rag.memory.TableConfig tableConfig) {
+    this(
+        numEmbeddingDimensions,
+        databasePath,
+        textColumnName,
+        embeddingColumnName,
+        tableConfig,
+        /* annIndexConfig= */ null);
+  }
+
+  /**
+   * Creates a new vector store with a default table format, answering queries approximately from
+   * an HNSW index instead of scanning the table.
+   *
+   * @param numEmbeddingDimensions The number of embedding dimensions.
+   * @param databasePath The path to the persisted database file, or {@link
+   *     #DEFAULT_DATABASE_PATH} for an ephemeral one.
+   * @param annIndexConfig The configuration of the HNSW index.
+   * @see #SqliteVectorStore(int, String, String, String, TableConfig, HnswConfig)
+   */
+  public SqliteVectorStore(
+      int numEmbeddingDimensions, String databasePath, HnswConfig annIndexConfig) {
+    this(
+        numEmbeddingDimensions,
+        databasePath,
+        DEFAULT_TEXT_COLUMN_NAME,
+        DEFAULT_EMBEDDINGS_COLUMN_NAME,
+        DEFAULT_TABLE_CONFIG,
+        annIndexConfig);
+  }
+
+  /**
+   * Creates a new vector store with a bespoke table format, optionally answering queries
+   * approximately from an HNSW index instead of scanning the table.
+   *
+   * <p>The index of a persisted database is logged to the file {@code <databasePath>-hnsw-log},
+   * which holds the normalized embeddings, text and metadata of the records, and its graph is
+   * checkpointed to {@code <databasePath>-hnsw-graph}. Only the normalized embeddings are kept on
+   * the heap. Inserts, upserts and deletes keep the index and its log up to date, and stamp the
+   * table with a new version in the same transaction. When the store is opened, the index is
+   * restored from its log if the table still has the last version logged. Otherwise, e.g. on first
+   * use, or after the table was written by another connection, the table is scanned to build the
+   * index. The table is also scanned again after a {@link #sqlQuery} or a {@link #compact}, and
+   * after an upsert or delete replaced a record whose key was not upserted since the index was
+   * built.
+   *
+   * @param numEmbeddingDimensions The number of embedding dimensions.
+   * @param databasePath The path to the persisted database file.
+   * @param textColumnName The name of the text column.
+   * @param embeddingColumnName The name of the embedding column.
+   * @param tableConfig The table configuration.
+   * @param annIndexConfig The configuration of the HNSW index, or null to scan the table.
+   */
+  public SqliteVectorStore(
+      int numEmbeddingDimensions,
+      String databasePath,
+      String textColumnName,
+      String embeddingColumnName,
+      com.google.ai.edge.localagents.rag.memory.TableConfig tableConfig,
+      @Nullable HnswConfig annIndexConfig) {
+    annIndex =
+        annIndexConfig == null
+            ? null
+            : new SqliteHnswIndex(annIndexConfig, numEmbeddingDimensions, databasePath);
     jniHandle =
         nativeCreateSqliteVectorStore(
             numEmbeddingDimensions,
@@ -98,6 +199,16 @@ public final class SqliteVectorStore implements VectorStore<String> {
             textColumnName,
             embeddingColumnName,
             toTableConfigProtoBytes(tableConfig));
+    this.numEmbeddingDimensions = numEmbeddingDimensions;
+    tableName = tableConfig.getName();
+    idColumnName =
+        tableConfig.getColumns().stream()
+            .filter(column -> column.getKeyType() == ColumnConfig.KeyType.PRIMARY_KEY)
+            .map(ColumnConfig::getName)
+            .findFirst()
+            .orElse(ROWID_COLUMN_NAME);
+    versionJniHandle =
+        annIndex == null || databasePath.isEmpty() ? 0 : openVersionTable(databasePath);
   }
 
   /**
@@ -106,8 +217,107 @@ public final class SqliteVectorStore implements VectorStore<String> {
    * @param record The record to insert.
    */
   @Override
-  public void insert(VectorStoreRecord<String> record) {
-    nativeInsert(jniHandle, toMemoryRecordProtoBytes(record));
+  public synchronized void insert(VectorStoreRecord<String> record) {
+    byte[] recordBytes = toMemoryRecordProtoBytes(record);
+    if (annIndex == null) {
+      nativeInsert(jniHandle, recordBytes);
+      return;
+    }
+    loadAnnIndex();
+    long version = runWriteTransaction(() -> nativeInsert(jniHandle, recordBytes));
+    annIndex.insert(ImmutableList.of(record), version);
+  }
+
+  /**
+   * Inserts records into the vector store in a single transaction, so that the database is only
+   * committed once instead of after each record. Either all records are inserted or none is.
+   *
+   * @param records The records to insert.
+   */
+  @Override
+  public void insertBatch(List<VectorStoreRecord<String>> records) {
+    // Encodes outside of the lock so that other writers are not held up by serialization.
+    List<byte[]> recordBytes = new ArrayList<>(records.size());
+    for (VectorStoreRecord<String> record : records) {
+      recordBytes.add(toMemoryRecordProtoBytes(record));
+    }
+    synchronized (this) {
+      if (annIndex != null) {
+        loadAnnIndex();
+      }
+      long version =
+          runWriteTransaction(
+              () -> {
+                for (byte[] bytes : recordBytes) {
+                  nativeInsert(jniHandle, bytes);
+                }
+              });
+      if (annIndex != null) {
+        annIndex.insert(records, version);
+      }
+    }
+  }
+
+  /**
+   * Replaces the record whose primary key is {@code id}, or inserts it under that key.
+   *
+   * <p>The primary key must be an {@code INTEGER PRIMARY KEY} column, i.e. an alias of the SQLite
+   * rowid as in {@link #DEFAULT_TABLE_CONFIG}. The rowid is used if the table has no primary key.
+   *
+   * @param id The primary key of the record.
+   * @param record The new record.
+   */
+  @Override
+  public synchronized void upsert(long id, VectorStoreRecord<String> record) {
+    byte[] recordBytes = toMemoryRecordProtoBytes(record);
+    if (annIndex != null) {
+      loadAnnIndex();
+    }
+    boolean probe = isUnknownKey(id);
+    long version =
+        runWriteTransaction(
+            () -> {
+              deleteRecord(id, probe);
+              nativeInsert(jniHandle, recordBytes);
+              nativeSqlQuery(
+                  jniHandle,
+                  String.format(
+                      Locale.ROOT,
+                      "UPDATE %s SET %s = %d WHERE ROWID = last_insert_rowid()",
+                      tableName,
+                      idColumnName,
+                      id));
+            });
+    if (annIndex != null) {
+      annIndex.upsert(id, record, version, probe && deletedRecord(version));
+    }
+  }
+
+  /**
+   * Deletes the record whose primary key is {@code id}, if any. SQLite reuses the freed pages for
+   * later inserts; call {@link #compact} to shrink the database file.
+   *
+   * @param id The primary key of the record.
+   */
+  @Override
+  public synchronized void delete(long id) {
+    if (annIndex == null) {
+      nativeSqlQuery(jniHandle, deleteStatement(id));
+      return;
+    }
+    loadAnnIndex();
+    boolean probe = isUnknownKey(id);
+    long version = runWriteTransaction(() -> deleteRecord(id, probe));
+    annIndex.delete(id, version, probe && deletedRecord(version));
+  }
+
+  /** Rebuilds the database file, returning the space of deleted records to the file system. */
+  public synchronized void compact() {
+    nativeSqlQuery(jniHandle, "VACUUM");
+    if (annIndex != null) {
+      // VACUUM may renumber the rows of a table without an INTEGER PRIMARY KEY.
+      markTableChanged();
+    }
   }
 
   /**
@@ -121,9 +331,30 @@ public final class SqliteVectorStore implements VectorStore<String> {
   @Override
   public ImmutableList<VectorStoreRecord<String>> getNearestRecords(
       List<Float> queryEmbeddings, int topK, float minSimilarityScore) {
+    return getNearestRecords(EmbeddingVector.copyOf(queryEmbeddings), topK, minSimilarityScore);
+  }
+
+  /**
+   * Returns the nearest records to the given query embedding.
+   *
+   * @param queryEmbeddings The query embeddings.
+   * @param topK The maximum number of records to return.
+   * @param minSimilarityScore The minimum similarity score to return.
+   * @return The nearest records to the query embeddings.
+   */
+  @Override
+  public ImmutableList<VectorStoreRecord<String>> getNearestRecords(
+      EmbeddingVector queryEmbeddings, int topK, float minSimilarityScore) {
+    if (annIndex != null) {
+      ImmutableList<VectorStoreRecord<String>> results;
+      while ((results = annIndex.getNearestRecords(queryEmbeddings, topK, minSimilarityScore))
+          == null) {
+        syncAnnIndex();
+      }
+      return results;
+    }
     return toVectorStoreRecordList(
-        nativeGetNearestRecords(
-            jniHandle, Floats.toArray(queryEmbeddings), topK, minSimilarityScore));
+        nativeGetNearestRecords(jniHandle, queryEmbeddings.toArray(), topK, minSimilarityScore));
   }
 
   /**
@@ -131,8 +362,236 @@ public final class SqliteVectorStore implements VectorStore<String> {
    *
    * @param query The SQL query to execute.
    */
-  public void sqlQuery(String query) {
+  public synchronized void sqlQuery(String query) {
     nativeSqlQuery(jniHandle, query);
+    if (annIndex != null) {
+      markTableChanged();
+    }
+  }
+
+  /** Loads the ANN index before its first write, so that the write can be logged. */
+  private void loadAnnIndex() {
+    if (!annIndex.isLoaded()) {
+      syncAnnIndex();
+    }
+  }
+
+  /**
+   * Loads the ANN index, or synchronizes it with the table. The index is restored from its log if
+   * the version stamp of the table shows that the table was only written through the index since.
+   *
+   * <p>Otherwise the table is scanned. The JNI has no way to read rows directly, so the table is
+   * read as the nearest records to an arbitrary query with no limit and no minimum score. Rows that
+   * score NaN against it have embeddings with a zero or non-finite norm, which the index leaves out
+   * anyway.
+   */
+  private synchronized void syncAnnIndex() {
+    if (!annIndex.isStale()) {
+      return;
+    }
+    if (versionJniHandle != 0 && !annIndex.isLoaded() && annIndex.load(readTableVersion())) {
+      return;
+    }
+    float[] query = new float[numEmbeddingDimensions];
+    query[0] = 1;
+    long version = NO_VERSION;
+    List<byte[]> table;
+    // Takes the write lock before reading, so that the new version covers exactly the rows read.
+    nativeSqlQuery(jniHandle, "BEGIN IMMEDIATE");
+    try {
+      if (versionJniHandle != 0) {
+        version = newTableVersion();
+        nativeSqlQuery(jniHandle, setVersionStamp(Long.toString(version), /* expected= */ null));
+      }
+      table = nativeGetNearestRecords(jniHandle, query, Integer.MAX_VALUE, -Float.MAX_VALUE);
+      nativeSqlQuery(jniHandle, "COMMIT");
+    } catch (RuntimeException e) {
+      nativeSqlQuery(jniHandle, "ROLLBACK");
+      throw e;
+    }
+    annIndex.refresh(toVectorStoreRecordList(table), version);
+  }
+
+  /**
+   * Runs {@code statements} in a transaction, and returns the version the table is stamped with by
+   * it, or {@link SqliteHnswIndex#NO_VERSION} if its version is not tracked.
+   *
+   * <p>The stamp only moves from the version the ANN index has seen to the new one. If the table
+   * was written otherwise since, the triggers mark it as changed and it stays so, so that the
+   * index is synchronized with the table when the store is opened again.
+   */
+  private long runWriteTransaction(Runnable statements) {
+    long version = NO_VERSION;
+    nativeSqlQuery(jniHandle, "BEGIN");
+    try {
+      if (versionJniHandle != 0) {
+        version = newTableVersion();
+        nativeSqlQuery(
+            jniHandle,
+            setVersionStamp(WRITING_STAMP, Long.toString(annIndex.getTableVersion())));
+      }
+      statements.run();
+      if (versionJniHandle != 0) {
+        nativeSqlQuery(jniHandle, setVersionStamp(Long.toString(version), WRITING_STAMP));
+      }
+      nativeSqlQuery(jniHandle, "COMMIT");
+    } catch (RuntimeException e) {
+      nativeSqlQuery(jniHandle, "ROLLBACK");
+      throw e;
+    }
+    return version;
+  }
+
+  /** Returns whether the ANN index must learn from the table if a record of the key is deleted. */
+  private boolean isUnknownKey(long id) {
+    return annIndex != null && !annIndex.hasKey(id);
+  }
+
+  /**
+   * Deletes the record of the given key within {@link #runWriteTransaction}.
+   *
+   * @param probe Whether to record in the version stamp if a row was deleted, for {@link
+   *     #deletedRecord}.
+   */
+  private void deleteRecord(long id, boolean probe) {
+    if (!probe || versionJniHandle == 0) {
+      nativeSqlQuery(jniHandle, deleteStatement(id));
+      return;
+    }
+    nativeSqlQuery(jniHandle, setVersionStamp(DELETING_STAMP, WRITING_STAMP));
+    nativeSqlQuery(jniHandle, deleteStatement(id));
+    // The delete trigger replaced the stamp with DELETED_STAMP if a row was deleted.
+    nativeSqlQuery(jniHandle, setVersionStamp(WRITING_STAMP, DELETING_STAMP));
+  }
+
+  /**
+   * Returns whether a probing {@link #deleteRecord} may have deleted a row, given the version of
+   * its transaction. Without a version stamp, it is assumed that it did.
+   */
+  private boolean deletedRecord(long version) {
+    return versionJniHandle == 0 || readTableVersion() != version;
+  }
+
+  /** Makes the ANN index synchronize with the table, now and when the store is opened again. */
+  private void markTableChanged() {
+    if (versionJniHandle != 0) {
+      nativeSqlQuery(jniHandle, setVersionStamp(CHANGED_STAMP, /* expected= */ null));
+    }
+    annIndex.invalidate();
+  }
+
+  /**
+   * Creates the table holding the version stamp of the table, and the triggers marking the table
+   * as changed whenever it is written outside of {@link #runWriteTransaction}. Returns the handle
+   * reading the stamp, or 0 if they cannot be created, in which case the table is scanned whenever
+   * the store is opened.
+   */
+  private long openVersionTable(String databasePath) {
+    String versionTableName = tableName + VERSION_TABLE_SUFFIX;
+    try {
+      long handle =
+          nativeCreateSqliteVectorStore(
+              1,
+              databasePath,
+              VERSION_COLUMN_NAME,
+              VERSION_EMBEDDINGS_COLUMN_NAME,
+              toTableConfigProtoBytes(
+                  TableConfig.create(
+                      versionTableName,
+                      ImmutableList.of(
+                          ColumnConfig.create(
+                              ROWID_COLUMN_NAME,
+                              "INTEGER",
+                              ColumnConfig.KeyType.PRIMARY_KEY,
+                              true,
+                              false),
+                          ColumnConfig.create(VERSION_COLUMN_NAME, "TEXT"),
+                          ColumnConfig.create(VERSION_EMBEDDINGS_COLUMN_NAME, "REAL")))));
+      if (readVersionStamp(handle) == null) {
+        nativeInsert(
+            handle,
+            toMemoryRecordProtoBytes(
+                VectorStoreRecord.create(CHANGED_STAMP, EmbeddingVector.of(1))));
+      }
+      for (String event : ImmutableList.of("INSERT", "UPDATE", "DELETE")) {
+        nativeSqlQuery(
+            jniHandle,
+            "CREATE TRIGGER IF NOT EXISTS "
+                + tableName
+                + "_hnsw_after_"
+                + event.toLowerCase(Locale.ROOT)
+                + " AFTER "
+                + event
+                + " ON "
+                + tableName
+                + " BEGIN UPDATE "
+                + versionTableName
+                + " SET "
+                + VERSION_COLUMN_NAME
+                + " = CASE "
+                + VERSION_COLUMN_NAME
+                + " WHEN '"
+                + DELETING_STAMP
+                + "' THEN '"
+                + DELETED_STAMP
+                + "' ELSE '"
+                + CHANGED_STAMP
+                + "' END WHERE "
+                + VERSION_COLUMN_NAME
+                + " NOT IN ('"
+                + WRITING_STAMP
+                + "', '"
+                + DELETED_STAMP
+                + "'); END");
+      }
+      return handle;
+    } catch (RuntimeException e) {
+      return 0;
+    }
+  }
+
+  /**
+   * Returns the statement setting the version stamp.
+   *
+   * @param stamp The new stamp.
+   * @param expected The stamp to replace, or null to replace any.
+   */
+  private String setVersionStamp(String stamp, @Nullable String expected) {
+    return "UPDATE "
+        + tableName
+        + VERSION_TABLE_SUFFIX
+        + " SET "
+        + VERSION_COLUMN_NAME
+        + " = '"
+        + stamp
+        + "'"
+        + (expected == null ? "" : " WHERE " + VERSION_COLUMN_NAME + " = '" + expected + "'");
+  }
+
+  /** Returns the version the table is stamped with, or {@link SqliteHnswIndex#NO_VERSION}. */
+  private long readTableVersion() {
+    String stamp = readVersionStamp(versionJniHandle);
+    if (stamp == null) {
+      return NO_VERSION;
+    }
+    try {
+      return Long.parseLong(stamp);
+    } catch (NumberFormatException e) {
+      return NO_VERSION;
+    }
+  }
+
+  private static @Nullable String readVersionStamp(long handle) {
+    List<byte[]> rows = nativeGetNearestRecords(handle, new float[] {1}, 1, -Float.MAX_VALUE);
+    return rows.isEmpty() ? null : toVectorStoreRecord(rows.get(0)).getData();
+  }
+
+  private static long newTableVersion() {
+    return ThreadLocalRandom.current().nextLong(Long.MAX_VALUE);
+  }
+
+  private String deleteStatement(long id) {
+    return String.format(Locale.ROOT, "DELETE FROM %s WHERE %s = %d", tableName, idColumnName, id);
   }
 
   private static byte[] toTableConfigProtoBytes(
@@ -154,13 +613,42 @@ public final class SqliteVectorStore implements VectorStore<String> {
     return builder.build().toByteArray();
   }
 
-  private static byte[] toMemoryRecordProtoBytes(VectorStoreRecord<String> record) {
-    return MemoryRecord.newBuilder()
-        .setText(record.getData())
-        .addAllEmbeddings(record.getEmbeddings())
-        .setMetadata(toMetadataProto(record.getMetadata()))
-        .build()
-        .toByteArray();
+  /**
+   * Serializes a record as a {@code MemoryRecord} proto. The embeddings are written directly as a
+   * packed field, i.e. a length-prefixed run of little-endian floats, which avoids boxing each of
+   * them through the generated builder.
+   */
+  static byte[] toMemoryRecordProtoBytes(VectorStoreRecord<String> record) {
+    float[] embeddings = record.getEmbeddingVector().toArray();
+    Metadata metadata = toMetadataProto(record.getMetadata());
+    int embeddingsSize = embeddings.length * Float.BYTES;
+    int size =
+        CodedOutputStream.computeStringSize(MemoryRecord.TEXT_FIELD_NUMBER, record.getData())
+            + CodedOutputStream.computeMessageSize(MemoryRecord.METADATA_FIELD_NUMBER, metadata);
+    if (embeddingsSize > 0) {
+      size +=
+          CodedOutputStream.computeTagSize(MemoryRecord.EMBEDDINGS_FIELD_NUMBER)
+              + CodedOutputStream.computeUInt32SizeNoTag(embeddingsSize)
+              + embeddingsSize;
+    }
+    byte[] bytes = new byte[size];
+    CodedOutputStream output = CodedOutputStream.newInstance(bytes);
+    try {
+      output.writeString(MemoryRecord.TEXT_FIELD_NUMBER, record.getData());
+      if (embeddingsSize > 0) {
+        output.writeTag(
+            MemoryRecord.EMBEDDINGS_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+        output.writeUInt32NoTag(embeddingsSize);
+        for (float embedding : embeddings) {
+          output.writeFloatNoTag(embedding);
+        }
+      }
+      output.writeMessage(MemoryRecord.METADATA_FIELD_NUMBER, metadata);
+      output.checkNoSpaceLeft();
+    } catch (IOException e) {
+      throw new IllegalStateException("Failed to serialize memory record", e);
+    }
+    return bytes;
   }
 
   private static Metadata toMetadataProto(Map<String, Object> metadata) {
@@ -192,19 +680,59 @@ public final class SqliteVectorStore implements VectorStore<String> {
         .collect(toImmutableList());
   }
 
-  private static VectorStoreRecord<String> toVectorStoreRecord(byte[] memoryRecordBytes) {
+  /**
+   * Parses a {@code MemoryRecord} proto. The embeddings are read straight into a {@code float[]}
+   * instead of going through the generated message, whose list accessor boxes every value.
+   */
+  static VectorStoreRecord<String> toVectorStoreRecord(byte[] memoryRecordBytes) {
+    CodedInputStream input = CodedInputStream.newInstance(memoryRecordBytes);
+    String text = "";
+    float[] embeddings = new float[0];
+    int numEmbeddings = 0;
+    // TODO(mrschmidt): We should add ExtensionRegistryLite.getGeneratedRegistry() for the 1P
+    // ExtensionRegistryLite.getEmptyRegistry() for the 3P build, but we currently use the
+    // same build target for both 1P and 3P.
+    Metadata.Builder metadata = Metadata.newBuilder();
     try {
-      // TODO(mrschmidt): We should add ExtensionRegistryLite.getGeneratedRegistry() for the 1P
-      // ExtensionRegistryLite.getEmptyRegistry() for the 3P build, but we currently use the
-      // same build target for both 1P and 3P.
-      var memoryRecord =
-          MemoryRecord.parseFrom(memoryRecordBytes, ExtensionRegistryLite.getEmptyRegistry());
-      var metadata = toMetadataMap(memoryRecord.getMetadata());
-      return VectorStoreRecord.create(
-          memoryRecord.getText(), ImmutableList.copyOf(memoryRecord.getEmbeddingsList()), metadata);
-    } catch (InvalidProtocolBufferException e) {
+      for (int tag = input.readTag(); tag != 0; tag = input.readTag()) {
+        switch (tag) {
+          case TEXT_TAG:
+            text = input.readString();
+            break;
+          case PACKED_EMBEDDINGS_TAG:
+            int limit = input.pushLimit(input.readRawVarint32());
+            int numPacked = input.getBytesUntilLimit() / Float.BYTES;
+            embeddings = ensureCapacity(embeddings, numEmbeddings + numPacked);
+            for (int i = 0; i < numPacked; i++) {
+              embeddings[numEmbeddings++] = input.readFloat();
+            }
+            input.popLimit(limit);
+            break;
+          case EMBEDDING_TAG:
+            embeddings = ensureCapacity(embeddings, numEmbeddings + 1);
+            embeddings[numEmbeddings++] = input.readFloat();
+            break;
+          case METADATA_TAG:
+            input.readMessage(metadata, ExtensionRegistryLite.getEmptyRegistry());
+            break;
+          default:
+            input.skipField(tag);
+        }
+      }
+    } catch (IOException e) {
       throw new IllegalArgumentException("Failed to parse memory record", e);
     }
+    if (numEmbeddings < embeddings.length) {
+      embeddings = Arrays.copyOf(embeddings, numEmbeddings);
+    }
+    return VectorStoreRecord.create(
+        text, EmbeddingVector.copyOf(embeddings), toMetadataMap(metadata.build()));
+  }
+
+  private static float[] ensureCapacity(float[] array, int minCapacity) {
+    return minCapacity <= array.length
+        ? array
+        : Arrays.copyOf(array, Math.max(minCapacity, array.length * 2));
   }
 
   private static ImmutableMap<String, Object> toMetadataMap(Metadata metadata) {
@@ -13,6 +13,9 @@
  */
 package com.google.ai.edge.localagents.rag.memory;
 
+import com.google.ai.edge.localagents.rag.retrieval.MetadataFilter;
+import com.google.ai.edge.localagents.rag.shared.EmbeddingVector;
+import com.google.common.collect.ImmutableList;
 import java.util.List;
 
 /** An interface for the data store holding {@link VectorStoreRecord}s. */
@@ -24,6 +27,55 @@ public interface VectorStore<T> {
    */
   public void insert(VectorStoreRecord<T> record);
 
+  /**
+   * Inserts several records into the vector store.
+   *
+   * <p>The default implementation inserts the records one after another. Persistent stores should
+   * override it to write them in a single transaction.
+   *
+   * @param records The records to insert.
+   */
+  public default void insertBatch(List<VectorStoreRecord<T>> records) {
+    for (VectorStoreRecord<T> record : records) {
+      insert(record);
+    }
+  }
+
+  /**
+   * Inserts a new record into the vector store and returns the id assigned to it.
+   *
+   * <p>The default implementation throws {@link UnsupportedOperationException}.
+   *
+   * @param record The record to insert.
+   * @return The id of the record, which can be passed to {@link #upsert} and {@link #delete}.
+   */
+  public default long insertAndGetId(VectorStoreRecord<T> record) {
+    throw new UnsupportedOperationException("insertAndGetId is not supported by this store");
+  }
+
+  /**
+   * Replaces the record with the given id, or inserts it under that id if there is none.
+   *
+   * <p>The default implementation throws {@link UnsupportedOperationException}.
+   *
+   * @param id The id of the record.
+   * @param record The new record.
+   */
+  public default void upsert(long id, VectorStoreRecord<T> record) {
+    throw new UnsupportedOperationException("upsert is not supported by this store");
+  }
+
+  /**
+   * Deletes the record with the given id, if any.
+   *
+   * <p>The default implementation throws {@link UnsupportedOperationException}.
+   *
+   * @param id The id of the record.
+   */
+  public default void delete(long id) {
+    throw new UnsupportedOperationException("delete is not supported by this store");
+  }
+
   /**
    * Retrieves the top K elements from the vector store that are most semantically similar to the
    * given query.
@@ -36,4 +88,82 @@ public interface VectorStore<T> {
    */
   public List<VectorStoreRecord<T>> getNearestRecords(
       List<Float> queryEmbeddings, int topK, float minSimilarityScore);
+
+  /**
+   * Retrieves the top K elements from the vector store that are most semantically similar to the
+   * given query.
+   *
+   * <p>The default implementation boxes the query and delegates to {@link
+   * #getNearestRecords(List, int, float)}. Implementations should override it to avoid the copy.
+   *
+   * @param queryEmbeddings The query's embeddings.
+   * @param topK The number of top elements to retrieve.
+   * @param minSimilarityScore The minimum similarity score for the retrieved elements.
+   * @return A list of the top K elements from the vector store that are most semantically similar
+   *     to the given query.
+   */
+  public default List<VectorStoreRecord<T>> getNearestRecords(
+      EmbeddingVector queryEmbeddings, int topK, float minSimilarityScore) {
+    return getNearestRecords(queryEmbeddings.toList(), topK, minSimilarityScore);
+  }
+
+  /**
+   * Retrieves the top K elements from the vector store whose metadata matches {@code filter} and
+   * that are most semantically similar to the given query.
+   *
+   * <p>The default implementation fetches increasingly many unfiltered nearest records until it has
+   * K matching ones or has seen the whole store. Implementations should override it to evaluate the
+   * filter before scoring, so that only the matching records are scanned.
+   *
+   * @param queryEmbeddings The query's embeddings.
+   * @param topK The number of top elements to retrieve.
+   * @param minSimilarityScore The minimum similarity score for the retrieved elements.
+   * @param filter The filter that the metadata of the retrieved elements must match.
+   * @return A list of the top K matching elements from the vector store that are most semantically
+   *     similar to the given query.
+   */
+  public default List<VectorStoreRecord<T>> getNearestRecords(
+      EmbeddingVector queryEmbeddings, int topK, float minSimilarityScore, MetadataFilter filter) {
+    int numCandidates = topK;
+    while (true) {
+      numCandidates = numCandidates > Integer.MAX_VALUE / 4 ? Integer.MAX_VALUE : numCandidates * 4;
+      List<VectorStoreRecord<T>> candidates =
+          getNearestRecords(queryEmbeddings, numCandidates, minSimilarityScore);
+      ImmutableList.Builder<VectorStoreRecord<T>> results = ImmutableList.builder();
+      int numResults = 0;
+      for (VectorStoreRecord<T> candidate : candidates) {
+        if (numResults < topK && filter.matches(candidate.getMetadata())) {
+          results.add(candidate);
+          numResults++;
+        }
+      }
+      if (numResults == topK
+          || candidates.size() < numCandidates
+          || numCandidates == Integer.MAX_VALUE) {
+        return results.build();
+      }
+    }
+  }
+
+  /**
+   * Retrieves the top K elements from the vector store for each of several queries.
+   *
+   * <p>The default implementation runs the queries one after another. Implementations that scan
+   * their records should override it to score each block of records against all queries while the
+   * block is in cache, instead of scanning the whole store once per query.
+   *
+   * @param queryEmbeddings The embeddings of each query.
+   * @param topK The number of top elements to retrieve per query.
+   * @param minSimilarityScore The minimum similarity score for the retrieved elements.
+   * @return For each query, in order, a list of the top K elements from the vector store that are
+   *     most semantically similar to it.
+   */
+  public default List<List<VectorStoreRecord<T>>> getNearestRecordsBatch(
+      List<EmbeddingVector> queryEmbeddings, int topK, float minSimilarityScore) {
+    ImmutableList.Builder<List<VectorStoreRecord<T>>> results = ImmutableList.builder();
+    for (EmbeddingVector query : queryEmbeddings) {
+      results.add(getNearestRecords(query, topK, minSimilarityScore));
+    }
+    return results.build();
+  }
 }
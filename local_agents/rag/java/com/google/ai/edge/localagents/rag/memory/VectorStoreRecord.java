@@ -13,6 +13,7 @@
  */
 package com.google.ai.edge.localagents.rag.memory;
 
+import com.google.ai.edge.localagents.rag.shared.EmbeddingVector;
 import com.google.auto.value.AutoValue;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -24,7 +25,12 @@ public abstract class VectorStoreRecord<T> {
   public abstract T getData();
 
   /** The embeddings associated with this record. */
-  public abstract ImmutableList<Float> getEmbeddings();
+  public abstract EmbeddingVector getEmbeddingVector();
+
+  /** The embeddings associated with this record, boxed. Prefer {@link #getEmbeddingVector()}. */
+  public ImmutableList<Float> getEmbeddings() {
+    return getEmbeddingVector().toList();
+  }
 
   /** Metadata associated with this record, empty if no metadata is provided. */
   public abstract ImmutableMap<String, Object> getMetadata();
@@ -48,6 +54,19 @@ public abstract class VectorStoreRecord<T> {
         .build();
   }
 
+  public static <T> VectorStoreRecord<T> create(T data, EmbeddingVector embeddings) {
+    return VectorStoreRecord.<T>builder().setData(data).setEmbeddingVector(embeddings).build();
+  }
+
+  public static <T> VectorStoreRecord<T> create(
+      T data, EmbeddingVector embeddings, ImmutableMap<String, Object> metadata) {
+    return VectorStoreRecord.<T>builder()
+        .setData(data)
+        .setEmbeddingVector(embeddings)
+        .setMetadata(metadata)
+        .build();
+  }
+
   /** Auto Builder. */
   @AutoValue.Builder
   public abstract static class Builder<T> {
@@ -55,7 +74,11 @@ public abstract class VectorStoreRecord<T> {
 
     public abstract Builder<T> setData(T data);
 
-    public abstract Builder<T> setEmbeddings(ImmutableList<Float> embeddings);
+    public abstract Builder<T> setEmbeddingVector(EmbeddingVector embeddings);
+
+    public Builder<T> setEmbeddings(ImmutableList<Float> embeddings) {
+      return setEmbeddingVector(EmbeddingVector.copyOf(embeddings));
+    }
 
     public abstract Builder<T> setMetadata(ImmutableMap<String, Object> metadata);
 
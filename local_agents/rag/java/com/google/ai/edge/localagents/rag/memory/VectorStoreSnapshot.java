@@ -0,0 +1,380 @@
+/**
+ * Copyright 2025 The Google AI Edge Authors.
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ai.edge.localagents.rag.memory;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.ai.edge.localagents.rag.shared.EmbeddingVector;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The binary snapshot format of {@link DefaultVectorStore}. All values are little-endian:
+ *
+ * <pre>
+ * header:   int magic "DVSS", int version, int dimensions, int numRecords, long nextId
+ * ids:      long[numRecords]
+ * norms:    float[numRecords], the inverse norm of each vector
+ * vectors:  float[numRecords * dimensions], row-major
+ * payloads: for each record, the int length of the encoded data followed by the data, then the
+ *           int number of metadata entries followed by each key, value type and value
+ * </pre>
+ *
+ * <p>Files are read through memory maps with bulk transfers, one window at a time.
+ */
+final class VectorStoreSnapshot<T> {
+  private static final int MAGIC = 0x44565353; // "DVSS"
+  private static final int VERSION = 1;
+  private static final int HEADER_BYTES = 4 * Integer.BYTES + Long.BYTES;
+  private static final int BUFFER_BYTES = 1 << 20;
+  private static final long WINDOW_BYTES = 64L << 20;
+
+  // Types of metadata values. Values of other types are stored as their string representation.
+  private static final byte TYPE_STRING = 0;
+  private static final byte TYPE_INTEGER = 1;
+  private static final byte TYPE_LONG = 2;
+  private static final byte TYPE_FLOAT = 3;
+  private static final byte TYPE_DOUBLE = 4;
+  private static final byte TYPE_BOOLEAN = 5;
+
+  final long nextId;
+  final long[] ids;
+  final float[] inverseNorms;
+  final ImmutableList<VectorStoreRecord<T>> records;
+
+  private VectorStoreSnapshot(
+      long nextId,
+      long[] ids,
+      float[] inverseNorms,
+      ImmutableList<VectorStoreRecord<T>> records) {
+    this.nextId = nextId;
+    this.ids = ids;
+    this.inverseNorms = inverseNorms;
+    this.records = records;
+  }
+
+  /**
+   * Writes a snapshot next to {@code path} and then moves it into place, so that an existing
+   * snapshot is replaced only by a complete one. The partial file is deleted if the write fails.
+   */
+  static <T> void write(
+      Path path,
+      long nextId,
+      long[] ids,
+      float[] inverseNorms,
+      List<VectorStoreRecord<T>> records,
+      DataCodec<T> codec)
+      throws IOException {
+    int dimensions = records.isEmpty() ? 0 : records.get(0).getEmbeddingVector().size();
+    Path temporaryPath = path.resolveSibling(path.getFileName() + ".tmp");
+    try {
+      writeTo(temporaryPath, nextId, ids, inverseNorms, records, codec, dimensions);
+      Files.move(
+          temporaryPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException | RuntimeException e) {
+      try {
+        Files.deleteIfExists(temporaryPath);
+      } catch (IOException deleteFailure) {
+        e.addSuppressed(deleteFailure);
+      }
+      throw e;
+    }
+  }
+
+  private static <T> void writeTo(
+      Path path,
+      long nextId,
+      long[] ids,
+      float[] inverseNorms,
+      List<VectorStoreRecord<T>> records,
+      DataCodec<T> codec,
+      int dimensions)
+      throws IOException {
+    try (Writer writer = new Writer(path)) {
+      writer.ensure(HEADER_BYTES);
+      writer.buffer
+          .putInt(MAGIC)
+          .putInt(VERSION)
+          .putInt(dimensions)
+          .putInt(records.size())
+          .putLong(nextId);
+      for (int i = 0; i < records.size(); i++) {
+        writer.ensure(Long.BYTES);
+        writer.buffer.putLong(ids[i]);
+      }
+      for (int i = 0; i < records.size(); i++) {
+        writer.ensure(Float.BYTES);
+        writer.buffer.putFloat(inverseNorms[i]);
+      }
+      float[] vector = new float[dimensions];
+      for (VectorStoreRecord<T> record : records) {
+        EmbeddingVector embeddings = record.getEmbeddingVector();
+        if (embeddings.size() != dimensions) {
+          throw new IllegalArgumentException("Vectors lengths must be equal");
+        }
+        embeddings.copyTo(vector, 0);
+        writer.ensure(dimensions * Float.BYTES);
+        writer.buffer.asFloatBuffer().put(vector);
+        writer.buffer.position(writer.buffer.position() + dimensions * Float.BYTES);
+      }
+      for (VectorStoreRecord<T> record : records) {
+        writer.putBytes(codec.encode(record.getData()));
+        writer.ensure(Integer.BYTES);
+        writer.buffer.putInt(record.getMetadata().size());
+        for (Map.Entry<String, Object> entry : record.getMetadata().entrySet()) {
+          writer.putBytes(entry.getKey().getBytes(UTF_8));
+          putValue(writer, entry.getValue());
+        }
+      }
+    }
+  }
+
+  /** Reads a snapshot written by {@link #write}. */
+  static <T> VectorStoreSnapshot<T> read(Path path, DataCodec<T> codec) throws IOException {
+    try (Reader reader = new Reader(path)) {
+      ByteBuffer header = reader.window(HEADER_BYTES);
+      reader.skip(HEADER_BYTES);
+      if (header.getInt() != MAGIC) {
+        throw new IOException("Not a vector store snapshot");
+      }
+      int version = header.getInt();
+      if (version != VERSION) {
+        throw new IOException("Unsupported vector store snapshot version " + version);
+      }
+      int dimensions = header.getInt();
+      int numRecords = header.getInt();
+      long nextId = header.getLong();
+      if (dimensions < 0
+          || numRecords < 0
+          || HEADER_BYTES + (long) numRecords * (Long.BYTES + Float.BYTES + dimensions * 4L)
+              > reader.size) {
+        throw new IOException("Corrupted vector store snapshot header");
+      }
+
+      long[] ids = new long[numRecords];
+      reader.window((long) numRecords * Long.BYTES).asLongBuffer().get(ids);
+      reader.skip((long) numRecords * Long.BYTES);
+      float[] inverseNorms = new float[numRecords];
+      reader.window((long) numRecords * Float.BYTES).asFloatBuffer().get(inverseNorms);
+      reader.skip((long) numRecords * Float.BYTES);
+
+      EmbeddingVector[] vectors = new EmbeddingVector[numRecords];
+      int rowBytes = dimensions * Float.BYTES;
+      for (int i = 0; i < numRecords; ) {
+        // Maps as many whole rows as fit in a window and copies each of them in bulk.
+        int numRows =
+            (int) Math.max(1, Math.min(numRecords - i, WINDOW_BYTES / Math.max(rowBytes, 1)));
+        FloatBuffer rows = reader.window((long) numRows * rowBytes).asFloatBuffer();
+        for (int row = 0; row < numRows; row++, i++) {
+          rows.limit((row + 1) * dimensions);
+          vectors[i] = EmbeddingVector.copyOf(rows);
+        }
+        reader.skip((long) numRows * rowBytes);
+      }
+
+      ImmutableList.Builder<VectorStoreRecord<T>> records = ImmutableList.builder();
+      for (int i = 0; i < numRecords; i++) {
+        T data = codec.decode(reader.getBytes());
+        int numMetadata = reader.getInt();
+        if (numMetadata < 0) {
+          throw new IOException("Corrupted vector store snapshot metadata count " + numMetadata);
+        }
+        ImmutableMap.Builder<String, Object> metadata = ImmutableMap.builder();
+        for (int j = 0; j < numMetadata; j++) {
+          metadata.put(new String(reader.getBytes(), UTF_8), getValue(reader));
+        }
+        records.add(VectorStoreRecord.create(data, vectors[i], metadata.buildOrThrow()));
+      }
+      return new VectorStoreSnapshot<>(nextId, ids, inverseNorms, records.build());
+    }
+  }
+
+  private static void putValue(Writer writer, Object value) throws IOException {
+    writer.ensure(1 + Long.BYTES);
+    if (value instanceof Integer) {
+      writer.buffer.put(TYPE_INTEGER).putInt((Integer) value);
+    } else if (value instanceof Long) {
+      writer.buffer.put(TYPE_LONG).putLong((Long) value);
+    } else if (value instanceof Float) {
+      writer.buffer.put(TYPE_FLOAT).putFloat((Float) value);
+    } else if (value instanceof Double) {
+      writer.buffer.put(TYPE_DOUBLE).putDouble((Double) value);
+    } else if (value instanceof Boolean) {
+      writer.buffer.put(TYPE_BOOLEAN).put((byte) ((Boolean) value ? 1 : 0));
+    } else {
+      writer.buffer.put(TYPE_STRING);
+      writer.putBytes(value.toString().getBytes(UTF_8));
+    }
+  }
+
+  private static Object getValue(Reader reader) throws IOException {
+    byte type = reader.window(1).get();
+    reader.skip(1);
+    switch (type) {
+      case TYPE_STRING:
+        return new String(reader.getBytes(), UTF_8);
+      case TYPE_INTEGER:
+        return reader.getInt();
+      case TYPE_LONG:
+        long longValue = reader.window(Long.BYTES).getLong();
+        reader.skip(Long.BYTES);
+        return longValue;
+      case TYPE_FLOAT:
+        float floatValue = reader.window(Float.BYTES).getFloat();
+        reader.skip(Float.BYTES);
+        return floatValue;
+      case TYPE_DOUBLE:
+        double doubleValue = reader.window(Double.BYTES).getDouble();
+        reader.skip(Double.BYTES);
+        return doubleValue;
+      case TYPE_BOOLEAN:
+        byte booleanValue = reader.window(1).get();
+        reader.skip(1);
+        return booleanValue != 0;
+      default:
+        throw new IOException("Unknown metadata value type " + type);
+    }
+  }
+
+  /** Writes through a direct buffer that is flushed to the file whenever it is full. */
+  private static final class Writer implements AutoCloseable {
+    final ByteBuffer buffer =
+        ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    private final FileChannel channel;
+
+    Writer(Path path) throws IOException {
+      channel =
+          FileChannel.open(
+              path,
+              StandardOpenOption.CREATE,
+              StandardOpenOption.TRUNCATE_EXISTING,
+              StandardOpenOption.WRITE);
+    }
+
+    /** Makes room for {@code numBytes} bytes, which must not exceed the buffer size. */
+    void ensure(int numBytes) throws IOException {
+      if (buffer.remaining() < numBytes) {
+        flush();
+      }
+    }
+
+    /** Writes a length-prefixed byte array, bypassing the buffer if it does not fit. */
+    void putBytes(byte[] bytes) throws IOException {
+      ensure(Integer.BYTES);
+      buffer.putInt(bytes.length);
+      if (bytes.length > buffer.capacity()) {
+        flush();
+        ByteBuffer wrapped = ByteBuffer.wrap(bytes);
+        while (wrapped.hasRemaining()) {
+          channel.write(wrapped);
+        }
+        return;
+      }
+      ensure(bytes.length);
+      buffer.put(bytes);
+    }
+
+    private void flush() throws IOException {
+      buffer.flip();
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        flush();
+        channel.force(false);
+      } finally {
+        channel.close();
+      }
+    }
+  }
+
+  /**
+   * Reads a file through a read-only memory map of a window around the current position, mapping a
+   * new window whenever a read extends past the current one.
+   */
+  private static final class Reader implements AutoCloseable {
+    final long size;
+    private final FileChannel channel;
+    private long position = 0;
+    private long windowStart = 0;
+    private ByteBuffer window = ByteBuffer.allocate(0);
+
+    Reader(Path path) throws IOException {
+      channel = FileChannel.open(path, StandardOpenOption.READ);
+      size = channel.size();
+    }
+
+    /** Returns a little-endian view of the next {@code numBytes} bytes, without consuming them. */
+    ByteBuffer window(long numBytes) throws IOException {
+      if (position + numBytes > size) {
+        throw new IOException("Unexpected end of vector store snapshot");
+      }
+      if (position < windowStart || position + numBytes > windowStart + window.capacity()) {
+        windowStart = position;
+        long windowSize = Math.min(Math.max(numBytes, WINDOW_BYTES), size - position);
+        if (windowSize > Integer.MAX_VALUE) {
+          throw new IOException("Snapshot section too large to map");
+        }
+        window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowSize);
+      }
+      int offset = (int) (position - windowStart);
+      ByteBuffer view = window.duplicate();
+      view.position(offset).limit(offset + (int) numBytes);
+      return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    void skip(long numBytes) {
+      position += numBytes;
+    }
+
+    int getInt() throws IOException {
+      int value = window(Integer.BYTES).getInt();
+      skip(Integer.BYTES);
+      return value;
+    }
+
+    /** Reads a length-prefixed byte array. */
+    byte[] getBytes() throws IOException {
+      int length = getInt();
+      if (length < 0 || position + length > size) {
+        throw new IOException("Corrupted vector store snapshot length " + length);
+      }
+      byte[] bytes = new byte[length];
+      window(bytes.length).get(bytes);
+      skip(bytes.length);
+      return bytes;
+    }
+
+    @Override
+    public void close() throws IOException {
+      channel.close();
+    }
+  }
+}
@@ -0,0 +1,244 @@
+/**
+ * Copyright 2025 The Google AI Edge Authors.
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ai.edge.localagents.rag.models;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+
+import com.google.ai.edge.localagents.rag.shared.EmbeddingVector;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An {@link Embedder} that combines concurrent single-item requests into batches for another one.
+ *
+ * <p>Each single-item {@link #getEmbeddingVector} request waits until {@code maxBatchSize} items
+ * are pending or until {@code maxDelay} has passed since the first of them, whichever comes
+ * first, and then all pending items are sent to the delegate's {@link
+ * Embedder#getBatchEmbeddingVectors} at once. Every caller's future completes with its own
+ * embedding. Batch requests are forwarded as they are.
+ *
+ * <p>{@link #close} sends the items still pending and releases the scheduler if this embedder
+ * created it. Single-item requests made afterwards fail, as do those whose flush the scheduler
+ * rejects.
+ */
+public final class BatchingEmbedder<T> implements Embedder<T>, Closeable {
+  private final Embedder<T> delegate;
+  private final int maxBatchSize;
+  private final long maxDelayNanos;
+  private final ScheduledExecutorService scheduler;
+  private final boolean ownsScheduler;
+  // Guarded by this.
+  private List<PendingItem<T>> pending = new ArrayList<>();
+  // Guarded by this.
+  private boolean closed;
+
+  /**
+   * Creates a batching front-end for {@code delegate} that schedules its flushes on its own thread,
+   * which {@link #close} shuts down.
+   *
+   * @param delegate The embedder computing the batches.
+   * @param maxBatchSize The number of pending items that triggers a batch immediately.
+   * @param maxDelay The longest an item waits for others before its batch is sent.
+   */
+  public BatchingEmbedder(Embedder<T> delegate, int maxBatchSize, Duration maxDelay) {
+    this(
+        delegate,
+        maxBatchSize,
+        maxDelay,
+        Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder()
+                .setNameFormat("batching-embedder-pool-%d")
+                .setDaemon(true)
+                .build()),
+        /* ownsScheduler= */ true);
+  }
+
+  /**
+   * Creates a batching front-end for {@code delegate}.
+   *
+   * @param delegate The embedder computing the batches.
+   * @param maxBatchSize The number of pending items that triggers a batch immediately.
+   * @param maxDelay The longest an item waits for others before its batch is sent.
+   * @param scheduler The executor sending batches once their delay has passed. It is not shut
+   *     down by {@link #close}.
+   */
+  public BatchingEmbedder(
+      Embedder<T> delegate,
+      int maxBatchSize,
+      Duration maxDelay,
+      ScheduledExecutorService scheduler) {
+    this(delegate, maxBatchSize, maxDelay, scheduler, /* ownsScheduler= */ false);
+  }
+
+  private BatchingEmbedder(
+      Embedder<T> delegate,
+      int maxBatchSize,
+      Duration maxDelay,
+      ScheduledExecutorService scheduler,
+      boolean ownsScheduler) {
+    if (maxBatchSize < 1) {
+      throw new IllegalArgumentException("maxBatchSize must be positive");
+    }
+    this.delegate = delegate;
+    this.maxBatchSize = maxBatchSize;
+    this.maxDelayNanos = maxDelay.toNanos();
+    this.scheduler = scheduler;
+    this.ownsScheduler = ownsScheduler;
+  }
+
+  @Override
+  public ListenableFuture<ImmutableList<Float>> getEmbeddings(EmbeddingRequest<T> request) {
+    return Futures.transform(
+        getEmbeddingVector(request), EmbeddingVector::toList, directExecutor());
+  }
+
+  @Override
+  public ListenableFuture<ImmutableList<ImmutableList<Float>>> getBatchEmbeddings(
+      EmbeddingRequest<T> request) {
+    return Futures.transform(
+        getBatchEmbeddingVectors(request),
+        embeddings -> embeddings.stream().map(EmbeddingVector::toList).collect(toImmutableList()),
+        directExecutor());
+  }
+
+  @Override
+  public ListenableFuture<EmbeddingVector> getEmbeddingVector(EmbeddingRequest<T> request) {
+    if (request.getEmbedData().size() != 1) {
+      return delegate.getEmbeddingVector(request);
+    }
+    PendingItem<T> item = new PendingItem<>(request.getEmbedData().get(0));
+    List<PendingItem<T>> batch = null;
+    synchronized (this) {
+      if (closed) {
+        return Futures.immediateFailedFuture(
+            new IllegalStateException("BatchingEmbedder is closed"));
+      }
+      pending.add(item);
+      if (pending.size() >= maxBatchSize) {
+        batch = pending;
+        pending = new ArrayList<>();
+      } else if (pending.size() == 1) {
+        List<PendingItem<T>> scheduled = pending;
+        try {
+          scheduler.schedule(() -> flush(scheduled), maxDelayNanos, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+          // Without a flush the item would wait for a full batch, so it is failed instead.
+          pending = new ArrayList<>();
+          return Futures.immediateFailedFuture(e);
+        }
+      }
+    }
+    if (batch != null) {
+      send(batch);
+    }
+    return item.result;
+  }
+
+  @Override
+  public ListenableFuture<ImmutableList<EmbeddingVector>> getBatchEmbeddingVectors(
+      EmbeddingRequest<T> request) {
+    return delegate.getBatchEmbeddingVectors(request);
+  }
+
+  /** Sends the pending items and shuts down the scheduler if this embedder created it. */
+  @Override
+  public void close() {
+    List<PendingItem<T>> batch;
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      batch = pending;
+      pending = new ArrayList<>();
+    }
+    if (!batch.isEmpty()) {
+      send(batch);
+    }
+    if (ownsScheduler) {
+      scheduler.shutdownNow();
+    }
+  }
+
+  /** Sends {@code batch} if it is still pending, that is if it has not filled up meanwhile. */
+  private void flush(List<PendingItem<T>> batch) {
+    synchronized (this) {
+      if (pending != batch) {
+        return;
+      }
+      pending = new ArrayList<>();
+    }
+    send(batch);
+  }
+
+  private void send(List<PendingItem<T>> batch) {
+    EmbeddingRequest.Builder<T> request = EmbeddingRequest.builder();
+    for (PendingItem<T> item : batch) {
+      request.addEmbedData(item.embedData);
+    }
+    ListenableFuture<ImmutableList<EmbeddingVector>> embeddings;
+    try {
+      embeddings = delegate.getBatchEmbeddingVectors(request.build());
+    } catch (RuntimeException e) {
+      embeddings = Futures.immediateFailedFuture(e);
+    }
+    Futures.addCallback(
+        embeddings,
+        new FutureCallback<ImmutableList<EmbeddingVector>>() {
+          @Override
+          public void onSuccess(ImmutableList<EmbeddingVector> result) {
+            if (result.size() != batch.size()) {
+              onFailure(
+                  new IllegalStateException(
+                      "Expected " + batch.size() + " embeddings but got " + result.size()));
+              return;
+            }
+            for (int i = 0; i < batch.size(); i++) {
+              batch.get(i).result.set(result.get(i));
+            }
+          }
+
+          @Override
+          public void onFailure(Throwable t) {
+            for (PendingItem<T> item : batch) {
+              item.result.setException(t);
+            }
+          }
+        },
+        directExecutor());
+  }
+
+  /** A single-item request waiting for its batch. */
+  private static final class PendingItem<T> {
+    final EmbedData<T> embedData;
+    final SettableFuture<EmbeddingVector> result = SettableFuture.create();
+
+    PendingItem(EmbedData<T> embedData) {
+      this.embedData = embedData;
+    }
+  }
+}
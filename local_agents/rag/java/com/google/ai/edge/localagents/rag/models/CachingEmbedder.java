@@ -0,0 +1,371 @@
+/**
+ * Copyright 2025 The Google AI Edge Authors.
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ai.edge.localagents.rag.models;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import android.util.Log;
+import com.google.ai.edge.localagents.rag.shared.EmbeddingVector;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * An {@link Embedder} that remembers the embeddings computed by another one in a bounded
+ * in-memory cache, evicting the least recently used entries.
+ *
+ * <p>Entries are keyed by the model id, task type, query flag, title metadata and data of each
+ * {@link EmbedData}, so the data type must implement {@code equals} and {@code hashCode}. Batch
+ * requests forward only their cache misses to the delegate, as a single batch.
+ *
+ * <p>A {@link DiskEmbeddingCache} can back the in-memory cache so that embeddings survive restarts.
+ * Its entries are keyed by a 128-bit hash of the same fields, taking the data as the string given
+ * by a caller-supplied function, since the data type's own string form need not identify it. It is
+ * read and written on a separate executor, never on the calling thread. A failure
+ * to read it counts as a miss, and a failure to write it is logged, so that a broken disk cache
+ * never fails a request.
+ */
+public final class CachingEmbedder<T> implements Embedder<T> {
+  private static final String TAG = CachingEmbedder.class.getSimpleName();
+  private static final String TITLE_KEY = "title";
+
+  private final Embedder<T> delegate;
+  private final String modelId;
+  private final Cache<Key<T>, EmbeddingVector> cache;
+  private final @Nullable DiskEmbeddingCache diskCache;
+  private final @Nullable Function<? super T, String> diskKey;
+  private final Executor diskExecutor;
+
+  /**
+   * Creates a cache in front of {@code delegate}.
+   *
+   * @param delegate The embedder computing the embeddings that are not cached.
+   * @param modelId Identifies the delegate's model, so that caches of different models never mix.
+   * @param maximumSize The maximum number of embeddings kept.
+   */
+  public CachingEmbedder(Embedder<T> delegate, String modelId, long maximumSize) {
+    this.delegate = delegate;
+    this.modelId = modelId;
+    this.cache = CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats().build();
+    this.diskCache = null;
+    this.diskKey = null;
+    this.diskExecutor = directExecutor();
+  }
+
+  /**
+   * Creates a cache in front of {@code delegate}, backed by a persistent cache.
+   *
+   * @param delegate The embedder computing the embeddings that are not cached.
+   * @param modelId Identifies the delegate's model, so that caches of different models never mix.
+   * @param maximumSize The maximum number of embeddings kept in memory.
+   * @param diskCache The persistent cache looked up on in-memory misses, opened with the
+   *     fingerprint of the delegate's model.
+   * @param diskKey Maps the data of a request to a string that identifies it across processes, such
+   *     as the text itself. Data with equal strings share their disk cache entries.
+   * @param diskExecutor The executor reading and writing {@code diskCache}, such as a
+   *     single-thread executor reserved for I/O.
+   */
+  public CachingEmbedder(
+      Embedder<T> delegate,
+      String modelId,
+      long maximumSize,
+      DiskEmbeddingCache diskCache,
+      Function<? super T, String> diskKey,
+      Executor diskExecutor) {
+    this.delegate = delegate;
+    this.modelId = modelId;
+    this.cache = CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats().build();
+    this.diskCache = diskCache;
+    this.diskKey = diskKey;
+    this.diskExecutor = diskExecutor;
+  }
+
+  /** Returns the hit, miss and eviction counts of the cache. */
+  public CacheStats getStats() {
+    return cache.stats();
+  }
+
+  /** Discards all cached embeddings. */
+  public void invalidateAll() {
+    cache.invalidateAll();
+  }
+
+  @Override
+  public ListenableFuture<ImmutableList<Float>> getEmbeddings(EmbeddingRequest<T> request) {
+    return Futures.transform(
+        getEmbeddingVector(request), EmbeddingVector::toList, directExecutor());
+  }
+
+  @Override
+  public ListenableFuture<ImmutableList<ImmutableList<Float>>> getBatchEmbeddings(
+      EmbeddingRequest<T> request) {
+    return Futures.transform(
+        getBatchEmbeddingVectors(request),
+        embeddings -> embeddings.stream().map(EmbeddingVector::toList).collect(toImmutableList()),
+        directExecutor());
+  }
+
+  @Override
+  public ListenableFuture<EmbeddingVector> getEmbeddingVector(EmbeddingRequest<T> request) {
+    if (request.getEmbedData().size() != 1) {
+      return delegate.getEmbeddingVector(request);
+    }
+    Key<T> key = keyOf(request.getEmbedData().get(0));
+    EmbeddingVector cached = cache.getIfPresent(key);
+    if (cached != null) {
+      return Futures.immediateFuture(cached);
+    }
+    return Futures.transformAsync(
+        lookUpOnDisk(ImmutableList.of(key)),
+        onDisk -> {
+          if (onDisk.get(0) != null) {
+            return Futures.immediateFuture(onDisk.get(0));
+          }
+          return Futures.transform(
+              delegate.getEmbeddingVector(request),
+              embeddings -> {
+                store(key, embeddings);
+                return embeddings;
+              },
+              directExecutor());
+        },
+        directExecutor());
+  }
+
+  @Override
+  public ListenableFuture<ImmutableList<EmbeddingVector>> getBatchEmbeddingVectors(
+      EmbeddingRequest<T> request) {
+    ImmutableList<EmbedData<T>> embedData = request.getEmbedData();
+    if (embedData.isEmpty()) {
+      return delegate.getBatchEmbeddingVectors(request);
+    }
+    List<Key<T>> keys = new ArrayList<>(embedData.size());
+    EmbeddingVector[] results = new EmbeddingVector[embedData.size()];
+    List<Integer> memoryMisses = new ArrayList<>();
+    List<Key<T>> memoryMissKeys = new ArrayList<>();
+    for (int i = 0; i < embedData.size(); i++) {
+      Key<T> key = keyOf(embedData.get(i));
+      keys.add(key);
+      results[i] = cache.getIfPresent(key);
+      if (results[i] == null) {
+        memoryMisses.add(i);
+        memoryMissKeys.add(key);
+      }
+    }
+    if (memoryMisses.isEmpty()) {
+      return Futures.immediateFuture(ImmutableList.copyOf(results));
+    }
+    return Futures.transformAsync(
+        lookUpOnDisk(memoryMissKeys),
+        onDisk -> {
+          for (int i = 0; i < memoryMisses.size(); i++) {
+            results[memoryMisses.get(i)] = onDisk.get(i);
+          }
+          return embedMisses(embedData, keys, results);
+        },
+        directExecutor());
+  }
+
+  /** Embeds the data whose results are still null with a single delegate batch. */
+  private ListenableFuture<ImmutableList<EmbeddingVector>> embedMisses(
+      ImmutableList<EmbedData<T>> embedData,
+      List<Key<T>> keys,
+      @Nullable EmbeddingVector[] results) {
+    // Index of each missing key in the forwarded batch, so duplicates are embedded once.
+    Map<Key<T>, Integer> missIndices = new LinkedHashMap<>();
+    EmbeddingRequest.Builder<T> misses = EmbeddingRequest.builder();
+    for (int i = 0; i < embedData.size(); i++) {
+      if (results[i] == null && !missIndices.containsKey(keys.get(i))) {
+        missIndices.put(keys.get(i), missIndices.size());
+        misses.addEmbedData(embedData.get(i));
+      }
+    }
+    if (missIndices.isEmpty()) {
+      return Futures.immediateFuture(ImmutableList.copyOf(results));
+    }
+    return Futures.transform(
+        delegate.getBatchEmbeddingVectors(misses.build()),
+        embeddings -> {
+          if (embeddings.size() != missIndices.size()) {
+            throw new IllegalStateException(
+                "Expected " + missIndices.size() + " embeddings but got " + embeddings.size());
+          }
+          for (Map.Entry<Key<T>, Integer> miss : missIndices.entrySet()) {
+            store(miss.getKey(), embeddings.get(miss.getValue()));
+          }
+          for (int i = 0; i < results.length; i++) {
+            if (results[i] == null) {
+              results[i] = embeddings.get(missIndices.get(keys.get(i)));
+            }
+          }
+          return ImmutableList.copyOf(results);
+        },
+        directExecutor());
+  }
+
+  /**
+   * Looks up keys missing from memory in the disk cache, on the disk executor, and promotes the
+   * hits to memory. The result holds null for each miss.
+   */
+  private ListenableFuture<List<@Nullable EmbeddingVector>> lookUpOnDisk(List<Key<T>> keys) {
+    DiskEmbeddingCache disk = diskCache;
+    Function<? super T, String> dataKey = diskKey;
+    if (disk == null || dataKey == null) {
+      return Futures.immediateFuture(Arrays.asList(new EmbeddingVector[keys.size()]));
+    }
+    ListenableFuture<List<@Nullable EmbeddingVector>> lookUp;
+    try {
+      lookUp =
+          Futures.submit(
+              () -> {
+                List<@Nullable EmbeddingVector> embeddings = new ArrayList<>(keys.size());
+                for (Key<T> key : keys) {
+                  EmbeddingVector onDisk = disk.get(key.contentHash(dataKey));
+                  if (onDisk != null) {
+                    cache.put(key, onDisk);
+                  }
+                  embeddings.add(onDisk);
+                }
+                return embeddings;
+              },
+              diskExecutor);
+    } catch (RejectedExecutionException e) {
+      lookUp = Futures.immediateFailedFuture(e);
+    }
+    return Futures.catching(
+        lookUp,
+        RuntimeException.class,
+        e -> {
+          Log.w(TAG, "Failed to read the embedding cache", e);
+          return Arrays.asList(new EmbeddingVector[keys.size()]);
+        },
+        directExecutor());
+  }
+
+  /** Caches an embedding in memory, and writes it to the disk cache in the background. */
+  private void store(Key<T> key, EmbeddingVector embeddings) {
+    cache.put(key, embeddings);
+    DiskEmbeddingCache disk = diskCache;
+    Function<? super T, String> dataKey = diskKey;
+    if (disk == null || dataKey == null) {
+      return;
+    }
+    try {
+      diskExecutor.execute(
+          () -> {
+            try {
+              disk.put(key.contentHash(dataKey), embeddings);
+            } catch (RuntimeException e) {
+              Log.w(TAG, "Failed to write the embedding cache", e);
+            }
+          });
+    } catch (RejectedExecutionException e) {
+      Log.w(TAG, "Failed to write the embedding cache", e);
+    }
+  }
+
+  private Key<T> keyOf(EmbedData<T> embedData) {
+    Object title = embedData.getMetadata().get(TITLE_KEY);
+    return new Key<>(
+        modelId,
+        embedData.getTask(),
+        embedData.getIsQuery(),
+        title == null ? null : title.toString(),
+        embedData.getData());
+  }
+
+  /** The inputs that determine an embedding. The hash code is computed once. */
+  private static final class Key<T> {
+    private final String modelId;
+    private final EmbedData.TaskType task;
+    private final boolean isQuery;
+    private final @Nullable String title;
+    private final T data;
+    private final int hashCode;
+
+    Key(
+        String modelId,
+        EmbedData.TaskType task,
+        boolean isQuery,
+        @Nullable String title,
+        T data) {
+      this.modelId = modelId;
+      this.task = task;
+      this.isQuery = isQuery;
+      this.title = title;
+      this.data = data;
+      this.hashCode = Objects.hash(modelId, task, isQuery, title, data);
+    }
+
+    /**
+     * Returns a hash of the key that is stable across processes, taking the data as the string
+     * given by {@code dataKey}.
+     */
+    HashCode contentHash(Function<? super T, String> dataKey) {
+      Hasher hasher = Hashing.murmur3_128().newHasher();
+      putString(hasher, modelId);
+      hasher.putInt(task.value()).putBoolean(isQuery).putBoolean(title != null);
+      if (title != null) {
+        putString(hasher, title);
+      }
+      putString(hasher, dataKey.apply(data));
+      return hasher.hash();
+    }
+
+    /** Hashes a string with its length, so that consecutive strings cannot be confused. */
+    private static void putString(Hasher hasher, String value) {
+      hasher.putInt(value.length()).putString(value, UTF_8);
+    }
+
+    @Override
+    public boolean equals(@Nullable Object object) {
+      if (this == object) {
+        return true;
+      }
+      if (!(object instanceof Key)) {
+        return false;
+      }
+      Key<?> other = (Key<?>) object;
+      return hashCode == other.hashCode
+          && isQuery == other.isQuery
+          && task == other.task
+          && modelId.equals(other.modelId)
+          && Objects.equals(title, other.title)
+          && data.equals(other.data);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+  }
+}
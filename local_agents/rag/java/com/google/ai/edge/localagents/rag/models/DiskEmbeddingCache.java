@@ -0,0 +1,304 @@
+/**
+ * Copyright 2025 The Google AI Edge Authors.
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ai.edge.localagents.rag.models;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.ai.edge.localagents.rag.shared.EmbeddingVector;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * A persistent cache of embeddings in an append-only file, meant to be used by {@link
+ * CachingEmbedder} to survive restarts.
+ *
+ * <p>The file starts with the fingerprint of the model whose embeddings it holds; opening it with
+ * a different fingerprint, for example after the model file changed, discards its entries. Each
+ * entry is a 128-bit content hash, the embedding and a CRC-32 of both, all little-endian. An
+ * in-memory index maps each hash to the position of its embedding; it is rebuilt by reading the
+ * file once when the cache is opened. An entry whose checksum does not match is treated as missing.
+ *
+ * <p>When the file grows past its maximum size, it is rewritten with the most recently used
+ * entries that fit in three quarters of that size. Methods are synchronized.
+ */
+public final class DiskEmbeddingCache implements Closeable {
+  private static final int MAGIC = 0x454d4243; // "EMBC"
+  private static final int VERSION = 2;
+  private static final int KEY_BYTES = 16;
+  private static final int CRC_BYTES = Integer.BYTES;
+
+  private final Path path;
+  private final String fingerprint;
+  private final long maximumBytes;
+  // Position of the dimension count of each entry, in access order. Guarded by this.
+  private final LinkedHashMap<HashCode, Long> index = new LinkedHashMap<>(16, 0.75f, true);
+  private FileChannel channel;
+  private long size;
+
+  private DiskEmbeddingCache(Path path, String fingerprint, long maximumBytes) {
+    this.path = path;
+    this.fingerprint = fingerprint;
+    this.maximumBytes = maximumBytes;
+  }
+
+  /**
+   * Opens the cache in {@code path}, creating it if needed.
+   *
+   * @param path The cache file.
+   * @param fingerprint Identifies the model, such as {@link #fingerprintOf} its file or the name of
+   *     a remote model. Entries written with a different fingerprint are discarded.
+   * @param maximumBytes The size beyond which the least recently used entries are evicted.
+   */
+  public static DiskEmbeddingCache open(Path path, String fingerprint, long maximumBytes)
+      throws IOException {
+    DiskEmbeddingCache cache = new DiskEmbeddingCache(path, fingerprint, maximumBytes);
+    synchronized (cache) {
+      cache.load();
+    }
+    return cache;
+  }
+
+  /** Returns the SHA-256 checksum of a model file, to be used as a cache fingerprint. */
+  public static String fingerprintOf(Path modelFile) throws IOException {
+    return com.google.common.io.Files.asByteSource(modelFile.toFile())
+        .hash(Hashing.sha256())
+        .toString();
+  }
+
+  /** Returns the embedding stored under {@code key}, if any and intact. */
+  synchronized @Nullable EmbeddingVector get(HashCode key) {
+    Long position = index.get(key);
+    if (position == null) {
+      return null;
+    }
+    try {
+      long length = entryLength(readFully(position, Integer.BYTES).getInt());
+      if (length < 0 || position - KEY_BYTES + length > size) {
+        index.remove(key);
+        return null;
+      }
+      ByteBuffer entry = readFully(position - KEY_BYTES, (int) length);
+      if (entry.getInt((int) length - CRC_BYTES) != crcOf(entry, (int) length - CRC_BYTES)) {
+        index.remove(key);
+        return null;
+      }
+      entry.position(KEY_BYTES + Integer.BYTES).limit((int) length - CRC_BYTES);
+      return EmbeddingVector.copyOf(entry.slice().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /** Stores an embedding under {@code key}, unless there is one already. */
+  synchronized void put(HashCode key, EmbeddingVector embeddings) {
+    if (index.containsKey(key)) {
+      return;
+    }
+    int length = (int) entryLength(embeddings.size());
+    ByteBuffer entry = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+    entry.put(key.asBytes(), 0, KEY_BYTES).putInt(embeddings.size());
+    float[] values = embeddings.toArray();
+    entry.asFloatBuffer().put(values);
+    entry.putInt(length - CRC_BYTES, crcOf(entry, length - CRC_BYTES));
+    entry.position(length).flip();
+    try {
+      writeFully(size, entry);
+      index.put(key, size + KEY_BYTES);
+      size += entry.capacity();
+      if (size > maximumBytes) {
+        evict();
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /** Returns the number of cached embeddings. */
+  public synchronized int size() {
+    return index.size();
+  }
+
+  /** Returns the size of the cache file in bytes. */
+  public synchronized long sizeInBytes() {
+    return size;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    channel.close();
+  }
+
+  /** Opens the file and indexes its entries, or starts a new file if it cannot be used. */
+  private void load() throws IOException {
+    channel =
+        FileChannel.open(
+            path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    long fileSize = channel.size();
+    long position = readHeader(fileSize);
+    if (position < 0) {
+      channel.truncate(0);
+      size = writeHeader(channel);
+      return;
+    }
+    while (position + KEY_BYTES + Integer.BYTES <= fileSize) {
+      ByteBuffer header = readFully(position, KEY_BYTES + Integer.BYTES);
+      byte[] key = new byte[KEY_BYTES];
+      header.get(key);
+      long length = entryLength(header.getInt());
+      long end = position + length;
+      if (length < 0 || end > fileSize) {
+        break;
+      }
+      index.put(HashCode.fromBytes(key), position + KEY_BYTES);
+      position = end;
+    }
+    // Drops an entry cut short by a crash.
+    channel.truncate(position);
+    size = position;
+  }
+
+  /** Returns the position of the first entry, or -1 if the file is empty or unusable. */
+  private long readHeader(long fileSize) throws IOException {
+    if (fileSize < 3 * Integer.BYTES) {
+      return -1;
+    }
+    ByteBuffer header = readFully(0, 3 * Integer.BYTES);
+    if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+      return -1;
+    }
+    int fingerprintLength = header.getInt();
+    if (fingerprintLength < 0 || 3 * Integer.BYTES + fingerprintLength > fileSize) {
+      return -1;
+    }
+    ByteBuffer fingerprintBytes = readFully(3 * Integer.BYTES, fingerprintLength);
+    if (!fingerprintBytes.equals(ByteBuffer.wrap(fingerprint.getBytes(UTF_8)))) {
+      return -1;
+    }
+    return 3 * Integer.BYTES + fingerprintLength;
+  }
+
+  /** Writes the file header at the start of {@code target} and returns its length. */
+  private long writeHeader(FileChannel target) throws IOException {
+    byte[] fingerprintBytes = fingerprint.getBytes(UTF_8);
+    ByteBuffer header =
+        ByteBuffer.allocate(3 * Integer.BYTES + fingerprintBytes.length)
+            .order(ByteOrder.LITTLE_ENDIAN);
+    header.putInt(MAGIC).putInt(VERSION).putInt(fingerprintBytes.length).put(fingerprintBytes);
+    header.flip();
+    long position = 0;
+    while (header.hasRemaining()) {
+      position += target.write(header, position);
+    }
+    return position;
+  }
+
+  /**
+   * Rewrites the file with the most recently used entries that fit in three quarters of the
+   * maximum size, and moves it into place.
+   */
+  private void evict() throws IOException {
+    List<Map.Entry<HashCode, Long>> entries = new ArrayList<>(index.entrySet());
+    long[] lengths = new long[entries.size()];
+    long keptBytes = 0;
+    int first = entries.size();
+    // Walks from the most recently used entry until the budget is spent.
+    while (first > 0) {
+      int dimensions = readFully(entries.get(first - 1).getValue(), Integer.BYTES).getInt();
+      long length = entryLength(dimensions);
+      if (length < 0 || keptBytes + length > maximumBytes / 4 * 3) {
+        break;
+      }
+      lengths[--first] = length;
+      keptBytes += length;
+    }
+
+    Path temporaryPath = path.resolveSibling(path.getFileName() + ".tmp");
+    LinkedHashMap<HashCode, Long> positions = new LinkedHashMap<>();
+    long newSize;
+    try (FileChannel target =
+        FileChannel.open(
+            temporaryPath,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING,
+            StandardOpenOption.WRITE)) {
+      newSize = writeHeader(target);
+      target.position(newSize);
+      for (int i = first; i < entries.size(); i++) {
+        long source = entries.get(i).getValue() - KEY_BYTES;
+        for (long copied = 0; copied < lengths[i]; ) {
+          copied += channel.transferTo(source + copied, lengths[i] - copied, target);
+        }
+        positions.put(entries.get(i).getKey(), newSize + KEY_BYTES);
+        newSize += lengths[i];
+      }
+      target.force(false);
+    }
+    // The current file stays open until the new one is in place, so that a failed move leaves the
+    // cache as it was.
+    Files.move(
+        temporaryPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    FileChannel replaced = channel;
+    channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    replaced.close();
+    index.clear();
+    index.putAll(positions);
+    size = newSize;
+  }
+
+  /** Returns the length of an entry with the given dimension count, or -1 if it is invalid. */
+  private static long entryLength(int dimensions) {
+    long length = KEY_BYTES + Integer.BYTES + (long) dimensions * Float.BYTES + CRC_BYTES;
+    return dimensions < 0 || length > Integer.MAX_VALUE ? -1 : length;
+  }
+
+  /** Returns the CRC-32 of the first {@code length} bytes of {@code entry}. */
+  private static int crcOf(ByteBuffer entry, int length) {
+    CRC32 crc = new CRC32();
+    crc.update(entry.array(), entry.arrayOffset(), length);
+    return (int) crc.getValue();
+  }
+
+  private ByteBuffer readFully(long position, int length) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        throw new IOException("Unexpected end of embedding cache " + path);
+      }
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  private void writeFully(long position, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      position += channel.write(buffer, position);
+    }
+  }
+}
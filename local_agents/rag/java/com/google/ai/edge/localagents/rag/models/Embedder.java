@@ -13,7 +13,12 @@
  */
 package com.google.ai.edge.localagents.rag.models;
 
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+
+import com.google.ai.edge.localagents.rag.shared.EmbeddingVector;
 import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 
 /** An interface for an embedding model that generates embedding vectors for a given input. */
@@ -24,4 +29,28 @@ public interface Embedder<T> {
   /** Returns embedding vectors for the given inputs in order. */
   public ListenableFuture<ImmutableList<ImmutableList<Float>>> getBatchEmbeddings(
       EmbeddingRequest<T> request);
+
+  /**
+   * Returns embedding vector for the given input without boxing its values.
+   *
+   * <p>The default implementation unboxes the result of {@link #getEmbeddings}. Implementations
+   * should override it to produce primitive vectors directly.
+   */
+  public default ListenableFuture<EmbeddingVector> getEmbeddingVector(EmbeddingRequest<T> request) {
+    return Futures.transform(getEmbeddings(request), EmbeddingVector::copyOf, directExecutor());
+  }
+
+  /**
+   * Returns embedding vectors for the given inputs in order without boxing their values.
+   *
+   * <p>The default implementation unboxes the result of {@link #getBatchEmbeddings}.
+   * Implementations should override it to produce primitive vectors directly.
+   */
+  public default ListenableFuture<ImmutableList<EmbeddingVector>> getBatchEmbeddingVectors(
+      EmbeddingRequest<T> request) {
+    return Futures.transform(
+        getBatchEmbeddings(request),
+        embeddings -> embeddings.stream().map(EmbeddingVector::copyOf).collect(toImmutableList()),
+        directExecutor());
+  }
 }
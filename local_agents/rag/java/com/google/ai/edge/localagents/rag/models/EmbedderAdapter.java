@@ -2,6 +2,7 @@ package com.google.ai.edge.localagents.rag.models;
 
 import static com.google.common.collect.ImmutableList.toImmutableList;
 
+import com.google.ai.edge.localagents.rag.shared.EmbeddingVector;
 import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.ListenableFuture;
 
@@ -15,37 +16,38 @@ public class EmbedderAdapter implements Embedder<Part> {
 
   @Override
   public ListenableFuture<ImmutableList<Float>> getEmbeddings(EmbeddingRequest<Part> request) {
-
-    return delegate.getEmbeddings(
-        EmbeddingRequest.create(
-            request.getEmbedData().stream()
-                .map(
-                    it -> {
-                      if (it.getData().getKind() == Part.Kind.TEXT) {
-                        return EmbedData.create(it.getData().text(), it.getTask());
-                      } else {
-                        throw new IllegalArgumentException(
-                            "Unsupported request data type for text only embedding model");
-                      }
-                    })
-                .collect(toImmutableList())));
+    return delegate.getEmbeddings(toTextRequest(request));
   }
 
   @Override
   public ListenableFuture<ImmutableList<ImmutableList<Float>>> getBatchEmbeddings(
       EmbeddingRequest<Part> request) {
-    return delegate.getBatchEmbeddings(
-        EmbeddingRequest.create(
-            request.getEmbedData().stream()
-                .map(
-                    it -> {
-                      if (it.getData().getKind() == Part.Kind.TEXT) {
-                        return EmbedData.create(it.getData().text(), it.getTask());
-                      } else {
-                        throw new IllegalArgumentException(
-                            "Unsupported request data type for text only embedding model");
-                      }
-                    })
-                .collect(toImmutableList())));
+    return delegate.getBatchEmbeddings(toTextRequest(request));
+  }
+
+  @Override
+  public ListenableFuture<EmbeddingVector> getEmbeddingVector(EmbeddingRequest<Part> request) {
+    return delegate.getEmbeddingVector(toTextRequest(request));
+  }
+
+  @Override
+  public ListenableFuture<ImmutableList<EmbeddingVector>> getBatchEmbeddingVectors(
+      EmbeddingRequest<Part> request) {
+    return delegate.getBatchEmbeddingVectors(toTextRequest(request));
+  }
+
+  private static EmbeddingRequest<String> toTextRequest(EmbeddingRequest<Part> request) {
+    return EmbeddingRequest.create(
+        request.getEmbedData().stream()
+            .map(
+                it -> {
+                  if (it.getData().getKind() == Part.Kind.TEXT) {
+                    return EmbedData.create(it.getData().text(), it.getTask());
+                  } else {
+                    throw new IllegalArgumentException(
+                        "Unsupported request data type for text only embedding model");
+                  }
+                })
+            .collect(toImmutableList()));
   }
 }
@@ -14,8 +14,11 @@
 package com.google.ai.edge.localagents.rag.models;
 
 import static com.google.common.base.Verify.verify;
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
 
 import android.util.Log;
+import com.google.ai.edge.localagents.rag.shared.EmbeddingVector;
 import com.google.common.base.VerifyException;
 import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.Futures;
@@ -70,23 +73,34 @@ public final class GeminiEmbedder implements Embedder<String> {
   @Override
   // Returns a list of embedding vectors. Sizes are adjustable (768 default).
   public ListenableFuture<ImmutableList<Float>> getEmbeddings(EmbeddingRequest<String> request) {
+    return Futures.transform(
+        getEmbeddingVector(request), EmbeddingVector::toList, directExecutor());
+  }
+
+  @Override
+  // Returns a list of embedding vectors. Sizes are adjustable (768 default).
+  public ListenableFuture<ImmutableList<ImmutableList<Float>>> getBatchEmbeddings(
+      EmbeddingRequest<String> request) {
+    return Futures.transform(
+        getBatchEmbeddingVectors(request),
+        embeddings -> embeddings.stream().map(EmbeddingVector::toList).collect(toImmutableList()),
+        directExecutor());
+  }
+
+  @Override
+  public ListenableFuture<EmbeddingVector> getEmbeddingVector(EmbeddingRequest<String> request) {
     ImmutableList<EmbedData<String>> embedData = request.getEmbedData();
     return Futures.submit(
         () -> {
           try {
             if (embedData.isEmpty()) {
-              return ImmutableList.of();
+              return EmbeddingVector.empty();
             }
             Request httpRequest =
                 createRequest(embedData.get(0).getData(), embedData.get(0).getTask());
             JSONObject response = post(httpRequest);
             JSONObject embedding = response.getJSONObject("embedding");
-            JSONArray values = embedding.getJSONArray("values");
-            ArrayList<Float> valuesList = new ArrayList<>();
-            for (int j = 0; j < values.length(); j++) {
-              valuesList.add(Float.valueOf((float) values.getDouble(j)));
-            }
-            return ImmutableList.copyOf(valuesList);
+            return toEmbeddingVector(embedding.getJSONArray("values"));
           } catch (JSONException | IOException e) {
             throw new VerifyException(e);
           }
@@ -95,15 +109,14 @@ public final class GeminiEmbedder implements Embedder<String> {
   }
 
   @Override
-  // Returns a list of embedding vectors. Sizes are adjustable (768 default).
-  public ListenableFuture<ImmutableList<ImmutableList<Float>>> getBatchEmbeddings(
+  public ListenableFuture<ImmutableList<EmbeddingVector>> getBatchEmbeddingVectors(
       EmbeddingRequest<String> request) {
     ImmutableList<EmbedData<String>> embedData = request.getEmbedData();
     return Futures.submit(
         () -> {
           try {
             if (embedData.isEmpty()) {
-              return ImmutableList.of(ImmutableList.of());
+              return ImmutableList.of(EmbeddingVector.empty());
             }
             List<String> texts = new ArrayList<>();
             for (EmbedData<String> embed : embedData) {
@@ -118,18 +131,13 @@ public final class GeminiEmbedder implements Embedder<String> {
                 createBatchRequest(ImmutableList.copyOf(texts), ImmutableList.copyOf(taskTypes));
             JSONObject response = post(httpRequest);
             JSONArray embeddings = response.getJSONArray("embeddings");
-            ArrayList<ImmutableList<Float>> embeddingsList = new ArrayList<>();
+            ImmutableList.Builder<EmbeddingVector> embeddingsList = ImmutableList.builder();
             for (int i = 0; i < embeddings.length(); i++) {
               JSONObject embedding = embeddings.getJSONObject(i);
-              JSONArray values = embedding.getJSONArray("values");
-              ArrayList<Float> valuesList = new ArrayList<>();
-              for (int j = 0; j < values.length(); j++) {
-                valuesList.add(Float.valueOf((float) values.getDouble(j)));
-              }
-              embeddingsList.add(ImmutableList.copyOf(valuesList));
+              embeddingsList.add(toEmbeddingVector(embedding.getJSONArray("values")));
             }
-            Log.i(TAG, "Embeddings: " + embeddingsList.size());
-            return ImmutableList.copyOf(embeddingsList);
+            Log.i(TAG, "Embeddings: " + embeddings.length());
+            return embeddingsList.build();
           } catch (JSONException | IOException e) {
             throw new VerifyException(e);
           }
@@ -137,6 +145,14 @@ public final class GeminiEmbedder implements Embedder<String> {
         workerExecutor);
   }
 
+  private static EmbeddingVector toEmbeddingVector(JSONArray values) throws JSONException {
+    float[] vector = new float[values.length()];
+    for (int j = 0; j < values.length(); j++) {
+      vector[j] = (float) values.getDouble(j);
+    }
+    return EmbeddingVector.copyOf(vector);
+  }
+
   private Request createRequest(String text, EmbedData.TaskType taskType) throws JSONException {
     HttpUrl url =
         Objects.requireNonNull(HttpUrl.parse(BASE_URL + model + EMBED_TEXT))
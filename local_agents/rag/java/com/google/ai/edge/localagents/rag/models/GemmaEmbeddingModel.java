@@ -13,8 +13,12 @@
  */
 package com.google.ai.edge.localagents.rag.models;
 
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+
 import com.google.ai.edge.localagents.rag.models.proto.EmbedText;
 import com.google.ai.edge.localagents.rag.models.proto.TextEmbeddingRequest;
+import com.google.ai.edge.localagents.rag.shared.EmbeddingVector;
 import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
@@ -66,21 +70,36 @@ public final class GemmaEmbeddingModel implements Embedder<String> {
 
   @Override
   public ListenableFuture<ImmutableList<Float>> getEmbeddings(EmbeddingRequest<String> request) {
+    return Futures.transform(
+        getEmbeddingVector(request), EmbeddingVector::toList, directExecutor());
+  }
+
+  @Override
+  public ListenableFuture<ImmutableList<ImmutableList<Float>>> getBatchEmbeddings(
+      EmbeddingRequest<String> request) {
+    return Futures.transform(
+        getBatchEmbeddingVectors(request),
+        embeddings -> embeddings.stream().map(EmbeddingVector::toList).collect(toImmutableList()),
+        directExecutor());
+  }
+
+  @Override
+  public ListenableFuture<EmbeddingVector> getEmbeddingVector(EmbeddingRequest<String> request) {
     return Futures.submit(
-        () -> ImmutableList.copyOf(nativeGetEmbeddingsProto(modelHandle, toProtoBytes(request))),
+        () -> EmbeddingVector.copyOf(nativeGetEmbeddingsProto(modelHandle, toProtoBytes(request))),
         workerExecutor);
   }
 
   @Override
-  public ListenableFuture<ImmutableList<ImmutableList<Float>>> getBatchEmbeddings(
+  public ListenableFuture<ImmutableList<EmbeddingVector>> getBatchEmbeddingVectors(
       EmbeddingRequest<String> request) {
     return Futures.submit(
         () -> {
           List<List<Float>> embeddings =
               nativeGetBatchEmbeddingsProto(modelHandle, toProtoBytes(request));
-          ImmutableList.Builder<ImmutableList<Float>> embeddingsList = ImmutableList.builder();
+          ImmutableList.Builder<EmbeddingVector> embeddingsList = ImmutableList.builder();
           for (List<Float> embedding : embeddings) {
-            embeddingsList.add(ImmutableList.copyOf(embedding));
+            embeddingsList.add(EmbeddingVector.copyOf(embedding));
           }
           return embeddingsList.build();
         },
@@ -138,6 +157,9 @@ public final class GemmaEmbeddingModel implements Embedder<String> {
   private static native long nativeInitializeGemmaEmbeddingModel(
       String embeddingModelPath, String sentencePieceModelPath, boolean useGpu);
 
+  // The native library returns boxed values, which EmbeddingVector.copyOf unboxes in a single
+  // pass. Writing into a caller-provided float[] instead requires new entry points in the native
+  // library, which is built outside this tree.
   private static native List<Float> nativeGetEmbeddingsProto(long modelHandle, byte[] request);
 
   private static native List<List<Float>> nativeGetBatchEmbeddingsProto(
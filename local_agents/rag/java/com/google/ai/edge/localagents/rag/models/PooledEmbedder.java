@@ -0,0 +1,203 @@
+/**
+ * Copyright 2025 The Google AI Edge Authors.
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ai.edge.localagents.rag.models;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+
+import com.google.ai.edge.localagents.rag.shared.EmbeddingVector;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * An {@link Embedder} that spreads requests over several instances of a model, such as several
+ * {@link GemmaEmbeddingModel}s each holding its own native model and worker thread, so that
+ * inference uses several cores.
+ *
+ * <p>Each single-item request goes to the instance with the fewest pending items. Batch requests
+ * are split into contiguous slices, one per instance, each sent to the least-loaded instance at
+ * that point; the results are concatenated in order.
+ *
+ * <p>{@link #close} closes the instances that are {@link AutoCloseable}.
+ */
+public final class PooledEmbedder<T> implements Embedder<T>, Closeable {
+  private final ImmutableList<Embedder<T>> instances;
+  // Number of items submitted to each instance and not completed yet.
+  private final AtomicIntegerArray pendingItems;
+
+  /**
+   * Creates a pool of the given instances.
+   *
+   * @param instances Independent instances of the same model.
+   */
+  public PooledEmbedder(List<? extends Embedder<T>> instances) {
+    if (instances.isEmpty()) {
+      throw new IllegalArgumentException("At least one instance is required");
+    }
+    this.instances = ImmutableList.copyOf(instances);
+    this.pendingItems = new AtomicIntegerArray(instances.size());
+  }
+
+  /**
+   * Creates a pool of {@code numInstances} instances, typically one per core reserved for
+   * inference.
+   *
+   * @param numInstances The number of instances.
+   * @param factory Creates each instance, loading its own copy of the model. If it throws, the
+   *     instances created so far are closed.
+   */
+  public static <T> PooledEmbedder<T> create(
+      int numInstances, Supplier<? extends Embedder<T>> factory) {
+    List<Embedder<T>> instances = new ArrayList<>(numInstances);
+    try {
+      for (int i = 0; i < numInstances; i++) {
+        instances.add(factory.get());
+      }
+    } catch (RuntimeException | Error e) {
+      Throwable failure = closeAll(instances);
+      if (failure != null) {
+        e.addSuppressed(failure);
+      }
+      throw e;
+    }
+    return new PooledEmbedder<>(instances);
+  }
+
+  @Override
+  public ListenableFuture<ImmutableList<Float>> getEmbeddings(EmbeddingRequest<T> request) {
+    return Futures.transform(
+        getEmbeddingVector(request), EmbeddingVector::toList, directExecutor());
+  }
+
+  @Override
+  public ListenableFuture<ImmutableList<ImmutableList<Float>>> getBatchEmbeddings(
+      EmbeddingRequest<T> request) {
+    return Futures.transform(
+        getBatchEmbeddingVectors(request),
+        embeddings -> embeddings.stream().map(EmbeddingVector::toList).collect(toImmutableList()),
+        directExecutor());
+  }
+
+  @Override
+  public ListenableFuture<EmbeddingVector> getEmbeddingVector(EmbeddingRequest<T> request) {
+    return submit(1, instance -> instance.getEmbeddingVector(request));
+  }
+
+  @Override
+  public ListenableFuture<ImmutableList<EmbeddingVector>> getBatchEmbeddingVectors(
+      EmbeddingRequest<T> request) {
+    ImmutableList<EmbedData<T>> embedData = request.getEmbedData();
+    int numSlices = Math.min(instances.size(), embedData.size());
+    if (numSlices <= 1) {
+      return submit(embedData.size(), instance -> instance.getBatchEmbeddingVectors(request));
+    }
+    List<ListenableFuture<ImmutableList<EmbeddingVector>>> slices = new ArrayList<>(numSlices);
+    for (int slice = 0; slice < numSlices; slice++) {
+      EmbeddingRequest<T> sliceRequest =
+          EmbeddingRequest.create(
+              embedData.subList(
+                  embedData.size() * slice / numSlices,
+                  embedData.size() * (slice + 1) / numSlices));
+      slices.add(
+          submit(
+              sliceRequest.getEmbedData().size(),
+              instance -> instance.getBatchEmbeddingVectors(sliceRequest)));
+    }
+    return Futures.transform(
+        Futures.allAsList(slices),
+        results -> {
+          ImmutableList.Builder<EmbeddingVector> embeddings = ImmutableList.builder();
+          for (ImmutableList<EmbeddingVector> result : results) {
+            embeddings.addAll(result);
+          }
+          return embeddings.build();
+        },
+        directExecutor());
+  }
+
+  /**
+   * Closes the instances that are {@link AutoCloseable}. Every instance is closed even if some of
+   * them fail; the first failure is thrown with the others suppressed.
+   */
+  @Override
+  public void close() throws IOException {
+    Throwable failure = closeAll(instances);
+    if (failure == null) {
+      return;
+    }
+    if (failure instanceof IOException) {
+      throw (IOException) failure;
+    }
+    Throwables.throwIfUnchecked(failure);
+    throw new IOException(failure);
+  }
+
+  /**
+   * Closes the {@link AutoCloseable} instances and returns the first failure, with the others
+   * suppressed, or null if all of them were closed.
+   */
+  private static @Nullable Throwable closeAll(List<? extends Embedder<?>> instances) {
+    Throwable failure = null;
+    for (Embedder<?> instance : instances) {
+      if (!(instance instanceof AutoCloseable)) {
+        continue;
+      }
+      try {
+        ((AutoCloseable) instance).close();
+      } catch (Exception e) {
+        if (failure == null) {
+          failure = e;
+        } else {
+          failure.addSuppressed(e);
+        }
+      }
+    }
+    return failure;
+  }
+
+  /**
+   * Sends {@code numItems} items to the instance with the fewest pending items, counting them as
+   * pending until the returned future is done.
+   */
+  private <R> ListenableFuture<R> submit(
+      int numItems, Function<Embedder<T>, ListenableFuture<R>> call) {
+    int best = 0;
+    for (int i = 1; i < instances.size(); i++) {
+      if (pendingItems.get(i) < pendingItems.get(best)) {
+        best = i;
+      }
+    }
+    int instance = best;
+    pendingItems.addAndGet(instance, numItems);
+    ListenableFuture<R> future;
+    try {
+      future = call.apply(instances.get(instance));
+    } catch (RuntimeException e) {
+      pendingItems.addAndGet(instance, -numItems);
+      throw e;
+    }
+    future.addListener(() -> pendingItems.addAndGet(instance, -numItems), directExecutor());
+    return future;
+  }
+}
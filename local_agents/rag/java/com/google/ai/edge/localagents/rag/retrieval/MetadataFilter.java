@@ -0,0 +1,155 @@
+/**
+ * Copyright 2025 The Google AI Edge Authors.
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ai.edge.localagents.rag.retrieval;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.auto.value.AutoOneOf;
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * A predicate over the metadata of stored records that restricts which records a search may
+ * return, e.g. the documents of one user, from one source or within a date range.
+ *
+ * <p>Metadata values are compared by their string representation, which is also how persistent
+ * stores keep them, so that {@code equalTo("year", 2024)} matches a value of {@code 2024} as well
+ * as {@code "2024"}. Range filters match values that are numbers or parse as numbers; dates should
+ * be stored as epoch milliseconds to be used in ranges.
+ */
+@AutoOneOf(MetadataFilter.Kind.class)
+public abstract class MetadataFilter {
+  /** The possible kinds of filter. */
+  public enum Kind {
+    KEY_VALUES,
+    KEY_RANGE,
+    ALL_OF,
+    ANY_OF
+  }
+
+  public abstract Kind getKind();
+
+  /** The key and the accepted values of a {@link Kind#KEY_VALUES} filter. */
+  public abstract KeyValues keyValues();
+
+  /** The key and the accepted range of a {@link Kind#KEY_RANGE} filter. */
+  public abstract KeyRange keyRange();
+
+  /** The filters that must all match for an {@link Kind#ALL_OF} filter to match. */
+  public abstract ImmutableList<MetadataFilter> allOf();
+
+  /** The filters of which one must match for an {@link Kind#ANY_OF} filter to match. */
+  public abstract ImmutableList<MetadataFilter> anyOf();
+
+  /** Matches records whose metadata maps {@code key} to {@code value}. */
+  public static MetadataFilter equalTo(String key, Object value) {
+    return in(key, ImmutableSet.of(value));
+  }
+
+  /** Matches records whose metadata maps {@code key} to one of {@code values}. */
+  public static MetadataFilter in(String key, Collection<?> values) {
+    checkArgument(!values.isEmpty(), "At least one value is required");
+    ImmutableSet.Builder<String> strings = ImmutableSet.builder();
+    for (Object value : values) {
+      strings.add(value.toString());
+    }
+    return AutoOneOf_MetadataFilter.keyValues(
+        new AutoValue_MetadataFilter_KeyValues(key, strings.build()));
+  }
+
+  /**
+   * Matches records whose metadata maps {@code key} to a number between {@code min} and {@code
+   * max}, inclusive.
+   */
+  public static MetadataFilter between(String key, double min, double max) {
+    checkArgument(min <= max, "min must not be greater than max");
+    return AutoOneOf_MetadataFilter.keyRange(new AutoValue_MetadataFilter_KeyRange(key, min, max));
+  }
+
+  /** Matches records that match all of {@code filters}. */
+  public static MetadataFilter and(MetadataFilter... filters) {
+    checkArgument(filters.length > 0, "At least one filter is required");
+    return AutoOneOf_MetadataFilter.allOf(ImmutableList.copyOf(filters));
+  }
+
+  /** Matches records that match any of {@code filters}. */
+  public static MetadataFilter or(MetadataFilter... filters) {
+    checkArgument(filters.length > 0, "At least one filter is required");
+    return AutoOneOf_MetadataFilter.anyOf(ImmutableList.copyOf(filters));
+  }
+
+  /** Returns whether a record with the given metadata matches this filter. */
+  public boolean matches(Map<String, ?> metadata) {
+    switch (getKind()) {
+      case KEY_VALUES:
+        Object value = metadata.get(keyValues().getKey());
+        return value != null && keyValues().getValues().contains(value.toString());
+      case KEY_RANGE:
+        return keyRange().contains(metadata.get(keyRange().getKey()));
+      case ALL_OF:
+        for (MetadataFilter filter : allOf()) {
+          if (!filter.matches(metadata)) {
+            return false;
+          }
+        }
+        return true;
+      case ANY_OF:
+        for (MetadataFilter filter : anyOf()) {
+          if (filter.matches(metadata)) {
+            return true;
+          }
+        }
+        return false;
+    }
+    throw new AssertionError("Unknown filter kind: " + getKind());
+  }
+
+  /** A metadata key and the string representations of the values accepted for it. */
+  @AutoValue
+  public abstract static class KeyValues {
+    public abstract String getKey();
+
+    public abstract ImmutableSet<String> getValues();
+  }
+
+  /** A metadata key and the inclusive numeric range accepted for it. */
+  @AutoValue
+  public abstract static class KeyRange {
+    public abstract String getKey();
+
+    public abstract double getMin();
+
+    public abstract double getMax();
+
+    /** Returns whether {@code value} is a number, or parses as one, within this range. */
+    public boolean contains(Object value) {
+      double number;
+      if (value instanceof Number) {
+        number = ((Number) value).doubleValue();
+      } else if (value != null) {
+        try {
+          number = Double.parseDouble(value.toString());
+        } catch (NumberFormatException e) {
+          return false;
+        }
+      } else {
+        return false;
+      }
+      return number >= getMin() && number <= getMax();
+    }
+  }
+}
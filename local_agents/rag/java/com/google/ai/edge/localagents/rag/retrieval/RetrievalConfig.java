@@ -14,6 +14,7 @@
 package com.google.ai.edge.localagents.rag.retrieval;
 
 import com.google.auto.value.AutoValue;
+import java.util.Optional;
 
 /** Retrieval configuration. */
 @AutoValue
@@ -36,6 +37,9 @@ public abstract class RetrievalConfig {
   /** The type of retrieval task. */
   public abstract TaskType getTask();
 
+  /** The filter that retrieved elements' metadata must match. Optional. Default = no filter. */
+  public abstract Optional<MetadataFilter> getMetadataFilter();
+
   public abstract Builder toBuilder();
 
   public static Builder builder() {
@@ -63,6 +67,8 @@ public abstract class RetrievalConfig {
 
     public abstract Builder setTask(TaskType task);
 
+    public abstract Builder setMetadataFilter(MetadataFilter metadataFilter);
+
     public abstract RetrievalConfig build();
   }
 }
@@ -13,6 +13,7 @@
  */
 package com.google.ai.edge.localagents.rag.retrieval;
 
+import com.google.ai.edge.localagents.rag.shared.EmbeddingVector;
 import com.google.auto.value.AutoValue;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -27,7 +28,12 @@ public abstract class RetrievalEntity<T> {
   public abstract T getData();
 
   /** The embeddings associated with this entity. */
-  public abstract ImmutableList<Float> getEmbeddings();
+  public abstract EmbeddingVector getEmbeddingVector();
+
+  /** The embeddings associated with this entity, boxed. Prefer {@link #getEmbeddingVector()}. */
+  public ImmutableList<Float> getEmbeddings() {
+    return getEmbeddingVector().toList();
+  }
 
   /** Metadata associated with this entity, may be empty. */
   public abstract ImmutableMap<String, Object> getMetadata();
@@ -43,7 +49,16 @@ public abstract class RetrievalEntity<T> {
       T data, List<Float> embeddings, Optional<ImmutableMap<String, Object>> metadata) {
     return RetrievalEntity.<T>builder()
         .setData(data)
-        .setEmbeddings(ImmutableList.copyOf(embeddings))
+        .setEmbeddingVector(EmbeddingVector.copyOf(embeddings))
+        .setMetadata(metadata.orElse(ImmutableMap.of()))
+        .build();
+  }
+
+  public static <T> RetrievalEntity<T> create(
+      T data, EmbeddingVector embeddings, Optional<ImmutableMap<String, Object>> metadata) {
+    return RetrievalEntity.<T>builder()
+        .setData(data)
+        .setEmbeddingVector(embeddings)
         .setMetadata(metadata.orElse(ImmutableMap.of()))
         .build();
   }
@@ -55,7 +70,11 @@ public abstract class RetrievalEntity<T> {
 
     public abstract Builder<T> setData(T data);
 
-    public abstract Builder<T> setEmbeddings(ImmutableList<Float> embeddings);
+    public abstract Builder<T> setEmbeddingVector(EmbeddingVector embeddings);
+
+    public Builder<T> setEmbeddings(ImmutableList<Float> embeddings) {
+      return setEmbeddingVector(EmbeddingVector.copyOf(embeddings));
+    }
 
     public abstract Builder<T> setMetadata(Map<String, Object> metadata);
 
@@ -0,0 +1,132 @@
+/**
+ * Copyright 2025 The Google AI Edge Authors.
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ai.edge.localagents.rag.shared;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.Floats;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.List;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * An immutable embedding vector backed by a primitive {@code float[]}.
+ *
+ * <p>A 768-dimensional vector held as {@code ImmutableList<Float>} costs roughly 16 KB of boxed
+ * objects, while this class keeps it in a single 3 KB array. Prefer it over the list-based APIs on
+ * ingestion and search paths.
+ */
+public final class EmbeddingVector {
+  private static final EmbeddingVector EMPTY = new EmbeddingVector(new float[0]);
+
+  private final float[] values;
+
+  private EmbeddingVector(float[] values) {
+    this.values = values;
+  }
+
+  /** Returns an empty vector. */
+  public static EmbeddingVector empty() {
+    return EMPTY;
+  }
+
+  /** Returns a vector holding a copy of the given values. */
+  public static EmbeddingVector of(float... values) {
+    return copyOf(values);
+  }
+
+  /** Returns a vector holding a copy of the given values. */
+  public static EmbeddingVector copyOf(float[] values) {
+    return values.length == 0 ? EMPTY : new EmbeddingVector(values.clone());
+  }
+
+  /**
+   * Returns a vector holding a copy of the remaining values of the given buffer, advancing its
+   * position past them.
+   */
+  public static EmbeddingVector copyOf(FloatBuffer values) {
+    if (!values.hasRemaining()) {
+      return EMPTY;
+    }
+    float[] array = new float[values.remaining()];
+    values.get(array);
+    return new EmbeddingVector(array);
+  }
+
+  /** Returns a vector holding the unboxed values of the given list. */
+  public static EmbeddingVector copyOf(List<Float> values) {
+    return values.isEmpty() ? EMPTY : new EmbeddingVector(Floats.toArray(values));
+  }
+
+  /** Returns the number of dimensions of this vector. */
+  public int size() {
+    return values.length;
+  }
+
+  /** Returns whether this vector has no dimensions. */
+  public boolean isEmpty() {
+    return values.length == 0;
+  }
+
+  /** Returns the value at the given dimension. */
+  public float get(int index) {
+    return values[index];
+  }
+
+  /** Returns a copy of the values of this vector. */
+  public float[] toArray() {
+    return values.clone();
+  }
+
+  /**
+   * Copies the values of this vector into {@code destination}, starting at {@code offset}.
+   *
+   * @param destination The array to copy into.
+   * @param offset The index in {@code destination} of the first copied value.
+   */
+  public void copyTo(float[] destination, int offset) {
+    System.arraycopy(values, 0, destination, offset, values.length);
+  }
+
+  /** Returns the values of this vector as a boxed list. Only use this for list-based APIs. */
+  public ImmutableList<Float> toList() {
+    return ImmutableList.copyOf(Floats.asList(values));
+  }
+
+  /** Returns the backing array. Callers in this package must not modify it. */
+  float[] values() {
+    return values;
+  }
+
+  @Override
+  public boolean equals(@Nullable Object object) {
+    if (object == this) {
+      return true;
+    }
+    if (!(object instanceof EmbeddingVector)) {
+      return false;
+    }
+    return Arrays.equals(values, ((EmbeddingVector) object).values);
+  }
+
+  @Override
+  public int hashCode() {
+    return Arrays.hashCode(values);
+  }
+
+  @Override
+  public String toString() {
+    return Arrays.toString(values);
+  }
+}
@@ -13,9 +13,17 @@
  */
 package com.google.ai.edge.localagents.rag.shared;
 
+import java.nio.FloatBuffer;
 import java.util.List;
 
-/** Utility class for vector operations. */
+/**
+ * Utility class for vector operations.
+ *
+ * <p>The {@code float[]} and {@link FloatBuffer} kernels are the inner loops of retrieval. They
+ * accumulate into four independent partial sums so that consecutive multiply-adds do not wait on
+ * each other, which lets the JIT/AOT compiler keep several floating point units busy. Results can
+ * therefore differ from a strictly sequential sum in the last bits.
+ */
 public final class VectorOperations {
 
   public static float cosineSimilarity(List<Float> x, List<Float> y) {
@@ -47,5 +55,187 @@ public final class VectorOperations {
     return result;
   }
 
+  public static float cosineSimilarity(EmbeddingVector x, EmbeddingVector y) {
+    if (x.size() != y.size()) {
+      throw new IllegalArgumentException("Vectors lengths must be equal");
+    }
+
+    return cosineSimilarity(x.values(), y.values());
+  }
+
+  public static float dot(EmbeddingVector x, EmbeddingVector y) {
+    if (x.size() != y.size()) {
+      throw new IllegalArgumentException("Vectors lengths must be equal");
+    }
+
+    float[] xValues = x.values();
+    return dot(xValues, 0, y.values(), 0, xValues.length);
+  }
+
+  /** Returns the dot product of an array with the values of an embedding vector. */
+  public static float dot(float[] x, EmbeddingVector y) {
+    float[] yValues = y.values();
+    checkLengths(x.length, yValues.length);
+    return dot(x, 0, yValues, 0, x.length);
+  }
+
+  /** Returns the Euclidean norm of a vector. */
+  public static float norm(EmbeddingVector x) {
+    float[] values = x.values();
+    return (float) Math.sqrt(dot(values, 0, values, 0, values.length));
+  }
+
+  /**
+   * Returns a unit-length copy of a vector, so that cosine similarities with other normalized
+   * vectors reduce to a single dot product.
+   */
+  public static float[] normalize(EmbeddingVector x) {
+    float norm = norm(x);
+    if (norm == 0) {
+      throw new IllegalArgumentException("Vectors cannot have zero norm");
+    }
+    float[] normalized = x.toArray();
+    for (int i = 0; i < normalized.length; i++) {
+      normalized[i] /= norm;
+    }
+    return normalized;
+  }
+
+  public static float cosineSimilarity(float[] x, float[] y) {
+    checkLengths(x.length, y.length);
+    float dotProduct = dot(x, 0, y, 0, x.length);
+    float normX = dot(x, 0, x, 0, x.length);
+    float normY = dot(y, 0, y, 0, y.length);
+
+    if (normX == 0 || normY == 0) {
+      throw new IllegalArgumentException("Vectors cannot have zero norm");
+    }
+
+    return dotProduct / (float) (Math.sqrt(normX) * Math.sqrt(normY));
+  }
+
+  public static float dot(float[] x, float[] y) {
+    checkLengths(x.length, y.length);
+    return dot(x, 0, y, 0, x.length);
+  }
+
+  /** Returns the dot product of {@code length} values of two arrays starting at the offsets. */
+  public static float dot(float[] x, int xOffset, float[] y, int yOffset, int length) {
+    float sum0 = 0;
+    float sum1 = 0;
+    float sum2 = 0;
+    float sum3 = 0;
+    int i = 0;
+    for (; i + 3 < length; i += 4) {
+      sum0 += x[xOffset + i] * y[yOffset + i];
+      sum1 += x[xOffset + i + 1] * y[yOffset + i + 1];
+      sum2 += x[xOffset + i + 2] * y[yOffset + i + 2];
+      sum3 += x[xOffset + i + 3] * y[yOffset + i + 3];
+    }
+    for (; i < length; i++) {
+      sum0 += x[xOffset + i] * y[yOffset + i];
+    }
+    return (sum0 + sum1) + (sum2 + sum3);
+  }
+
+  /**
+   * Returns the dot product of {@code x} with the {@code x.length} values of a buffer starting at
+   * an absolute index. The buffer position is not modified.
+   */
+  public static float dot(float[] x, FloatBuffer y, int yOffset) {
+    int length = x.length;
+    float sum0 = 0;
+    float sum1 = 0;
+    float sum2 = 0;
+    float sum3 = 0;
+    int i = 0;
+    for (; i + 3 < length; i += 4) {
+      sum0 += x[i] * y.get(yOffset + i);
+      sum1 += x[i + 1] * y.get(yOffset + i + 1);
+      sum2 += x[i + 2] * y.get(yOffset + i + 2);
+      sum3 += x[i + 3] * y.get(yOffset + i + 3);
+    }
+    for (; i < length; i++) {
+      sum0 += x[i] * y.get(yOffset + i);
+    }
+    return (sum0 + sum1) + (sum2 + sum3);
+  }
+
+  public static float squaredL2Distance(float[] x, float[] y) {
+    checkLengths(x.length, y.length);
+    return squaredL2Distance(x, 0, y, 0, x.length);
+  }
+
+  /**
+   * Returns the squared Euclidean distance between {@code length} values of two arrays starting at
+   * the offsets.
+   */
+  public static float squaredL2Distance(
+      float[] x, int xOffset, float[] y, int yOffset, int length) {
+    float sum0 = 0;
+    float sum1 = 0;
+    float sum2 = 0;
+    float sum3 = 0;
+    int i = 0;
+    for (; i + 3 < length; i += 4) {
+      float d0 = x[xOffset + i] - y[yOffset + i];
+      float d1 = x[xOffset + i + 1] - y[yOffset + i + 1];
+      float d2 = x[xOffset + i + 2] - y[yOffset + i + 2];
+      float d3 = x[xOffset + i + 3] - y[yOffset + i + 3];
+      sum0 += d0 * d0;
+      sum1 += d1 * d1;
+      sum2 += d2 * d2;
+      sum3 += d3 * d3;
+    }
+    for (; i < length; i++) {
+      float d = x[xOffset + i] - y[yOffset + i];
+      sum0 += d * d;
+    }
+    return (sum0 + sum1) + (sum2 + sum3);
+  }
+
+  /**
+   * Computes the dot product of a query with each of {@code numRows} consecutive rows of a
+   * row-major matrix whose rows have the query's length.
+   *
+   * @param query The query vector.
+   * @param rows The row-major matrix.
+   * @param firstRow The index of the first row to score.
+   * @param numRows The number of rows to score.
+   * @param scores Receives the score of row {@code firstRow + i} at index {@code i}.
+   */
+  public static void dotBatch(
+      float[] query, float[] rows, int firstRow, int numRows, float[] scores) {
+    int length = query.length;
+    for (int i = 0; i < numRows; i++) {
+      scores[i] = dot(query, 0, rows, (firstRow + i) * length, length);
+    }
+  }
+
+  /**
+   * Computes the dot product of a query with each of {@code numRows} consecutive rows of a
+   * row-major matrix held in a buffer, e.g. a memory-mapped file. The buffer position is not
+   * modified.
+   *
+   * @param query The query vector.
+   * @param rows The row-major matrix.
+   * @param firstRow The index of the first row to score.
+   * @param numRows The number of rows to score.
+   * @param scores Receives the score of row {@code firstRow + i} at index {@code i}.
+   */
+  public static void dotBatch(
+      float[] query, FloatBuffer rows, int firstRow, int numRows, float[] scores) {
+    int length = query.length;
+    for (int i = 0; i < numRows; i++) {
+      scores[i] = dot(query, rows, (firstRow + i) * length);
+    }
+  }
+
+  private static void checkLengths(int xLength, int yLength) {
+    if (xLength != yLength) {
+      throw new IllegalArgumentException("Vectors lengths must be equal");
+    }
+  }
+
   private VectorOperations() {}
 }
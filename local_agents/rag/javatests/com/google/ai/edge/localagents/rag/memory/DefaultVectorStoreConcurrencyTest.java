@@ -0,0 +1,222 @@
+/**
+ * Copyright 2025 The Google AI Edge Authors.
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ai.edge.localagents.rag.memory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.ai.edge.localagents.rag.retrieval.MetadataFilter;
+import com.google.ai.edge.localagents.rag.shared.EmbeddingVector;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Runs queries against a {@link DefaultVectorStore} while other threads insert, upsert and delete
+ * records, enough for background compactions to run.
+ *
+ * <p>Every record stores a key from which its embedding and metadata are derived, so queries can
+ * check that each returned record is whole. A key retired by a delete or upsert that returned
+ * before a query started must not be returned by it.
+ */
+@RunWith(JUnit4.class)
+public final class DefaultVectorStoreConcurrencyTest {
+  private static final int DIMENSIONS = 16;
+  private static final int NUM_GROUPS = 4;
+  private static final int NUM_WRITERS = 2;
+  private static final int NUM_READERS = 4;
+  private static final int OPERATIONS_PER_WRITER = 5_000;
+  private static final int TOP_K = 10;
+  private static final String GROUP_KEY = "group";
+
+  private final DefaultVectorStore<Integer> store = new DefaultVectorStore<>();
+  private final AtomicInteger nextKey = new AtomicInteger();
+  // Key of each live record by id.
+  private final Map<Long, Integer> liveKeys = new ConcurrentHashMap<>();
+  // Sequence number at which each retired key stopped being live.
+  private final Map<Integer, Long> retiredKeys = new ConcurrentHashMap<>();
+  private final AtomicLong sequence = new AtomicLong();
+  private final AtomicBoolean writersDone = new AtomicBoolean();
+
+  @Test
+  public void concurrentWritesAndQueries_returnConsistentRecords() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(NUM_WRITERS + NUM_READERS);
+    try {
+      List<Future<?>> writers = new ArrayList<>();
+      for (int i = 0; i < NUM_WRITERS; i++) {
+        long seed = i;
+        writers.add(executor.submit(() -> write(new Random(seed))));
+      }
+      List<Future<Integer>> readers = new ArrayList<>();
+      for (int i = 0; i < NUM_READERS; i++) {
+        long seed = 100 + i;
+        readers.add(executor.submit(() -> read(new Random(seed))));
+      }
+      for (Future<?> writer : writers) {
+        writer.get();
+      }
+      writersDone.set(true);
+      int numQueries = 0;
+      for (Future<Integer> reader : readers) {
+        numQueries += reader.get();
+      }
+      assertTrue(numQueries > 0);
+    } finally {
+      executor.shutdownNow();
+    }
+
+    assertEquals(liveKeys.size(), store.size());
+    for (Map.Entry<Long, Integer> entry : liveKeys.entrySet()) {
+      assertEquals(entry.getValue(), store.get(entry.getKey().intValue()).getData());
+    }
+    Set<Integer> returnedKeys = new HashSet<>();
+    for (VectorStoreRecord<Integer> record :
+        store.getNearestRecords(vectorFor(0), liveKeys.size() + TOP_K, -1f)) {
+      checkRecord(record);
+      returnedKeys.add(record.getData());
+    }
+    assertEquals(new HashSet<>(liveKeys.values()), returnedKeys);
+  }
+
+  @Test
+  public void upsert_neverHidesTheRecordFromConcurrentQueries() throws Exception {
+    for (int key = 1; key <= 3 * 1024; key++) {
+      store.insert(recordFor(key));
+    }
+    EmbeddingVector pinned = vectorFor(0);
+    long id = store.insertAndGetId(VectorStoreRecord.create(0, pinned));
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<?> upserts =
+          executor.submit(
+              () -> {
+                for (int version = 1; version <= 20_000; version++) {
+                  // Same embedding every time, so the record is always the nearest to itself.
+                  store.upsert(id, VectorStoreRecord.create(-version, pinned));
+                }
+              });
+      while (!upserts.isDone()) {
+        List<VectorStoreRecord<Integer>> nearest = store.getNearestRecords(pinned, 1, -1f);
+        assertEquals(1, nearest.size());
+        assertEquals(pinned, nearest.get(0).getEmbeddingVector());
+      }
+      upserts.get();
+    } finally {
+      executor.shutdownNow();
+    }
+    assertEquals(3 * 1024 + 1, store.size());
+  }
+
+  private void write(Random random) {
+    List<Long> ownIds = new ArrayList<>();
+    for (int i = 0; i < OPERATIONS_PER_WRITER; i++) {
+      int operation = random.nextInt(10);
+      if (ownIds.isEmpty() || operation < 6) {
+        int key = nextKey.getAndIncrement();
+        long id = store.insertAndGetId(recordFor(key));
+        liveKeys.put(id, key);
+        ownIds.add(id);
+      } else if (operation < 8) {
+        long id = ownIds.get(random.nextInt(ownIds.size()));
+        int key = nextKey.getAndIncrement();
+        store.upsert(id, recordFor(key));
+        retire(liveKeys.put(id, key));
+      } else {
+        long id = ownIds.remove(random.nextInt(ownIds.size()));
+        store.delete(id);
+        retire(liveKeys.remove(id));
+      }
+    }
+  }
+
+  private void retire(int key) {
+    retiredKeys.put(key, sequence.incrementAndGet());
+  }
+
+  private int read(Random random) {
+    int numQueries = 0;
+    while (!writersDone.get()) {
+      long start = sequence.get();
+      EmbeddingVector query = vectorFor(random.nextInt(Math.max(1, nextKey.get())));
+      List<? extends List<VectorStoreRecord<Integer>>> results;
+      int group = -1;
+      switch (random.nextInt(3)) {
+        case 0:
+          results = ImmutableList.of(store.getNearestRecords(query, TOP_K, -1f));
+          break;
+        case 1:
+          group = random.nextInt(NUM_GROUPS);
+          results =
+              ImmutableList.of(
+                  store.getNearestRecords(
+                      query, TOP_K, -1f, MetadataFilter.equalTo(GROUP_KEY, "g" + group)));
+          break;
+        default:
+          results = store.getNearestRecordsBatch(ImmutableList.of(query, vectorFor(0)), TOP_K, -1f);
+          break;
+      }
+      for (List<VectorStoreRecord<Integer>> records : results) {
+        assertTrue(records.size() <= TOP_K);
+        for (VectorStoreRecord<Integer> record : records) {
+          checkRecord(record);
+          if (group >= 0) {
+            assertEquals(group, record.getData() % NUM_GROUPS);
+          }
+          Long retiredAt = retiredKeys.get(record.getData());
+          assertFalse(
+              "Returned key " + record.getData() + " retired before the query started",
+              retiredAt != null && retiredAt <= start);
+        }
+      }
+      numQueries++;
+    }
+    return numQueries;
+  }
+
+  private static void checkRecord(VectorStoreRecord<Integer> record) {
+    int key = record.getData();
+    assertEquals(vectorFor(key), record.getEmbeddingVector());
+    assertEquals("g" + key % NUM_GROUPS, record.getMetadata().get(GROUP_KEY));
+  }
+
+  private static VectorStoreRecord<Integer> recordFor(int key) {
+    return VectorStoreRecord.create(
+        key, vectorFor(key), ImmutableMap.<String, Object>of(GROUP_KEY, "g" + key % NUM_GROUPS));
+  }
+
+  private static EmbeddingVector vectorFor(int key) {
+    Random random = new Random(key);
+    float[] vector = new float[DIMENSIONS];
+    for (int i = 0; i < DIMENSIONS; i++) {
+      vector[i] = (float) random.nextGaussian();
+    }
+    return EmbeddingVector.of(vector);
+  }
+}
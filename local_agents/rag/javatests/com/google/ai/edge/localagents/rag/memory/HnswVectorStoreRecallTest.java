@@ -0,0 +1,77 @@
+/**
+ * Copyright 2025 The Google AI Edge Authors.
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ai.edge.localagents.rag.memory;
+
+import static org.junit.Assert.assertTrue;
+
+import com.google.ai.edge.localagents.rag.shared.EmbeddingVector;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Measures the recall@k of {@link HnswVectorStore} against an exact scan for several values of
+ * {@link HnswConfig#getEfSearch()}.
+ */
+@RunWith(JUnit4.class)
+public final class HnswVectorStoreRecallTest {
+  private static final int NUM_RECORDS = 5_000;
+  private static final int DIMENSIONS = 64;
+  private static final int NUM_QUERIES = 200;
+  private static final int TOP_K = 10;
+  private static final int[] EF_SEARCH_VALUES = {16, 64, 256};
+
+  @Test
+  public void recallGrowsWithEfSearch() throws Exception {
+    TestVectors vectors = new TestVectors(/* seed= */ 1, DIMENSIONS, /* numClusters= */ 50, 2f);
+    List<VectorStoreRecord<Integer>> records = vectors.records(NUM_RECORDS);
+    DefaultVectorStore<Integer> exactStore = new DefaultVectorStore<>(/* parallelism= */ 1);
+    HnswVectorStore<Integer> hnswStore = new HnswVectorStore<>();
+    for (VectorStoreRecord<Integer> record : records) {
+      exactStore.insert(record);
+      hnswStore.insert(record);
+    }
+    // The graph is built once and reloaded with each efSearch, which only affects queries.
+    ByteArrayOutputStream graph = new ByteArrayOutputStream();
+    hnswStore.writeGraph(graph);
+
+    List<EmbeddingVector> queries = new ArrayList<>();
+    List<List<VectorStoreRecord<Integer>>> expected = new ArrayList<>();
+    for (int i = 0; i < NUM_QUERIES; i++) {
+      EmbeddingVector query = vectors.next();
+      expected.add(exactStore.getNearestRecords(query, TOP_K, -1f));
+      queries.add(query);
+    }
+
+    double[] recalls = new double[EF_SEARCH_VALUES.length];
+    for (int run = 0; run < EF_SEARCH_VALUES.length; run++) {
+      HnswVectorStore<Integer> store =
+          HnswVectorStore.readGraph(
+              new ByteArrayInputStream(graph.toByteArray()),
+              HnswConfig.builder().setEfSearch(EF_SEARCH_VALUES[run]).build(),
+              records);
+      for (int i = 0; i < NUM_QUERIES; i++) {
+        List<VectorStoreRecord<Integer>> results =
+            store.getNearestRecords(queries.get(i), TOP_K, -1f);
+        recalls[run] += TestVectors.recall(expected.get(i), results) / NUM_QUERIES;
+      }
+    }
+    assertTrue(recalls[recalls.length - 1] >= recalls[0]);
+    assertTrue("recall@10 " + recalls[1], recalls[1] >= 0.9);
+  }
+}
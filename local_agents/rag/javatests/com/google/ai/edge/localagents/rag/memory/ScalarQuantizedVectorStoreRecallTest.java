@@ -0,0 +1,80 @@
+/**
+ * Copyright 2025 The Google AI Edge Authors.
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ai.edge.localagents.rag.memory;
+
+import static org.junit.Assert.assertTrue;
+
+import com.google.ai.edge.localagents.rag.shared.EmbeddingVector;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Measures the recall@k of {@link ScalarQuantizedVectorStore} against an exact scan, with the
+ * full-precision vectors kept in a file.
+ */
+@RunWith(JUnit4.class)
+public final class ScalarQuantizedVectorStoreRecallTest {
+  private static final int NUM_RECORDS = 20_000;
+  private static final int DIMENSIONS = 128;
+  private static final int NUM_QUERIES = 100;
+  private static final int TOP_K = 10;
+
+  @Test
+  public void fileBackedStore_keepsRecall() throws Exception {
+    ScalarQuantizer quantizer = trainQuantizer();
+    Path vectorFile = Files.createTempFile("sq", ".vectors");
+    DefaultVectorStore<Integer> exactStore = new DefaultVectorStore<>(/* parallelism= */ 1);
+    try (ScalarQuantizedVectorStore<Integer> store =
+        new ScalarQuantizedVectorStore<>(
+            quantizer, ScalarQuantizedVectorStore.DEFAULT_RERANK_MULTIPLIER, vectorFile)) {
+      TestVectors vectors = newVectors();
+      for (int i = 0; i < NUM_RECORDS; i++) {
+        VectorStoreRecord<Integer> record = VectorStoreRecord.create(i, vectors.next());
+        exactStore.insert(record);
+        store.insert(record);
+      }
+
+      double recall = 0;
+      for (int i = 0; i < NUM_QUERIES; i++) {
+        EmbeddingVector query = vectors.next();
+        recall +=
+            TestVectors.recall(
+                    exactStore.getNearestRecords(query, TOP_K, -1f),
+                    store.getNearestRecords(query, TOP_K, -1f))
+                / NUM_QUERIES;
+      }
+      assertTrue("recall@10 " + recall, recall >= 0.9);
+    } finally {
+      Files.deleteIfExists(vectorFile);
+    }
+  }
+
+  private static TestVectors newVectors() {
+    return new TestVectors(/* seed= */ 2, DIMENSIONS, /* numClusters= */ 50, 2f);
+  }
+
+  private static ScalarQuantizer trainQuantizer() {
+    TestVectors vectors = newVectors();
+    List<EmbeddingVector> sample = new ArrayList<>();
+    for (int i = 0; i < 1_000; i++) {
+      sample.add(vectors.next());
+    }
+    return ScalarQuantizer.train(sample);
+  }
+}
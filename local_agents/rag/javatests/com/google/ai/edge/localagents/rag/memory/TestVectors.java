@@ -0,0 +1,78 @@
+/**
+ * Copyright 2025 The Google AI Edge Authors.
+ *
+ * <p>Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file
+ * except in compliance with the License. You may obtain a copy of the License at
+ *
+ * <p>http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * <p>Unless required by applicable law or agreed to in writing, software distributed under the
+ * License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either
+ * express or implied. See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.ai.edge.localagents.rag.memory;
+
+import com.google.ai.edge.localagents.rag.shared.EmbeddingVector;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/** Synthetic embeddings and recall measurement shared by the vector store benchmarks. */
+final class TestVectors {
+  private final Random random;
+  private final float[][] centers;
+  private final float noise;
+
+  /**
+   * Creates a generator of vectors scattered around {@code numClusters} random centers, which
+   * resembles the neighborhoods of real embeddings better than uniform noise.
+   */
+  TestVectors(long seed, int dimensions, int numClusters, float noise) {
+    this.random = new Random(seed);
+    this.centers = new float[numClusters][dimensions];
+    this.noise = noise;
+    for (float[] center : centers) {
+      for (int i = 0; i < dimensions; i++) {
+        center[i] = (float) random.nextGaussian();
+      }
+    }
+  }
+
+  /** Returns a vector near a random center. */
+  EmbeddingVector next() {
+    float[] center = centers[random.nextInt(centers.length)];
+    float[] vector = new float[center.length];
+    for (int i = 0; i < vector.length; i++) {
+      vector[i] = center[i] + noise * (float) random.nextGaussian();
+    }
+    return EmbeddingVector.of(vector);
+  }
+
+  /** Returns {@code count} records whose data is their index. */
+  List<VectorStoreRecord<Integer>> records(int count) {
+    List<VectorStoreRecord<Integer>> records = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      records.add(VectorStoreRecord.create(i, next()));
+    }
+    return records;
+  }
+
+  /** Returns the fraction of {@code expected} records that are in {@code actual}. */
+  static double recall(
+      List<VectorStoreRecord<Integer>> expected, List<VectorStoreRecord<Integer>> actual) {
+    Set<Integer> expectedData = new HashSet<>();
+    for (VectorStoreRecord<Integer> record : expected) {
+      expectedData.add(record.getData());
+    }
+    int hits = 0;
+    for (VectorStoreRecord<Integer> record : actual) {
+      if (expectedData.contains(record.getData())) {
+        hits++;
+      }
+    }
+    return expected.isEmpty() ? 1 : (double) hits / expected.size();
+  }
+}